@@ -6,8 +6,16 @@ import java.io.IOException;
 
 import apapl.APAPLBuilder;
 import apapl.APLMAS;
+import apapl.Executor;
+import apapl.GuardNetwork;
 import apapl.LoadEnvironmentException;
+import apapl.LockstepExecutor;
+import apapl.ModuleScheduler;
 import apapl.MultiThreadedExecutor;
+import apapl.PooledExecutor;
+import apapl.PrologLibraries;
+import apapl.QueryCache;
+import apapl.QueryTemplate;
 import apapl.benchmarking.APLBenchmarkParam;
 import apapl.benchmarking.APLBenchmarker;
 import apapl.messaging.JadeMessenger;
@@ -28,6 +36,14 @@ public class APAPL {
     final static String BENCHMARK = "-benchmark";
     final static String BENCHMARK_TIME = "-time";
     final static String BENCHMARK_NOAGENTS = "-noagents";
+    final static String BENCHMARK_INTERPRETED_GUARDS = "-interpretedguards";
+    final static String BELIEF_CACHE = "-beliefcache";
+    final static String GUARD_NETWORK = "-guardnetwork";
+    final static String EAGER_LIBRARIES = "-eagerlibs";
+    final static String POOLED_EXECUTOR = "-pooled";
+    final static String VIRTUAL_THREADS = "-virtualthreads";
+    final static String LOCKSTEP_EXECUTOR = "-lockstep";
+    final static String SCHEDULED_EXECUTOR = "-scheduled";
         
     public static void main(String[] args)
     {    	
@@ -37,6 +53,13 @@ public class APAPL {
         boolean nogui = false;
         // has been the -nojade argument set?
         boolean nojade = false;
+        // has been the -pooled or -virtualthreads argument set?
+        boolean pooled = false;
+        boolean virtualThreads = false;
+        // has been the -lockstep argument set?
+        boolean lockstep = false;
+        // has been the -scheduled argument set?
+        boolean scheduled = false;
         // has been the path to MAS file provided?
         File masfile = null; 
         // default host for jade: localhost
@@ -58,6 +81,22 @@ public class APAPL {
         			arg = HELP_ARGUMENT;
         	} else if (arg.equals(BENCHMARK_NOAGENTS)) {
         		APLBenchmarkParam.MULTIPLE_AGENT_BENCHMARK = false;
+        	} else if (arg.equals(BENCHMARK_INTERPRETED_GUARDS)) {
+        		QueryTemplate.ENABLED = false;
+        	} else if (arg.equals(BELIEF_CACHE)) {
+        		QueryCache.ENABLED = true;
+        	} else if (arg.equals(GUARD_NETWORK)) {
+        		GuardNetwork.ENABLED = true;
+        	} else if (arg.equals(EAGER_LIBRARIES)) {
+        		PrologLibraries.LAZY = false;
+        	} else if (arg.equals(POOLED_EXECUTOR)) {
+        		pooled = true;
+        	} else if (arg.equals(VIRTUAL_THREADS)) {
+        		virtualThreads = true;
+        	} else if (arg.equals(LOCKSTEP_EXECUTOR)) {
+        		lockstep = true;
+        	} else if (arg.equals(SCHEDULED_EXECUTOR)) {
+        		scheduled = true;
         	} else if (arg.equals(NOGUI_ARGUMENT)) {
                 nogui = true;
             } else if (arg.equals(NOJADE_ARGUMENT)) {
@@ -84,12 +123,20 @@ public class APAPL {
                   " \n" +  
                   "2APL (A Practical Agent Programming Language) Interpreter \n" +
                   " \n" +
-                  "Usage: java -jar 2apl.jar [-benchmark [-time <time in sec> ] [-noagents] ] [-nogui] [-nojade] [-host <jade master url>] [-port <jade port>] [-help] [<path to MAS file>] \n" +
+                  "Usage: java -jar 2apl.jar [-benchmark [-time <time in sec> ] [-noagents] [-interpretedguards] ] [-beliefcache] [-guardnetwork] [-eagerlibs] [-pooled] [-scheduled] [-virtualthreads] [-lockstep] [-nogui] [-nojade] [-host <jade master url>] [-port <jade port>] [-help] [<path to MAS file>] \n" +
                   " \n" +
                   "Options: \n" + 
                   "   -benchmark do a benchmark (no graphical interface) \n" +
                   "       -time      <t> the number of seconds to perform a benchmark \n" +
                   "       -noagents  print benchmarking results for all agents combined \n" +
+                  "       -interpretedguards  do not compile rule guards; substitute and convert them on every query \n" +
+                  "   -beliefcache  cache the answers to belief queries until the beliefs they depend on change \n" +
+                  "   -guardnetwork  match rule guards over facts incrementally instead of by Prolog queries \n" +
+                  "   -eagerlibs    load the JIProlog libraries into every belief base instead of when first needed \n" +
+                  "   -pooled  execute the modules on a pool of a thread per processor instead of a thread per module (with -nogui) \n" +
+                  "   -scheduled  as -pooled, executing modules with the most pending messages and events first (with -nogui) \n" +
+                  "   -virtualthreads  execute the modules in virtual threads if the JDK has them (with -nogui) \n" +
+                  "   -lockstep  execute one deliberation cycle of every module per round, delivering messages and events after each round (with -nogui) \n" +
                   "   -nogui   do not open graphical user interface; start the MAS immediately \n" + 
                   "   -nojade  skip JADE configuration and run in standalone mode \n" +
                   "   -host    JADE master container URL. If not set or follows by master acts as master container  \n" +
@@ -167,9 +214,20 @@ public class APAPL {
 
             // load the MAS
             APLMAS mas = null;
+            Executor exec;
+            LockstepExecutor rounds = null;
+            if (lockstep) {
+            	rounds = new LockstepExecutor();
+            	msgr = rounds.buffer(msgr);
+            	exec = rounds;
+            }
+            else if (virtualThreads) exec = PooledExecutor.withVirtualThreads();
+            else if (scheduled) exec = new PooledExecutor(Runtime.getRuntime().availableProcessors(), new ModuleScheduler());
+            else if (pooled) exec = new PooledExecutor();
+            else exec = new MultiThreadedExecutor();
+            long start = System.currentTimeMillis();
             try {
-                mas = builder.buildMas(masfile, msgr,
-                        new MultiThreadedExecutor());
+                mas = builder.buildMas(masfile, msgr, exec);
             } catch (ParseMASException e) {
                 e.printStackTrace();
                 System.exit(0);
@@ -187,6 +245,9 @@ public class APAPL {
             
             if (benchmark)
             {
+            	System.out.println("MAS loaded in " + (System.currentTimeMillis() - start) + " ms, "
+            			+ PrologLibraries.getLoadCount() + " library loads took "
+            			+ PrologLibraries.getLoadTime() + " ms");
             	(new APLBenchmarker()).start(mas);
             } else
             {
@@ -201,6 +262,9 @@ public class APAPL {
 					// TODO Auto-generated catch block
 					e.printStackTrace();
 				}
+	            if (rounds != null)
+	            	System.out.println(rounds.getRounds() + " rounds of " + mas.getModules().size()
+	            			+ " modules, " + Math.round(rounds.getRoundsPerSecond()) + " rounds/sec");
 	            mas.takeDown();
 	            System.out.println("Done");
             }
@@ -2,12 +2,14 @@ package apapl;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import apapl.data.APLFunction;
 import apapl.data.Term;
@@ -32,6 +34,18 @@ public class APLMAS implements MessageListener {
     protected List<APLModule> activeModules;
     /** The list of inactive modules that reside in this MAS. */
     protected List<APLModule> inactiveModules;
+    /** The modules that reside in this MAS by their full names. */
+    protected ConcurrentHashMap<String, APLModule> registry;
+    /**
+     * The active modules, as a bit per registry slot. The array is replaced
+     * whenever a module is activated or deactivated, such that it can be read
+     * without locking.
+     */
+    private volatile long[] activeSlots;
+    /** The number of registry slots handed out. */
+    private int slots;
+    /** The registry slots freed by released modules. */
+    private LinkedList<Integer> freeSlots;
 
     /** The files that are used per module. */
     protected HashMap<APLModule, LinkedList<File>> modulefiles;
@@ -60,6 +74,7 @@ public class APLMAS implements MessageListener {
     protected APLMAS(){
         activeModules = new LinkedList<APLModule>();
         inactiveModules = new LinkedList<APLModule>();
+        clearRegistry();
         modulefiles = new HashMap<APLModule, LinkedList<File>>();
         environments = new LinkedList<Environment>();
         listeners = new ArrayList<MASChangeListener>();
@@ -93,8 +108,10 @@ public class APLMAS implements MessageListener {
      */
     void addModule(APLModule module, LinkedList<File> files,
             boolean active) {
+        register(module);
         if (active) {
             activeModules.add(module);
+            setActive(module, true);
             executor.addModule(module);
         } else {
             inactiveModules.add(module);
@@ -128,6 +145,7 @@ public class APLMAS implements MessageListener {
 
         modulefiles.remove(module);
         inactiveModules.remove(releasedModule);
+        unregister(releasedModule);
         
         // Detach module from all its environments
         Set<String> envs = new HashSet<String>(module.getEnvs().keySet());
@@ -135,6 +153,7 @@ public class APLMAS implements MessageListener {
             detachModuleFromEnvironment(releasedModule, env);
         
         msgr.removeModule(releasedModule.getName());
+        releasedModule.getBeliefbase().close();
     }
 
     /**
@@ -146,6 +165,7 @@ public class APLMAS implements MessageListener {
         // Removes module from inactive list. No effect if not there.
         inactiveModules.remove(module);
         activeModules.add(module);
+        setActive(module, true);
 
         module.resetDeliberationCycle();
 
@@ -164,6 +184,7 @@ public class APLMAS implements MessageListener {
         // Removes module from active list. No effect if not there.
         activeModules.remove(module);
         inactiveModules.add(module);
+        setActive(module, false);
 
         // Notify the MAS Change Listeners
         for (MASChangeListener mcl : listeners) {
@@ -342,6 +363,7 @@ public class APLMAS implements MessageListener {
         // Stop the executor (stop modules)
         executor.stop();
 
+        clearRegistry();
         activeModules = new LinkedList<APLModule>();
         inactiveModules = new LinkedList<APLModule>();
         modulefiles = new HashMap<APLModule, LinkedList<File>>();
@@ -486,11 +508,9 @@ public class APLMAS implements MessageListener {
         else
             fullName = moduleId;
 
-        for (APLModule m : getModules()) {
-            if (m.getName().equals(fullName)) {
-                return m;
-            }
-        }
+        APLModule m = registry.get(fullName);
+        if (m != null)
+            return m;
 
         // Module with the given name does not exist
         throw new ModuleAccessException(fullName,
@@ -524,6 +544,7 @@ public class APLMAS implements MessageListener {
         activateModule(module.getParent());
         deactivateModule(module);
         executor.passControl(module, module.getParent());
+        wakeUp(module.getParent());
     }
 
     /**
@@ -534,7 +555,10 @@ public class APLMAS implements MessageListener {
      *         otherwise
      */
     boolean isActive(APLModule module) {
-        return activeModules.contains(module);
+        int slot = module.masSlot;
+        long[] active = activeSlots;
+        return slot >= 0 && (slot >> 6) < active.length
+                && (active[slot >> 6] & (1L << slot)) != 0;
     }
 
     /**
@@ -545,13 +569,74 @@ public class APLMAS implements MessageListener {
      *         <code>false</code> otherwise
      */
     private boolean containsModule(String moduleId) {
-        for (APLModule m : getModules()) {
-            if (m.getName().equals(moduleId)) {
-                return true;
-            }
+        return registry.containsKey(moduleId);
+    }
+
+    /**
+     * Adds module to the registry under its full name and assigns it a slot in
+     * the set of active modules, reusing the slot of a released module if
+     * there is one.
+     * 
+     * @param module the module to register
+     */
+    private synchronized void register(APLModule module) {
+        module.masSlot = freeSlots.isEmpty() ? slots++ : freeSlots.removeFirst();
+        registry.put(module.getName(), module);
+    }
+
+    /**
+     * Removes module from the registry and frees its slot.
+     * 
+     * @param module the module to unregister
+     */
+    private synchronized void unregister(APLModule module) {
+        if (module.masSlot < 0)
+            return;
+
+        setActive(module, false);
+        registry.remove(module.getName());
+        freeSlots.add(module.masSlot);
+        module.masSlot = -1;
+    }
+
+    /**
+     * Sets the bit of module in the set of active modules. The set is copied,
+     * as it is read by message routing without locking.
+     * 
+     * @param module the module
+     * @param active whether the module is active
+     */
+    private synchronized void setActive(APLModule module, boolean active) {
+        int slot = module.masSlot;
+        if (slot < 0)
+            return;
+
+        long[] a = activeSlots;
+        if ((slot >> 6) >= a.length) {
+            if (!active)
+                return;
+            a = Arrays.copyOf(a, Math.max(2 * a.length, (slot >> 6) + 1));
+        } else {
+            a = a.clone();
         }
 
-        return false;
+        if (active)
+            a[slot >> 6] |= 1L << slot;
+        else
+            a[slot >> 6] &= ~(1L << slot);
+        activeSlots = a;
+    }
+
+    /**
+     * Empties the registry and the set of active modules.
+     */
+    private synchronized void clearRegistry() {
+        for (APLModule m : getModules())
+            m.masSlot = -1;
+        registry = new ConcurrentHashMap<String, APLModule>();
+        activeSlots = new long[1];
+        slots = 0;
+        freeSlots = new LinkedList<Integer>();
     }
 
     /**
@@ -3,6 +3,8 @@ package apapl;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -85,6 +87,10 @@ public class APLModule {
     private ArrayList<Integer> iEvents = new ArrayList<Integer>();
     /** List of received external events. */
     private LinkedList<APLFunction> eEvents = new LinkedList<APLFunction>();
+    /** External events held back until they are flushed, null if not buffered. */
+    private LinkedList<APLFunction> eEventBuffer = null;
+    /** Determines when external actions are performed, null if at once. */
+    private ExternalActionOrder actionOrder = null;
     /** List of environments where this module operates in. */
     private HashMap<String, Environment> envs;
     /** Module's deliberation cycle. */
@@ -95,6 +101,8 @@ public class APLModule {
     private String name;
     /** Multi-agent system in which the module resides. */
     private APLMAS mas;
+    /** Slot of the module in the registry of the MAS, -1 if not registered. */
+    int masSlot = -1;
     /** Parent module. */
     private APLModule parent;
     /** Stopping condition. */
@@ -298,11 +306,79 @@ public class APLModule {
      */
     public void notifyEEevent(APLFunction a, String env) {
         synchronized (eEvents) {
-            eEvents.offer(new APLFunction("event", a, new APLIdent(env)));
+            APLFunction event = new APLFunction("event", a, new APLIdent(env));
+            if (eEventBuffer != null)
+                eEventBuffer.offer(event);
+            else
+                eEvents.offer(event);
         }
         wakeUp();
     }
 
+    /**
+     * Determines whether external events are held back when they are received,
+     * until {@link #flushEEvents()} is called. Used by executors that execute the
+     * modules in rounds, such that the events received during a round are all
+     * processed in the next round. Buffered events are flushed when buffering is
+     * turned off.
+     * 
+     * @param buffered <code>true</code> to buffer the external events
+     */
+    public void setEEventsBuffered(boolean buffered) {
+        if (!buffered)
+            flushEEvents();
+        synchronized (eEvents) {
+            if (buffered && eEventBuffer == null)
+                eEventBuffer = new LinkedList<APLFunction>();
+            else if (!buffered)
+                eEventBuffer = null;
+        }
+    }
+
+    /**
+     * Adds the buffered external events to the queue of received events. The
+     * events are ordered by the name of their environment, and in the order they
+     * were received per environment, such that the order does not depend on how
+     * the threads of different environments were scheduled.
+     */
+    public void flushEEvents() {
+        synchronized (eEvents) {
+            if (eEventBuffer == null || eEventBuffer.isEmpty())
+                return;
+            Collections.sort(eEventBuffer, new Comparator<APLFunction>() {
+                public int compare(APLFunction e1, APLFunction e2) {
+                    return e1.getParams().get(1).toString()
+                            .compareTo(e2.getParams().get(1).toString());
+                }
+            });
+            eEvents.addAll(eEventBuffer);
+            eEventBuffer.clear();
+        }
+    }
+
+    /**
+     * Sets the object that determines when the module may perform an action in an
+     * external environment. Used by executors that execute the modules in parallel
+     * but have their external actions performed in a fixed order.
+     * 
+     * @param order the order, <code>null</code> to perform external actions at
+     *        once
+     */
+    public void setExternalActionOrder(ExternalActionOrder order) {
+        actionOrder = order;
+    }
+
+    /**
+     * Waits until the module may perform an action in an external environment.
+     * This method should only be used by the class responsible for executing
+     * external actions (e.g. {@link apapl.plans.ExternalAction}).
+     */
+    public void awaitExternalActionTurn() {
+        ExternalActionOrder order = actionOrder;
+        if (order != null)
+            order.awaitTurn(this);
+    }
+
     /**
      * This method is invoked to notify that an internal event is thrown. An
      * internal event is thrown when the execution of an action fails. This
@@ -688,9 +764,22 @@ public class APLModule {
         APLModule module = new APLModule(iEvents, eEvents, envs, delib,
                 messenger, name, mas, parent, stoppingCond, beliefs, goals,
                 beliefupdates, pgrules, prrules, pcrules, plans, inEnvironment);
+        // the rules are shared by the clone, its beliefs are analysed separately
+        if (belInertia != null)
+            module.belInertia = belInertia.share(module);
         return module;
     }
 
+    /**
+     * Returns whether the next deliberation step of this module is the first step
+     * of its deliberation cycle.
+     * 
+     * @return <code>true</code> if a complete cycle has been performed
+     */
+    public boolean atCycleStart() {
+        return delib.atCycleStart();
+    }
+
     /**
      * Sleeps the execution of this module.
      */
@@ -699,7 +788,9 @@ public class APLModule {
     }
 
     /**
-     * Wakes up this module.
+     * Wakes up this module. Should be called on every input that may change the
+     * deliberation of the module, such as messages, external events and updates
+     * by other modules.
      */
     public void wakeUp() {
         getMas().wakeUp(this);
@@ -802,4 +893,12 @@ public class APLModule {
 		belInertia.initalize(this);
 	}
 	
-}
\ No newline at end of file
+	/**
+	 * @return the belief inertia of this module, null if belief inertia is not initialized
+	 */
+	public BeliefInertiaModule getBeliefInertia()
+	{
+		return belInertia;
+	}
+	
+}
\ No newline at end of file
@@ -0,0 +1,323 @@
+package apapl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+
+import com.ugos.JIProlog.engine.JIPTerm;
+
+/**
+ * Keeps track of the clauses that have been asserted to a {@link apapl.Prolog} engine.
+ * Each clause is identified by its normalized (quoted) string representation, which
+ * allows for constant time duplicate detection and retraction. Clauses are further
+ * indexed by their predicate (functor and arity of the head) and by the first argument
+ * of their head, such that all clauses of a predicate can be retrieved without scanning
+ * the whole belief base, and a clause to retract can be found among the clauses that
+ * may unify with its first argument only. The insertion order of the clauses is preserved. The clauses
+ * themselves are kept as well, such that they can be asserted to another engine without
+ * being parsed again. Clauses without a text to show are hidden from the user.
+ */
+public class BeliefIndex implements Iterable<String>
+{
+	/** Clauses by their normalized string representation, in insertion order. */
+	private LinkedHashMap<String,Entry> clauses = new LinkedHashMap<String,Entry>();
+
+	/** Normalized clauses by predicate key. */
+	private HashMap<String,LinkedHashSet<String>> byPredicate = new HashMap<String,LinkedHashSet<String>>();
+
+	/** Normalized clauses by predicate key and first argument. */
+	private HashMap<String,LinkedHashSet<String>> byFirstArg = new HashMap<String,LinkedHashSet<String>>();
+
+	/** Normalized clauses by predicate key of which the first argument is not ground. */
+	private HashMap<String,LinkedHashSet<String>> byVariableArg = new HashMap<String,LinkedHashSet<String>>();
+
+	/** The sequence number of the next clause that is added. */
+	private long seq = 0;
+
+	/**
+	 * Constructs an empty index.
+	 */
+	public BeliefIndex()
+	{
+	}
+
+	/**
+	 * Constructs a predicate key out of a functor name and arity.
+	 *
+	 * @param name the name of the functor
+	 * @param arity the arity of the functor
+	 * @return the predicate key
+	 */
+	public static String predicateKey(String name, int arity)
+	{
+		return name + "/" + arity;
+	}
+
+	/**
+	 * Adds a clause to the index.
+	 *
+	 * @param key the normalized string representation of the clause
+	 * @param text the string representation that is shown to the user, null to hide
+	 *        the clause
+	 * @param predicate the predicate key of the head of the clause
+	 * @param firstArg the normalized first argument of the head, null if the head
+	 *        has no arguments or the first argument is not ground
+	 * @param clause the clause
+	 * @return true if the clause was added, false if it was already present
+	 */
+	public boolean add(String key, String text, String predicate, String firstArg, JIPTerm clause)
+	{
+		if (clauses.containsKey(key)) return false;
+
+		clauses.put(key, new Entry(text,predicate,firstArg,clause,seq++));
+		bucket(byPredicate,predicate).add(key);
+		if (firstArg!=null) bucket(byFirstArg,predicate+"#"+firstArg).add(key);
+		else bucket(byVariableArg,predicate).add(key);
+		return true;
+	}
+
+	/**
+	 * Removes a clause from the index.
+	 *
+	 * @param key the normalized string representation of the clause
+	 * @return true if the clause was present, false otherwise
+	 */
+	public boolean remove(String key)
+	{
+		Entry e = clauses.remove(key);
+		if (e==null) return false;
+
+		unbucket(byPredicate,e.predicate,key);
+		if (e.firstArg!=null) unbucket(byFirstArg,e.predicate+"#"+e.firstArg,key);
+		else unbucket(byVariableArg,e.predicate,key);
+		return true;
+	}
+
+	/**
+	 * Checks whether a clause is present.
+	 *
+	 * @param key the normalized string representation of the clause
+	 * @return true if present, false otherwise
+	 */
+	public boolean contains(String key)
+	{
+		return clauses.containsKey(key);
+	}
+
+	/**
+	 * Checks whether a clause is present but hidden from the user.
+	 *
+	 * @param key the normalized string representation of the clause
+	 * @return true if present and hidden, false otherwise
+	 */
+	public boolean isHidden(String key)
+	{
+		Entry e = clauses.get(key);
+		return e!=null && e.text==null;
+	}
+
+	/**
+	 * Shows a hidden clause to the user.
+	 *
+	 * @param key the normalized string representation of the clause
+	 * @param text the string representation that is shown to the user
+	 */
+	public void reveal(String key, String text)
+	{
+		Entry e = clauses.get(key);
+		if (e!=null) clauses.put(key, new Entry(text,e.predicate,e.firstArg,e.clause,e.seq));
+	}
+
+	/**
+	 * Returns the normalized clauses defining a predicate.
+	 *
+	 * @param predicate the predicate key
+	 * @return the clauses, an empty collection if there are none
+	 */
+	public Collection<String> get(String predicate)
+	{
+		LinkedHashSet<String> s = byPredicate.get(predicate);
+		if (s==null) return Collections.emptySet();
+		else return Collections.unmodifiableSet(s);
+	}
+
+	/**
+	 * Returns the normalized clauses defining a predicate of which the head may
+	 * unify with a head with a given (ground) first argument, in insertion order.
+	 * These are the clauses with that first argument and the clauses of which the
+	 * first argument is not ground.
+	 *
+	 * @param predicate the predicate key
+	 * @param firstArg the normalized first argument
+	 * @return the list of clauses
+	 */
+	public ArrayList<String> get(String predicate, String firstArg)
+	{
+		ArrayList<String> l = new ArrayList<String>();
+		Iterator<String> a = get(byFirstArg,predicate+"#"+firstArg).iterator();
+		Iterator<String> b = get(byVariableArg,predicate).iterator();
+		String x = a.hasNext() ? a.next() : null;
+		String y = b.hasNext() ? b.next() : null;
+
+		// both buckets are in insertion order, merge them by sequence number
+		while (x!=null || y!=null) {
+			if (y==null || (x!=null && clauses.get(x).seq<clauses.get(y).seq)) {
+				l.add(x);
+				x = a.hasNext() ? a.next() : null;
+			}
+			else {
+				l.add(y);
+				y = b.hasNext() ? b.next() : null;
+			}
+		}
+		return l;
+	}
+
+	/**
+	 * Returns a clause.
+	 *
+	 * @param key the normalized string representation of the clause
+	 * @return the clause, null if it is not present
+	 */
+	public JIPTerm getClause(String key)
+	{
+		Entry e = clauses.get(key);
+		return e==null ? null : e.clause;
+	}
+
+	/**
+	 * Returns the set of predicate keys for which clauses are present.
+	 *
+	 * @return the predicate keys
+	 */
+	public Collection<String> getPredicates()
+	{
+		return Collections.unmodifiableSet(byPredicate.keySet());
+	}
+
+	/**
+	 * Returns the number of clauses in the index.
+	 *
+	 * @return the number of clauses
+	 */
+	public int size()
+	{
+		return clauses.size();
+	}
+
+	/**
+	 * Returns the clauses as shown to the user, in insertion order. Hidden clauses are
+	 * left out.
+	 *
+	 * @return the list of clauses
+	 */
+	public ArrayList<String> toList()
+	{
+		ArrayList<String> l = new ArrayList<String>(clauses.size());
+		for (Entry e : clauses.values()) if (e.text!=null) l.add(e.text);
+		return l;
+	}
+
+	/**
+	 * Returns the clauses, in insertion order.
+	 *
+	 * @return the list of clauses
+	 */
+	public ArrayList<JIPTerm> getClauses()
+	{
+		ArrayList<JIPTerm> l = new ArrayList<JIPTerm>(clauses.size());
+		for (Entry e : clauses.values()) l.add(e.clause);
+		return l;
+	}
+
+	/**
+	 * Returns the clauses defining a predicate, in insertion order.
+	 *
+	 * @param predicate the predicate key
+	 * @return the list of clauses
+	 */
+	public ArrayList<JIPTerm> getClauses(String predicate)
+	{
+		ArrayList<JIPTerm> l = new ArrayList<JIPTerm>();
+		for (String key : get(predicate)) l.add(clauses.get(key).clause);
+		return l;
+	}
+
+	/**
+	 * Returns a copy of this index. The clauses themselves are not copied.
+	 *
+	 * @return the copy
+	 */
+	public BeliefIndex clone()
+	{
+		BeliefIndex c = new BeliefIndex();
+		c.clauses.putAll(clauses);
+		for (String k : byPredicate.keySet()) c.byPredicate.put(k,new LinkedHashSet<String>(byPredicate.get(k)));
+		for (String k : byFirstArg.keySet()) c.byFirstArg.put(k,new LinkedHashSet<String>(byFirstArg.get(k)));
+		for (String k : byVariableArg.keySet()) c.byVariableArg.put(k,new LinkedHashSet<String>(byVariableArg.get(k)));
+		c.seq = seq;
+		return c;
+	}
+
+	/**
+	 * Returns an iterator over the clauses as shown to the user, in insertion order.
+	 * Hidden clauses are left out.
+	 *
+	 * @return the iterator
+	 */
+	public Iterator<String> iterator()
+	{
+		return toList().iterator();
+	}
+
+	private static Collection<String> get(HashMap<String,LinkedHashSet<String>> index, String k)
+	{
+		LinkedHashSet<String> s = index.get(k);
+		if (s==null) return Collections.emptySet();
+		else return s;
+	}
+
+	private static LinkedHashSet<String> bucket(HashMap<String,LinkedHashSet<String>> index, String k)
+	{
+		LinkedHashSet<String> s = index.get(k);
+		if (s==null) {
+			s = new LinkedHashSet<String>();
+			index.put(k,s);
+		}
+		return s;
+	}
+
+	private static void unbucket(HashMap<String,LinkedHashSet<String>> index, String k, String key)
+	{
+		LinkedHashSet<String> s = index.get(k);
+		if (s!=null) {
+			s.remove(key);
+			if (s.isEmpty()) index.remove(k);
+		}
+	}
+
+	/**
+	 * A single indexed clause.
+	 */
+	private static class Entry
+	{
+		String text;
+		String predicate;
+		String firstArg;
+		JIPTerm clause;
+		long seq;
+
+		Entry(String text, String predicate, String firstArg, JIPTerm clause, long seq)
+		{
+			this.text = text;
+			this.predicate = predicate;
+			this.firstArg = firstArg;
+			this.clause = clause;
+			this.seq = seq;
+		}
+	}
+}
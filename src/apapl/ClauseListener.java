@@ -0,0 +1,29 @@
+package apapl;
+
+import com.ugos.JIProlog.engine.JIPTerm;
+
+/**
+ * Defines an interface for an object that listens for clauses being asserted to and
+ * retracted from a Prolog engine, see {@link Prolog#setClauseListener}.
+ */
+public interface ClauseListener
+{
+	/**
+	 * Invoked when a clause has been asserted.
+	 *
+	 * @param predicate the predicate key of the head of the clause
+	 * @param key the normalized string representation of the clause, see
+	 *        {@link BeliefIndex}
+	 * @param clause the clause
+	 */
+	public void clauseAdded(String predicate, String key, JIPTerm clause);
+
+	/**
+	 * Invoked when a clause has been retracted.
+	 *
+	 * @param predicate the predicate key of the head of the clause
+	 * @param key the normalized string representation of the clause, null if no
+	 *        clause of the index was retracted
+	 */
+	public void clauseRemoved(String predicate, String key);
+}
@@ -0,0 +1,366 @@
+package apapl;
+
+import java.util.HashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import apapl.deliberation.DeliberationResult;
+
+/**
+ * Delivers the events of modules and executors to observers asynchronously, such
+ * that slow observers do not slow down the deliberation of the modules. The bus is
+ * registered as {@link ModuleChangeListener} of the modules and as
+ * {@link MASExecutionListener} of the multi-agent system, and passes the events on
+ * to its subscribers.
+ * <p>
+ * Every subscriber has a bounded ring buffer of events and its own thread that
+ * delivers the events in the order they were published. What happens when the
+ * buffer of a subscriber is full is determined by its {@link Policy}.
+ */
+public class EventBus implements ModuleChangeListener, MASExecutionListener
+{
+	/**
+	 * Determines what happens to an event for a subscriber of which the buffer is
+	 * full.
+	 */
+	public enum Policy
+	{
+		/** The event is dropped. */
+		DROP,
+		/**
+		 * A module change event replaces the pending change event of the same
+		 * module, if any, and is dropped otherwise. The old event is removed and
+		 * the new event is put at the end of the buffer, such that the events
+		 * remain in the order they were published. Execution events are rare and
+		 * are not dropped; the publisher waits until there is space.
+		 */
+		COALESCE,
+		/** The publisher waits until there is space. */
+		BLOCK
+	}
+
+	/** The default capacity of the buffer of a subscriber. */
+	public static final int CAPACITY = 1024;
+
+	private static final int CHANGED = 0;
+	private static final int WILL_START = 1;
+	private static final int STOPPED = 2;
+	private static final int PUT_TO_SLEEP = 3;
+	private static final int WILL_WAKE_UP = 4;
+
+	private CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
+
+	/**
+	 * Subscribes an observer to the events of the bus, with a buffer of the
+	 * default capacity.
+	 *
+	 * @param listener the observer, a {@link ModuleChangeListener} and/or a
+	 *        {@link MASExecutionListener}
+	 * @param policy the policy for a full buffer
+	 * @return the subscription
+	 */
+	public Subscription subscribe(Object listener, Policy policy)
+	{
+		return subscribe(listener, policy, CAPACITY);
+	}
+
+	/**
+	 * Subscribes an observer to the events of the bus.
+	 *
+	 * @param listener the observer, a {@link ModuleChangeListener} and/or a
+	 *        {@link MASExecutionListener}
+	 * @param policy the policy for a full buffer
+	 * @param capacity the capacity of the buffer
+	 * @return the subscription
+	 */
+	public Subscription subscribe(Object listener, Policy policy, int capacity)
+	{
+		if (!(listener instanceof ModuleChangeListener || listener instanceof MASExecutionListener))
+			throw new IllegalArgumentException("Not a module change or execution listener: " + listener);
+
+		Subscription s = new Subscription(listener, policy, capacity);
+		subscriptions.add(s);
+		s.start();
+		return s;
+	}
+
+	/**
+	 * Closes the bus. The subscribers receive the events that are still in their
+	 * buffers; events published afterwards are ignored.
+	 */
+	public void close()
+	{
+		for (Subscription s : subscriptions)
+			s.unsubscribe();
+	}
+
+	public void moduleChanged(APLModule module, DeliberationResult result)
+	{
+		publish(CHANGED, module, result);
+	}
+
+	public void moduleWillStart(APLModule module)
+	{
+		publish(WILL_START, module, null);
+	}
+
+	public void moduleStopped(APLModule module)
+	{
+		publish(STOPPED, module, null);
+	}
+
+	public void moduleWillWakeUp(APLModule module)
+	{
+		publish(WILL_WAKE_UP, module, null);
+	}
+
+	public void modulePutToSleep(APLModule module)
+	{
+		publish(PUT_TO_SLEEP, module, null);
+	}
+
+	private void publish(int type, APLModule module, DeliberationResult result)
+	{
+		Event e = new Event(type, module, result);
+		for (Subscription s : subscriptions)
+			s.offer(e);
+	}
+
+	/**
+	 * An event in the buffer of a subscriber.
+	 */
+	private static class Event
+	{
+		final int type;
+		final APLModule module;
+		final DeliberationResult result;
+
+		Event(int type, APLModule module, DeliberationResult result)
+		{
+			this.type = type;
+			this.module = module;
+			this.result = result;
+		}
+	}
+
+	/**
+	 * The subscription of an observer, with its buffer and the thread that
+	 * delivers the events.
+	 */
+	public class Subscription implements Runnable
+	{
+		private Object listener;
+		private Policy policy;
+
+		// the ring buffer; events are numbered consecutively, the event with
+		// number n is stored at n modulo the capacity
+		private Event[] buffer;
+		private long head = 0;
+		private long tail = 0;
+
+		// the numbers of the pending change events per module, when coalescing
+		private HashMap<APLModule, Long> pending = new HashMap<APLModule, Long>();
+
+		private boolean closed = false;
+		private long dropped = 0;
+		private long coalesced = 0;
+
+		private Subscription(Object listener, Policy policy, int capacity)
+		{
+			this.listener = listener;
+			this.policy = policy;
+			buffer = new Event[capacity];
+		}
+
+		private void start()
+		{
+			Thread t = new Thread(this, "EventBus-" + listener.getClass().getSimpleName());
+			t.setDaemon(true);
+			t.start();
+		}
+
+		/**
+		 * Stops delivering events once the events in the buffer have been
+		 * delivered.
+		 */
+		public synchronized void unsubscribe()
+		{
+			closed = true;
+			subscriptions.remove(this);
+			notifyAll();
+		}
+
+		/**
+		 * Returns the number of events that have been dropped because the buffer
+		 * was full.
+		 *
+		 * @return the number of dropped events
+		 */
+		public synchronized long getDropped()
+		{
+			return dropped;
+		}
+
+		/**
+		 * Returns the number of change events that have been replaced by a later
+		 * change event of the same module.
+		 *
+		 * @return the number of coalesced events
+		 */
+		public synchronized long getCoalesced()
+		{
+			return coalesced;
+		}
+
+		/**
+		 * Returns the number of events that have not been delivered yet.
+		 *
+		 * @return the number of pending events
+		 */
+		public synchronized int getPending()
+		{
+			return (int)(tail - head);
+		}
+
+		/**
+		 * Adds an event to the buffer, according to the policy.
+		 */
+		private synchronized void offer(Event e)
+		{
+			if (closed)
+				return;
+
+			boolean change = e.type == CHANGED;
+			if (change && !(listener instanceof ModuleChangeListener))
+				return;
+			if (!change && !(listener instanceof MASExecutionListener))
+				return;
+
+			while (tail - head == buffer.length)
+			{
+				if (policy == Policy.DROP)
+				{
+					dropped++;
+					return;
+				}
+				if (policy == Policy.COALESCE && change)
+				{
+					if (!replace(e))
+						dropped++;
+					return;
+				}
+				try
+				{
+					wait();
+				} catch (InterruptedException ex)
+				{
+					dropped++;
+					return;
+				}
+				if (closed)
+					return;
+			}
+
+			if (change && policy == Policy.COALESCE)
+				pending.put(e.module, tail);
+			buffer[(int)(tail % buffer.length)] = e;
+			tail++;
+			notifyAll();
+		}
+
+		/**
+		 * Removes the pending change event of the module of an event from the full
+		 * buffer and puts the event at the end. Returns false if there is no
+		 * pending change event of the module.
+		 */
+		private boolean replace(Event e)
+		{
+			Long n = pending.get(e.module);
+			if (n == null || n < head)
+				return false;
+
+			// shift the later events one place towards the head
+			for (long m = n; m < tail - 1; m++)
+			{
+				Event next = buffer[(int)((m + 1) % buffer.length)];
+				buffer[(int)(m % buffer.length)] = next;
+				if (next.type == CHANGED)
+					pending.put(next.module, m);
+			}
+			buffer[(int)((tail - 1) % buffer.length)] = e;
+			pending.put(e.module, tail - 1);
+			coalesced++;
+			notifyAll();
+			return true;
+		}
+
+		/**
+		 * Takes the next event from the buffer, waiting until there is one. Returns
+		 * null when the subscription is closed and the buffer is empty.
+		 */
+		private synchronized Event take()
+		{
+			while (head == tail)
+			{
+				if (closed)
+					return null;
+				try
+				{
+					wait();
+				} catch (InterruptedException ex)
+				{
+					return null;
+				}
+			}
+
+			int i = (int)(head % buffer.length);
+			Event e = buffer[i];
+			buffer[i] = null;
+			if (e.type == CHANGED && policy == Policy.COALESCE)
+			{
+				Long n = pending.get(e.module);
+				if (n != null && n == head)
+					pending.remove(e.module);
+			}
+			head++;
+			notifyAll();
+			return e;
+		}
+
+		/**
+		 * Delivers the events to the observer.
+		 */
+		public void run()
+		{
+			Event e;
+			while ((e = take()) != null)
+			{
+				try
+				{
+					deliver(e);
+				} catch (RuntimeException ex)
+				{
+					// A failing observer does not stop the delivery
+					ex.printStackTrace();
+				}
+			}
+		}
+
+		private void deliver(Event e)
+		{
+			if (e.type == CHANGED)
+			{
+				((ModuleChangeListener)listener).moduleChanged(e.module, e.result);
+				return;
+			}
+
+			MASExecutionListener mel = (MASExecutionListener)listener;
+			switch (e.type)
+			{
+			case WILL_START: mel.moduleWillStart(e.module); break;
+			case STOPPED: mel.moduleStopped(e.module); break;
+			case PUT_TO_SLEEP: mel.modulePutToSleep(e.module); break;
+			case WILL_WAKE_UP: mel.moduleWillWakeUp(e.module); break;
+			}
+		}
+	}
+}
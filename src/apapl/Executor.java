@@ -97,7 +97,10 @@ public interface Executor
 	public void sleep(APLModule module);
 
 	/**
-	 * Wakes one of the modules up.
+	 * Wakes one of the modules up. Is called whenever an input arrives that may
+	 * change the deliberation of the module, such as a message or an external
+	 * event. If the module is not sleeping, it should not go to sleep the next
+	 * time it is put to sleep, as the input may have arrived after it decided to.
 	 * 
 	 * @param module the module to wake up
 	 */
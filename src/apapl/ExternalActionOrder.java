@@ -0,0 +1,19 @@
+package apapl;
+
+/**
+ * Defines an interface for an object that determines the order in which modules
+ * perform actions in external environments, see
+ * {@link APLModule#setExternalActionOrder}. Used by executors that execute modules
+ * in parallel, but want the environments to receive the actions in an order that
+ * does not depend on the scheduling of threads.
+ */
+public interface ExternalActionOrder
+{
+	/**
+	 * Invoked before a module performs an action in an external environment.
+	 * Returns when it is the turn of the module.
+	 *
+	 * @param module the module that will perform the action
+	 */
+	public void awaitTurn(APLModule module);
+}
@@ -0,0 +1,470 @@
+package apapl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+
+import apapl.data.APLFunction;
+import apapl.data.APLIdent;
+import apapl.data.APLList;
+import apapl.data.APLListVar;
+import apapl.data.APLNum;
+import apapl.data.APLVar;
+import apapl.data.AndQuery;
+import apapl.data.ComposedQuery;
+import apapl.data.Goal;
+import apapl.data.Literal;
+import apapl.data.OrQuery;
+import apapl.data.Query;
+import apapl.data.Term;
+import apapl.data.True;
+
+/**
+ * Matches queries against the literals of a single {@link apapl.data.Goal} without
+ * the use of a Prolog engine. The literals of the goal are treated as a set of facts,
+ * and a query consisting of (negated) literals, conjunctions and disjunctions is
+ * solved by unifying the query literals directly with these facts. The solutions are
+ * identical to those obtained by asserting the literals of the goal to a fresh
+ * {@link apapl.Prolog} engine and performing the query on it. The matcher is also used
+ * for other sets of facts, such as the plan descriptors of the plan base (see
+ * {@link apapl.program.Planbase#doTest}). Facts are indexed by their functor, such 
+ * that a literal is only unified with the facts of the same name and arity.
+ * <p>
+ * Queries that use predefined Prolog predicates (such as arithmetic comparisons or
+ * list predicates, see {@link apapl.JIPConverter#isPredefined}) cannot be solved by
+ * the matcher. Use {@link #supports(Query)} to check whether a query can be handled.
+ */
+public class GoalMatcher
+{
+	/** The literals of the goal, acting as facts. */
+	private Term[] facts;
+	/** Indicates per fact whether it contains variables and needs renaming. */
+	private boolean[] ground;
+	/** The indices of the facts by their functor, see {@link #functor(Term)}. */
+	private HashMap<String,int[]> index = new HashMap<String,int[]>();
+	private static final int[] NONE = new int[0];
+	/** The indices of all facts, used if some fact is not an atom or compound term. */
+	private int[] all = null;
+
+	/** Current variable bindings. */
+	private HashMap<String,Term> bindings = new HashMap<String,Term>();
+	/** Variables bound so far, in order of binding. Used for backtracking. */
+	private ArrayList<String> trail = new ArrayList<String>();
+
+	/** The variables of the query for which solutions are collected. */
+	private ArrayList<String> queryVars;
+	/** The solutions found so far. */
+	private ArrayList<SubstList<Term>> solutions;
+	/** The maximum number of solutions to find, negative for all. */
+	private int max;
+	/** Counter used for renaming the variables of non-ground facts. */
+	private int renameCounter = 0;
+
+	/**
+	 * Constructs a matcher for the given goal.
+	 *
+	 * @param goal the goal of which the literals are matched
+	 */
+	public GoalMatcher(Goal goal)
+	{
+		ArrayList<Term> f = new ArrayList<Term>();
+		for (Literal l : goal)
+			if (l.getSign()) f.add(l.getBody());
+
+		setFacts(f);
+	}
+
+	/**
+	 * Constructs a matcher for the given facts.
+	 *
+	 * @param facts the facts, atoms or compound terms
+	 */
+	public GoalMatcher(Collection<Term> facts)
+	{
+		setFacts(facts);
+	}
+
+	private void setFacts(Collection<Term> f)
+	{
+		facts = f.toArray(new Term[f.size()]);
+		ground = new boolean[facts.length];
+		HashMap<String,ArrayList<Integer>> indices = new HashMap<String,ArrayList<Integer>>();
+		for (int i=0; i<facts.length; i++) {
+			ground[i] = facts[i].getVariables().isEmpty();
+			String key = functor(facts[i]);
+			if (key==null) {
+				all = new int[facts.length];
+				for (int j=0; j<all.length; j++) all[j] = j;
+			}
+			ArrayList<Integer> l = indices.get(key);
+			if (l==null) {
+				l = new ArrayList<Integer>();
+				indices.put(key,l);
+			}
+			l.add(i);
+		}
+		for (String key : indices.keySet()) {
+			ArrayList<Integer> l = indices.get(key);
+			int[] a = new int[l.size()];
+			for (int i=0; i<a.length; i++) a[i] = l.get(i);
+			index.put(key,a);
+		}
+	}
+
+	/**
+	 * Returns the name and arity of an atom or compound term.
+	 *
+	 * @param t the term
+	 * @return the functor, null if the term is neither an atom nor a compound term
+	 */
+	public static String functor(Term t)
+	{
+		while (t instanceof APLVar && ((APLVar)t).isBounded()) t = ((APLVar)t).getSubst();
+		if (t instanceof APLFunction) return ((APLFunction)t).getName() + "/" + ((APLFunction)t).getParams().size();
+		else if (t instanceof APLIdent) return ((APLIdent)t).getName() + "/0";
+		else return null;
+	}
+
+	/**
+	 * Returns the indices of the facts a literal may unify with.
+	 */
+	private int[] candidates(Term body)
+	{
+		if (all!=null) return all;
+		String key = functor(body);
+		if (key==null) return NONE;
+		int[] c = index.get(key);
+		return c==null ? NONE : c;
+	}
+
+	/**
+	 * Checks whether a query can be solved by the matcher, i.e. whether it consists of
+	 * literals, conjunctions and disjunctions only and does not refer to predefined
+	 * Prolog predicates.
+	 *
+	 * @param query the query to check
+	 * @return true if the query can be solved natively, false otherwise
+	 */
+	public static boolean supports(Query query)
+	{
+		if (query instanceof True) return true;
+		else if (query instanceof AndQuery || query instanceof OrQuery) {
+			ComposedQuery c = (ComposedQuery)query;
+			return supports(c.getLeft()) && supports(c.getRight());
+		}
+		else if (query instanceof Literal) {
+			Term body = ((Literal)query).getBody();
+			if (body instanceof APLFunction) {
+				APLFunction f = (APLFunction)body;
+				return !f.isInfix() && !JIPConverter.isPredefined(f.getName(),f.getParams().size());
+			}
+			else if (body instanceof APLIdent) {
+				return !JIPConverter.isPredefined(((APLIdent)body).getName(),0);
+			}
+			else return false;
+		}
+		else return false;
+	}
+
+	/**
+	 * Solves the query and returns at most <code>max</code> solutions. Each solution
+	 * binds the variables of the query that became bound.
+	 *
+	 * @param query the query to solve
+	 * @param max the maximum number of solutions, a negative number for all solutions
+	 * @return the list of solutions, empty if the query cannot be satisfied
+	 */
+	public ArrayList<SubstList<Term>> solve(Query query, int max)
+	{
+		this.max = max;
+		solutions = new ArrayList<SubstList<Term>>();
+		bindings.clear();
+		trail.clear();
+
+		queryVars = new ArrayList<String>();
+		for (String v : query.getVariables())
+			if (!v.equals("_") && !queryVars.contains(v)) queryVars.add(v);
+
+		if (max != 0) prove(new Conjunction(query, null));
+		return solutions;
+	}
+
+	/**
+	 * Convenience method that solves a query on a goal.
+	 *
+	 * @param goal the goal
+	 * @param query the query
+	 * @param max the maximum number of solutions, a negative number for all solutions
+	 * @return the list of solutions
+	 */
+	public static ArrayList<SubstList<Term>> solve(Goal goal, Query query, int max)
+	{
+		return new GoalMatcher(goal).solve(query,max);
+	}
+
+	/**
+	 * Checks whether enough solutions have been found.
+	 *
+	 * @return true if the search can stop, false otherwise
+	 */
+	private boolean done()
+	{
+		return max >= 0 && solutions.size() >= max;
+	}
+
+	/**
+	 * Proves the remaining queries of a conjunction. Each proof is stored as a solution.
+	 *
+	 * @param c the remaining conjunction to prove, null if nothing is left
+	 */
+	private void prove(Conjunction c)
+	{
+		if (c == null) {
+			solutions.add(currentSolution());
+			return;
+		}
+
+		Query q = c.query;
+		if (q instanceof True) {
+			prove(c.next);
+		}
+		else if (q instanceof AndQuery) {
+			AndQuery a = (AndQuery)q;
+			prove(new Conjunction(a.getLeft(), new Conjunction(a.getRight(), c.next)));
+		}
+		else if (q instanceof OrQuery) {
+			OrQuery o = (OrQuery)q;
+			prove(new Conjunction(o.getLeft(), c.next));
+			if (!done()) prove(new Conjunction(o.getRight(), c.next));
+		}
+		else if (q instanceof Literal) {
+			Literal l = (Literal)q;
+			int[] candidates = candidates(l.getBody());
+			if (l.getSign()) {
+				for (int j=0; j<candidates.length && !done(); j++) {
+					int mark = trail.size();
+					if (unify(l.getBody(), fact(candidates[j]))) prove(c.next);
+					undo(mark);
+				}
+			}
+			else {
+				// negation as failure
+				boolean found = false;
+				for (int j=0; j<candidates.length && !found; j++) {
+					int mark = trail.size();
+					found = unify(l.getBody(), fact(candidates[j]));
+					undo(mark);
+				}
+				if (!found) prove(c.next);
+			}
+		}
+	}
+
+	/**
+	 * Returns the i-th fact. Facts that contain variables are returned with fresh
+	 * variables such that they do not interfere with the variables of the query or
+	 * earlier uses of the same fact.
+	 *
+	 * @param i the index of the fact
+	 * @return the fact
+	 */
+	private Term fact(int i)
+	{
+		if (ground[i]) return facts[i];
+		else return rename(facts[i], "__" + (renameCounter++) + "_");
+	}
+
+	/**
+	 * Returns a copy of a term in which all variables are prefixed.
+	 *
+	 * @param t the term
+	 * @param prefix the prefix to add
+	 * @return the renamed copy
+	 */
+	private static Term rename(Term t, String prefix)
+	{
+		if (t instanceof APLVar) {
+			APLVar v = (APLVar)t;
+			if (v.isBounded()) return rename(v.getSubst(), prefix);
+			else if (v.getName().equals("_")) return new APLVar();
+			else return new APLVar(prefix + v.getName());
+		}
+		else if (t instanceof APLFunction) {
+			APLFunction f = (APLFunction)t;
+			ArrayList<Term> params = new ArrayList<Term>();
+			for (Term p : f.getParams()) params.add(rename(p, prefix));
+			if (f.isInfix()) return new APLFunction(params.get(0), f.getName(), params.get(1));
+			else return new APLFunction(f.getName(), params);
+		}
+		else if (t instanceof APLList) {
+			APLList l = (APLList)t;
+			if (l.isEmpty()) return l;
+			return new APLList(true, rename(l.getHead(), prefix), (APLListVar)rename(l.getTail(), prefix));
+		}
+		else return t;
+	}
+
+	/**
+	 * Dereferences a term, i.e. follows the bindings of variables until an unbound
+	 * variable or a non-variable term is reached.
+	 *
+	 * @param t the term to dereference
+	 * @return the dereferenced term
+	 */
+	private Term deref(Term t)
+	{
+		while (t instanceof APLVar) {
+			APLVar v = (APLVar)t;
+			if (v.isBounded()) t = v.getSubst();
+			else {
+				Term b = bindings.get(v.getName());
+				if (b == null) return v;
+				t = b;
+			}
+		}
+		return t;
+	}
+
+	/**
+	 * Binds a variable and records the binding on the trail.
+	 *
+	 * @param var the name of the variable
+	 * @param t the term to bind to
+	 */
+	private void bind(String var, Term t)
+	{
+		bindings.put(var, t);
+		trail.add(var);
+	}
+
+	/**
+	 * Undoes all bindings that were made after the trail had size <code>mark</code>.
+	 *
+	 * @param mark the size of the trail to return to
+	 */
+	private void undo(int mark)
+	{
+		for (int i = trail.size()-1; i >= mark; i--) bindings.remove(trail.remove(i));
+	}
+
+	/**
+	 * Unifies two terms under the current bindings. New bindings are recorded on
+	 * the trail, also if unification fails.
+	 *
+	 * @param a first term
+	 * @param b second term
+	 * @return true if the terms unify, false otherwise
+	 */
+	private boolean unify(Term a, Term b)
+	{
+		a = deref(a);
+		b = deref(b);
+
+		if (a instanceof APLVar || b instanceof APLVar) {
+			if (a instanceof APLVar && b instanceof APLVar
+			&&  ((APLVar)a).getName().equals(((APLVar)b).getName())) return true;
+
+			APLVar v = (APLVar)(a instanceof APLVar ? a : b);
+			Term t = (a instanceof APLVar ? b : a);
+			if (!v.getName().equals("_")) bind(v.getName(), t);
+			return true;
+		}
+		else if (a instanceof APLNum && b instanceof APLNum) {
+			return ((APLNum)a).getVal().compareTo(((APLNum)b).getVal()) == 0;
+		}
+		else if (a instanceof APLList && b instanceof APLList) {
+			APLList l1 = (APLList)a;
+			APLList l2 = (APLList)b;
+			if (l1.isEmpty() || l2.isEmpty()) return l1.isEmpty() && l2.isEmpty();
+			return unify(l1.getHead(), l2.getHead()) && unify(l1.getTail(), l2.getTail());
+		}
+		else if ((a instanceof APLFunction || a instanceof APLIdent)
+		     &&  (b instanceof APLFunction || b instanceof APLIdent)) {
+			if (!functorName(a).equals(functorName(b))) return false;
+			ArrayList<Term> p1 = params(a);
+			ArrayList<Term> p2 = params(b);
+			if (p1.size() != p2.size()) return false;
+			for (int i=0; i<p1.size(); i++)
+				if (!unify(p1.get(i), p2.get(i))) return false;
+			return true;
+		}
+		else return false;
+	}
+
+	/**
+	 * Returns the functor name of an atom or compound term.
+	 */
+	private static String functorName(Term t)
+	{
+		if (t instanceof APLFunction) return ((APLFunction)t).getName();
+		else return ((APLIdent)t).getName();
+	}
+
+	/**
+	 * Returns the arguments of an atom (none) or compound term.
+	 */
+	private static ArrayList<Term> params(Term t)
+	{
+		if (t instanceof APLFunction) return ((APLFunction)t).getParams();
+		else return new ArrayList<Term>(0);
+	}
+
+	/**
+	 * Builds a copy of a term in which all bound variables are replaced by their value.
+	 *
+	 * @param t the term
+	 * @return the resolved term
+	 */
+	private Term resolve(Term t)
+	{
+		t = deref(t);
+		if (t instanceof APLFunction) {
+			APLFunction f = (APLFunction)t;
+			ArrayList<Term> params = new ArrayList<Term>();
+			for (Term p : f.getParams()) params.add(resolve(p));
+			if (f.isInfix()) return new APLFunction(params.get(0), f.getName(), params.get(1));
+			else return new APLFunction(f.getName(), params);
+		}
+		else if (t instanceof APLList) {
+			APLList l = (APLList)t;
+			if (l.isEmpty()) return new APLList();
+			Term tail = resolve(l.getTail());
+			return new APLList(true, resolve(l.getHead()), (APLListVar)tail);
+		}
+		else if (t instanceof APLVar) {
+			return new APLVar(((APLVar)t).getName());
+		}
+		else return t.clone();
+	}
+
+	/**
+	 * Returns the substitution corresponding to the current bindings of the query
+	 * variables. Variables that are not bound are left out.
+	 *
+	 * @return the substitution
+	 */
+	private SubstList<Term> currentSolution()
+	{
+		SubstList<Term> theta = new SubstList<Term>();
+		for (String v : queryVars) {
+			Term t = resolve(new APLVar(v));
+			if (!(t instanceof APLVar)) theta.put(v, t);
+		}
+		return theta;
+	}
+
+	/**
+	 * A linked list of queries that remain to be proven.
+	 */
+	private static class Conjunction
+	{
+		Query query;
+		Conjunction next;
+
+		Conjunction(Query query, Conjunction next)
+		{
+			this.query = query;
+			this.next = next;
+		}
+	}
+}
@@ -0,0 +1,743 @@
+package apapl;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import apapl.data.APLFunction;
+import apapl.data.APLIdent;
+import apapl.data.APLList;
+import apapl.data.APLNum;
+import apapl.data.APLVar;
+import apapl.data.AndQuery;
+import apapl.data.Literal;
+import apapl.data.Query;
+import apapl.data.Term;
+
+import com.ugos.JIProlog.engine.JIPFunctor;
+import com.ugos.JIProlog.engine.JIPTerm;
+
+/**
+ * An incremental matching network (in the style of TREAT) for rule guards that are
+ * conjunctions of positive literals over predicates that are defined by facts only.
+ * For each such guard the network keeps the combinations of facts that satisfy it,
+ * such that performing the guard does not require a Prolog query.
+ * <p>
+ * The facts of each predicate are kept in an alpha memory that is told about the
+ * facts that are asserted and retracted (see {@link ClauseListener}), and records
+ * these changes in a log. The matches of a guard are updated with the changes in the
+ * log since the guard was last performed: matches that use a removed fact are
+ * dropped, and added facts are joined with the facts of the other literals only.
+ * When the predicate has been modified otherwise (see
+ * {@link apapl.Prolog#getEpoch(String)}), the alpha memory is synchronised with the
+ * belief base, which logs the differences.
+ * <p>
+ * The matches are indexed by the values of the variables that are bound when the
+ * guard is performed, and ordered the way Prolog would find them, by the order in
+ * which the facts were asserted, so the first match that agrees with a substitution
+ * is the solution Prolog would return.
+ * <p>
+ * Guards that use negation, built-in or library predicates, or predicates defined by
+ * rules, consulted files or knowledge layers are not handled by the network; for these
+ * {@link #query} returns null and the guard is performed by Prolog. The network is only
+ * used if {@link #ENABLED} is set.
+ */
+public class GuardNetwork implements ClauseListener
+{
+	/**
+	 * Guards are matched by the network when enabled. Disabled by default; enable to
+	 * match guards over facts incrementally instead of by Prolog queries.
+	 */
+	public static boolean ENABLED = false;
+
+	// the number of changes an alpha memory keeps for a guard that has not been
+	// performed since, after which the matches of that guard are computed again
+	private static final int LOG_LIMIT = 4096;
+
+	private Prolog prolog;
+	private HashMap<String,Alpha> alphas = new HashMap<String,Alpha>();
+	private IdentityHashMap<QueryTemplate,Node> nodes = new IdentityHashMap<QueryTemplate,Node>();
+	private long sequence = 0;
+
+	/**
+	 * Constructs a network on the facts of a Prolog engine. The network listens to
+	 * the clauses asserted to and retracted from the engine.
+	 *
+	 * @param prolog the engine
+	 */
+	public GuardNetwork(Prolog prolog)
+	{
+		this.prolog = prolog;
+		prolog.setClauseListener(this);
+	}
+
+	/**
+	 * Performs a guard with a substitution. If the guard is satisfied, the bindings of
+	 * its variables that are not bound by the substitution are added to it.
+	 *
+	 * @param query the compiled guard
+	 * @param renaming list [[old,new],...] of variables that are renamed in the
+	 *        variant of the rule theta refers to
+	 * @param theta the substitution
+	 * @return whether the guard is satisfied, null if the network cannot perform the
+	 *         guard
+	 */
+	public Boolean query(QueryTemplate query, ArrayList<ArrayList<String>> renaming, SubstList<Term> theta)
+	{
+		Node node = nodes.get(query);
+		if (node==null) {
+			node = new Node(query.getQuery());
+			nodes.put(query,node);
+		}
+		if (node.literals==null || !sync(node)) return null;
+
+		// the values of the variables of the guard that are bound by the substitution
+		HashMap<String,String> r = new HashMap<String,String>();
+		for (ArrayList<String> change : renaming) r.put(change.get(0),change.get(1));
+		String[] names = new String[node.vars.length];
+		Term[] bound = new Term[node.vars.length];
+		long mask = 0;
+		for (int i=0; i<names.length; i++) {
+			String n = r.get(node.vars[i]);
+			names[i] = (n==null ? node.vars[i] : n);
+
+			Term t = theta.get(names[i]);
+			while (t instanceof APLVar && ((APLVar)t).isBounded()) t = ((APLVar)t).getSubst();
+			if (t instanceof APLVar) {
+				// a variable bound to another variable
+				if (!((APLVar)t).getName().equals(names[i])) return null;
+				t = null;
+			}
+			else if (t!=null && !t.getVariables().isEmpty()) return null;
+			bound[i] = t;
+			if (t!=null) mask |= 1L<<i;
+		}
+
+		Bucket b = node.index(mask).get(key(bound,mask));
+		if (b==null) return false;
+		Match m = b.first();
+		for (int i=0; i<bound.length; i++)
+			if (bound[i]==null) theta.put(names[i],m.values[i].clone());
+		return true;
+	}
+
+	/**
+	 * Records a fact that has been asserted in the alpha memory of its predicate, if
+	 * the network keeps one.
+	 */
+	public void clauseAdded(String predicate, String key, JIPTerm clause)
+	{
+		Alpha a = alphas.get(predicate);
+		if (a==null) return;
+		a.add(key,clause);
+		a.epoch = prolog.getEpoch(predicate);
+	}
+
+	/**
+	 * Records a fact that has been retracted in the alpha memory of its predicate, if
+	 * the network keeps one.
+	 */
+	public void clauseRemoved(String predicate, String key)
+	{
+		Alpha a = alphas.get(predicate);
+		if (a==null) return;
+		if (key!=null) a.remove(key);
+		a.epoch = prolog.getEpoch(predicate);
+	}
+
+	/**
+	 * Brings the matches of a node up to date with the facts.
+	 *
+	 * @return false if the guard can no longer be performed by the network
+	 */
+	private boolean sync(Node node)
+	{
+		int n = node.literals.length;
+		Alpha[] a = new Alpha[n];
+		for (int i=0; i<n; i++) {
+			a[i] = alpha(node.predicates[i]);
+			if (a[i]==null) return false;
+			if (node.cursors[i]==null) {
+				node.cursors[i] = new Cursor();
+				a[i].cursors.add(node.cursors[i]);
+			}
+		}
+
+		// compute all matches again if the changes of a literal have been lost
+		for (int i=0; i<n; i++) {
+			if (!node.cursors[i].valid) {
+				node.clear();
+				break;
+			}
+		}
+
+		for (int i=0; i<n; i++) {
+			Cursor c = node.cursors[i];
+			ArrayList<Fact> added = new ArrayList<Fact>();
+			ArrayList<Fact> removed = new ArrayList<Fact>();
+			if (!c.valid) {
+				added.addAll(a[i].facts.values());
+				c.valid = true;
+			}
+			else {
+				for (int k=(int)(c.position-a[i].base); k<a[i].log.size(); k++) {
+					Change change = a[i].log.get(k);
+					if (change.added) added.add(change.fact);
+					else if (!added.remove(change.fact)) removed.add(change.fact);
+				}
+			}
+			c.position = a[i].base + a[i].log.size();
+
+			for (Fact f : removed) {
+				node.seen.get(i).remove(f);
+				HashSet<Match> uses = node.uses.get(i).remove(f);
+				if (uses!=null) for (Match m : new ArrayList<Match>(uses)) node.remove(m);
+			}
+
+			// join the added facts with the facts the other literals have seen, which
+			// includes those added to earlier literals in this round
+			node.seen.get(i).addAll(added);
+			for (Fact f : added) {
+				Fact[] tuple = new Fact[n];
+				tuple[i] = f;
+				HashMap<String,Term> b = new HashMap<String,Term>();
+				if (match(node.literals[i],f.term,b)) join(node,i,0,tuple,b);
+			}
+		}
+
+		for (int i=0; i<n; i++) a[i].trim();
+		return true;
+	}
+
+	/**
+	 * Extends a partial match with facts for the literals from j on, except the
+	 * literal i of which the fact has been fixed.
+	 */
+	private void join(Node node, int i, int j, Fact[] tuple, HashMap<String,Term> b)
+	{
+		if (j==i) j++;
+		if (j==node.literals.length) {
+			Term[] values = new Term[node.vars.length];
+			for (int k=0; k<values.length; k++) values[k] = b.get(node.vars[k]);
+			node.add(new Match(tuple.clone(),values));
+			return;
+		}
+
+		for (Fact f : node.seen.get(j)) {
+			HashMap<String,Term> b2 = new HashMap<String,Term>(b);
+			if (match(node.literals[j],f.term,b2)) {
+				tuple[j] = f;
+				join(node,i,j+1,tuple,b2);
+			}
+		}
+		tuple[j] = null;
+	}
+
+	/**
+	 * Returns the alpha memory of a predicate, null if the predicate is not defined
+	 * by ground facts only. The alpha memory is synchronised with the belief base if
+	 * the predicate has been modified without the network being told.
+	 */
+	private Alpha alpha(String predicate)
+	{
+		if (prolog.isConsulted() || prolog.hasLayers()) return null;
+		if (prolog.getRuleDependencies(predicate)!=null || prolog.isOpaque(predicate)) return null;
+
+		Alpha a = alphas.get(predicate);
+		if (a==null) {
+			a = new Alpha();
+			alphas.put(predicate,a);
+		}
+		long epoch = prolog.getEpoch(predicate);
+		if (epoch!=a.epoch) {
+			a.epoch = epoch;
+			a.sync(prolog.getBeliefIndex(),predicate);
+		}
+		return a.nonGround.isEmpty() ? a : null;
+	}
+
+	/**
+	 * Returns the key by which the matches with the given values of the variables of
+	 * a guard are indexed.
+	 *
+	 * @param values the values of the variables of the guard
+	 * @param mask the positions of the values that are part of the key
+	 */
+	private static String key(Term[] values, long mask)
+	{
+		StringBuilder s = new StringBuilder();
+		for (int i=0; i<values.length; i++) {
+			if ((mask & 1L<<i)==0) continue;
+			key(values[i],s);
+			s.append(';');
+		}
+		return s.toString();
+	}
+
+	/**
+	 * Appends a representation of a ground term to a key, such that terms have the
+	 * same representation if and only if they are equal (see {@link #equal}).
+	 */
+	private static void key(Term t, StringBuilder s)
+	{
+		while (t instanceof APLVar && ((APLVar)t).isBounded()) t = ((APLVar)t).getSubst();
+
+		if (t instanceof APLNum) {
+			BigDecimal v = ((APLNum)t).getVal();
+			s.append('n').append(v.signum()==0 ? "0" : v.stripTrailingZeros().toPlainString());
+		}
+		else if (t instanceof APLIdent) name('a',((APLIdent)t).getName(),s);
+		else if (t instanceof APLFunction) {
+			APLFunction f = (APLFunction)t;
+			name('f',f.getName(),s);
+			s.append('(');
+			for (Term p : f.getParams()) {
+				key(p,s);
+				s.append(',');
+			}
+			s.append(')');
+		}
+		else if (t instanceof APLList && ((APLList)t).isEmpty()) s.append("[]");
+		else if (t instanceof APLList) {
+			s.append('[');
+			key(((APLList)t).getHead(),s);
+			s.append('|');
+			key(((APLList)t).getTail(),s);
+			s.append(']');
+		}
+		else name('o',t.toString(),s);
+	}
+
+	/**
+	 * Appends a name to a key, preceded by its length such that names cannot be
+	 * confused with the rest of the key.
+	 */
+	private static void name(char kind, String name, StringBuilder s)
+	{
+		s.append(kind).append(name.length()).append(':').append(name);
+	}
+
+	/**
+	 * Matches a pattern of a guard with a ground fact, extending the bindings.
+	 */
+	private static boolean match(Term p, Term f, HashMap<String,Term> b)
+	{
+		if (p instanceof APLVar) {
+			APLVar v = (APLVar)p;
+			if (v.isBounded()) return match(v.getSubst(),f,b);
+			if (v.getName().equals("_")) return true;
+			Term t = b.get(v.getName());
+			if (t==null) {
+				b.put(v.getName(),f);
+				return true;
+			}
+			return equal(t,f);
+		}
+		else if (p instanceof APLFunction) {
+			if (!(f instanceof APLFunction)) return false;
+			APLFunction pf = (APLFunction)p;
+			APLFunction ff = (APLFunction)f;
+			if (!pf.getName().equals(ff.getName())) return false;
+			ArrayList<Term> pp = pf.getParams();
+			ArrayList<Term> fp = ff.getParams();
+			if (pp.size()!=fp.size()) return false;
+			for (int i=0; i<pp.size(); i++) if (!match(pp.get(i),fp.get(i),b)) return false;
+			return true;
+		}
+		else if (p instanceof APLList) {
+			if (!(f instanceof APLList)) return false;
+			APLList pl = (APLList)p;
+			APLList fl = (APLList)f;
+			if (pl.isEmpty() || fl.isEmpty()) return pl.isEmpty() && fl.isEmpty();
+			return match(pl.getHead(),fl.getHead(),b) && match(pl.getTail(),fl.getTail(),b);
+		}
+		else return equal(p,f);
+	}
+
+	/**
+	 * Checks whether two ground terms are equal. Numbers are compared by value.
+	 */
+	private static boolean equal(Term a, Term b)
+	{
+		if (a instanceof APLNum && b instanceof APLNum)
+			return ((APLNum)a).getVal().compareTo(((APLNum)b).getVal())==0;
+		else if (a instanceof APLIdent && b instanceof APLIdent)
+			return ((APLIdent)a).getName().equals(((APLIdent)b).getName());
+		else if (a instanceof APLFunction || a instanceof APLList)
+			return match(a,b,new HashMap<String,Term>());
+		else return a.equals(b);
+	}
+
+	/**
+	 * The facts of a predicate, in the order in which they were asserted, and the log
+	 * of the facts that have been added and removed.
+	 */
+	private class Alpha
+	{
+		LinkedHashMap<String,Fact> facts = new LinkedHashMap<String,Fact>();
+		HashSet<String> nonGround = new HashSet<String>();
+		long epoch = 0;
+
+		// the changes from position base on, and the positions of the guards
+		ArrayList<Change> log = new ArrayList<Change>();
+		long base = 0;
+		ArrayList<Cursor> cursors = new ArrayList<Cursor>();
+
+		void add(String key, JIPTerm clause)
+		{
+			if (clause instanceof JIPFunctor && ((JIPFunctor)clause).getName().equals(":-")) return;
+			if (!Prolog.isGround(clause)) {
+				nonGround.add(key);
+				return;
+			}
+			Fact f = new Fact(Prolog.fromJIP(clause),++sequence);
+			facts.put(key,f);
+			log.add(new Change(f,true));
+		}
+
+		void remove(String key)
+		{
+			nonGround.remove(key);
+			Fact f = facts.remove(key);
+			if (f!=null) log.add(new Change(f,false));
+		}
+
+		/**
+		 * Synchronises the facts with the belief index and logs the differences. Facts
+		 * that have been retracted and asserted again since have moved to the end, they
+		 * are replaced by new facts.
+		 */
+		void sync(BeliefIndex index, String predicate)
+		{
+			LinkedHashMap<String,Fact> old = facts;
+			facts = new LinkedHashMap<String,Fact>();
+			nonGround.clear();
+			ArrayList<Change> added = new ArrayList<Change>();
+
+			Iterator<JIPTerm> clauses = index.getClauses(predicate).iterator();
+			long last = -1;
+			for (String key : index.get(predicate)) {
+				JIPTerm c = clauses.next();
+				if (!Prolog.isGround(c)) {
+					nonGround.add(key);
+					continue;
+				}
+				Fact f = old.get(key);
+				if (f==null || f.seq<last) {
+					f = new Fact(Prolog.fromJIP(c),++sequence);
+					added.add(new Change(f,true));
+				}
+				else old.remove(key);
+				last = f.seq;
+				facts.put(key,f);
+			}
+
+			for (Fact f : old.values()) log.add(new Change(f,false));
+			log.addAll(added);
+		}
+
+		/**
+		 * Drops the changes that every guard has seen. Guards that have fallen too far
+		 * behind lose their changes and compute their matches again.
+		 */
+		void trim()
+		{
+			long end = base + log.size();
+			long min = end;
+			for (Cursor c : cursors) {
+				if (!c.valid) continue;
+				if (end-c.position>LOG_LIMIT) c.valid = false;
+				else min = Math.min(min,c.position);
+			}
+			if (min>base) {
+				log.subList(0,(int)(min-base)).clear();
+				base = min;
+			}
+		}
+	}
+
+	/**
+	 * A fact together with the time it was first seen by the network.
+	 */
+	private static class Fact
+	{
+		Term term;
+		long seq;
+
+		Fact(Term term, long seq)
+		{
+			this.term = term;
+			this.seq = seq;
+		}
+	}
+
+	/**
+	 * A fact that has been added to or removed from an alpha memory.
+	 */
+	private static class Change
+	{
+		Fact fact;
+		boolean added;
+
+		Change(Fact fact, boolean added)
+		{
+			this.fact = fact;
+			this.added = added;
+		}
+	}
+
+	/**
+	 * The position in the log of an alpha memory up to which a literal of a guard has
+	 * seen the changes, not valid if the guard has not seen the facts yet or has
+	 * lost changes.
+	 */
+	private static class Cursor
+	{
+		boolean valid = false;
+		long position = 0;
+	}
+
+	/**
+	 * A combination of facts that satisfies a guard, and the resulting values of the
+	 * variables of the guard.
+	 */
+	private static class Match
+	{
+		Fact[] facts;
+		Term[] values;
+		boolean removed = false;
+
+		Match(Fact[] facts, Term[] values)
+		{
+			this.facts = facts;
+			this.values = values;
+		}
+	}
+
+	/**
+	 * Orders matches the way Prolog finds them.
+	 */
+	private static final Comparator<Match> ORDER = new Comparator<Match>()
+	{
+		public int compare(Match m1, Match m2)
+		{
+			for (int i=0; i<m1.facts.length; i++) {
+				long d = m1.facts[i].seq - m2.facts[i].seq;
+				if (d!=0) return d<0 ? -1 : 1;
+			}
+			return 0;
+		}
+	};
+
+	/**
+	 * The matches of a guard that agree on the values of the bound variables. Removed
+	 * matches are dropped and the matches are sorted when the first one is needed.
+	 */
+	private static class Bucket
+	{
+		ArrayList<Match> matches = new ArrayList<Match>();
+		int removed = 0;
+		boolean sorted = true;
+
+		void add(Match m)
+		{
+			if (!matches.isEmpty() && ORDER.compare(matches.get(matches.size()-1),m)>0) sorted = false;
+			matches.add(m);
+		}
+
+		Match first()
+		{
+			if (removed>0) {
+				for (Iterator<Match> it = matches.iterator(); it.hasNext(); )
+					if (it.next().removed) it.remove();
+				removed = 0;
+			}
+			if (!sorted) Collections.sort(matches,ORDER);
+			sorted = true;
+			return matches.get(0);
+		}
+
+		boolean isEmpty()
+		{
+			return matches.size()==removed;
+		}
+	}
+
+	/**
+	 * The matches of a single guard.
+	 */
+	private static class Node
+	{
+		// the bodies and predicates of the literals of the guard, null if the guard
+		// cannot be handled by the network
+		Term[] literals = null;
+		String[] predicates;
+		String[] vars;
+
+		// the facts of each literal the matches have been computed with, and the
+		// changes of the alpha memories that have been seen
+		List<HashSet<Fact>> seen;
+		Cursor[] cursors;
+
+		// the matches, the matches that use each fact of each literal, and the
+		// matches by the values of the bound variables by the positions of these
+		// variables
+		HashSet<Match> matches = new HashSet<Match>();
+		List<HashMap<Fact,HashSet<Match>>> uses;
+		HashMap<Long,HashMap<String,Bucket>> indexes = new HashMap<Long,HashMap<String,Bucket>>();
+
+		Node(Query guard)
+		{
+			ArrayList<Term> l = new ArrayList<Term>();
+			if (!collect(guard,l)) return;
+
+			ArrayList<String> v = new ArrayList<String>();
+			for (String name : guard.getVariables())
+				if (!name.equals("_") && !v.contains(name)) v.add(name);
+			if (v.size()>=Long.SIZE) return;
+			vars = v.toArray(new String[v.size()]);
+
+			int n = l.size();
+			literals = l.toArray(new Term[n]);
+			predicates = new String[n];
+			for (int i=0; i<n; i++) predicates[i] = GoalMatcher.functor(literals[i]);
+
+			seen = new ArrayList<HashSet<Fact>>(n);
+			uses = new ArrayList<HashMap<Fact,HashSet<Match>>>(n);
+			for (int i=0; i<n; i++) {
+				seen.add(new HashSet<Fact>());
+				uses.add(new HashMap<Fact,HashSet<Match>>());
+			}
+			cursors = new Cursor[n];
+		}
+
+		/**
+		 * Drops all matches, such that they are computed again from all facts.
+		 */
+		void clear()
+		{
+			for (int i=0; i<literals.length; i++) {
+				seen.get(i).clear();
+				uses.get(i).clear();
+				if (cursors[i]!=null) cursors[i].valid = false;
+			}
+			matches.clear();
+			indexes.clear();
+		}
+
+		void add(Match m)
+		{
+			matches.add(m);
+			for (int i=0; i<m.facts.length; i++) {
+				HashSet<Match> u = uses.get(i).get(m.facts[i]);
+				if (u==null) {
+					u = new HashSet<Match>();
+					uses.get(i).put(m.facts[i],u);
+				}
+				u.add(m);
+			}
+			for (Long mask : indexes.keySet()) {
+				HashMap<String,Bucket> index = indexes.get(mask);
+				String key = key(m.values,mask);
+				Bucket b = index.get(key);
+				if (b==null) {
+					b = new Bucket();
+					index.put(key,b);
+				}
+				b.add(m);
+			}
+		}
+
+		void remove(Match m)
+		{
+			if (!matches.remove(m)) return;
+			m.removed = true;
+			for (int i=0; i<m.facts.length; i++) {
+				HashSet<Match> u = uses.get(i).get(m.facts[i]);
+				if (u!=null) u.remove(m);
+			}
+			for (Long mask : indexes.keySet()) {
+				HashMap<String,Bucket> index = indexes.get(mask);
+				String key = key(m.values,mask);
+				Bucket b = index.get(key);
+				b.removed++;
+				if (b.isEmpty()) index.remove(key);
+			}
+		}
+
+		/**
+		 * Returns the matches by the values of the variables at the given positions,
+		 * building the index when it is first needed.
+		 */
+		HashMap<String,Bucket> index(long mask)
+		{
+			HashMap<String,Bucket> index = indexes.get(mask);
+			if (index==null) {
+				index = new HashMap<String,Bucket>();
+				for (Match m : matches) {
+					String key = key(m.values,mask);
+					Bucket b = index.get(key);
+					if (b==null) {
+						b = new Bucket();
+						index.put(key,b);
+					}
+					b.add(m);
+				}
+				indexes.put(mask,index);
+			}
+			return index;
+		}
+
+		/**
+		 * Collects the bodies of a conjunction of positive literals. Returns false for
+		 * other queries.
+		 */
+		private static boolean collect(Query q, Collection<Term> l)
+		{
+			if (q instanceof AndQuery) {
+				AndQuery a = (AndQuery)q;
+				return collect(a.getLeft(),l) && collect(a.getRight(),l);
+			}
+			else if (q instanceof Literal) {
+				Literal lit = (Literal)q;
+				if (!lit.getSign() || !GoalMatcher.supports(lit)) return false;
+				Term body = lit.getBody();
+				String f = GoalMatcher.functor(body);
+				if (f==null || PrologLibraries.libraryOf(f)!=null) return false;
+				if (body instanceof APLFunction) {
+					APLFunction fn = (APLFunction)body;
+					if (JIPConverter.isBuiltin(fn.getName(),fn.getParams().size())) return false;
+					if (!plain(body)) return false;
+				}
+				l.add(body);
+				return true;
+			}
+			else return false;
+		}
+
+		/**
+		 * Checks whether a term contains no infix functions, which Prolog may evaluate.
+		 */
+		private static boolean plain(Term t)
+		{
+			if (t instanceof APLFunction) {
+				APLFunction f = (APLFunction)t;
+				if (f.isInfix()) return false;
+				for (Term p : f.getParams()) if (!plain(p)) return false;
+			}
+			else if (t instanceof APLList) {
+				APLList l = (APLList)t;
+				if (!l.isEmpty()) return plain(l.getHead()) && plain(l.getTail());
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,435 @@
+package apapl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.concurrent.ConcurrentHashMap;
+
+import apapl.data.APLFunction;
+import apapl.data.APLIdent;
+import apapl.data.APLList;
+import apapl.data.APLNum;
+import apapl.data.APLVar;
+import apapl.data.AndQuery;
+import apapl.data.Literal;
+import apapl.data.OrQuery;
+import apapl.data.Query;
+import apapl.data.Term;
+import apapl.data.True;
+
+import com.ugos.JIProlog.engine.JIPAtom;
+import com.ugos.JIProlog.engine.JIPCons;
+import com.ugos.JIProlog.engine.JIPEngine;
+import com.ugos.JIProlog.engine.JIPFunctor;
+import com.ugos.JIProlog.engine.JIPList;
+import com.ugos.JIProlog.engine.JIPNumber;
+import com.ugos.JIProlog.engine.JIPQuery;
+import com.ugos.JIProlog.engine.JIPTerm;
+import com.ugos.JIProlog.engine.JIPVariable;
+
+/**
+ * Converts 2APL terms and queries directly to JIProlog terms, such that they do not
+ * have to be printed to a string and parsed again by the JIProlog parser. The result
+ * is structurally identical to what the parser produces for the Prolog string
+ * representation of the term or query. Atoms are immutable and are therefore cached
+ * and shared among all conversions.
+ * <p>
+ * The parser binds compound terms of which the functor is a builtin predicate, such
+ * as <code>&gt;/2</code> or <code>is/2</code>, to the implementation of the builtin;
+ * such terms cannot be created through the public JIProlog interface, and a term
+ * created by {@link JIPFunctor#create} would not call the builtin. For these the
+ * engine the term is converted for parses a call of the builtin once (see
+ * {@link Prolog#getBuiltin}), and a call is built by copying the parsed call and
+ * unifying it with the created term. The parsed call has the variables of the
+ * arguments that are variables, such that these keep their names when they are
+ * bound to the variables of the copy. Variables that only occur deeper in the
+ * arguments of builtins are only reachable through the bindings of the copy and
+ * would be missing from the solutions; queries are therefore extended with a goal
+ * that mentions these variables.
+ */
+public class JIPConverter
+{
+	/** Cache of atoms by name, shared by all engines. */
+	private static final ConcurrentHashMap<String,JIPAtom> atoms = new ConcurrentHashMap<String,JIPAtom>();
+
+	/** Whether predicates are builtins, by predicate key. */
+	private static final ConcurrentHashMap<String,Boolean> builtins = new ConcurrentHashMap<String,Boolean>();
+	
+	/** Whether predicates are predefined, by predicate key. */
+	private static final ConcurrentHashMap<String,Boolean> predefined = new ConcurrentHashMap<String,Boolean>();
+	
+	/** Engine used to find out which predicates are builtins or predefined. */
+	private static JIPEngine probe = null;
+
+	/** Largest value that is converted to an integer. */
+	private static final BigDecimal MAXINT = new BigDecimal(Integer.MAX_VALUE);
+
+	/** The variables created during this conversion, such that equally named
+	 *  variables map to the same JIProlog variable. */
+	private HashMap<String,JIPVariable> vars = new HashMap<String,JIPVariable>();
+	
+	/** The engine the terms are converted for. */
+	private Prolog prolog;
+	
+	/** The number of calls of builtins of which the arguments are being converted. */
+	private int depth = 0;
+	
+	/** The variables that occur in the arguments of builtins, if any. */
+	private HashSet<String> hidden = null;
+	
+	/** The variables that occur outside builtins or as arguments of builtins. */
+	private HashSet<String> visible = new HashSet<String>();
+
+	/**
+	 * Constructs a converter. Variables with equal names that are converted by the same
+	 * converter map to the same JIProlog variable.
+	 *
+	 * @param prolog the engine the terms are converted for
+	 */
+	JIPConverter(Prolog prolog)
+	{
+		this.prolog = prolog;
+	}
+
+	/**
+	 * Converts a 2APL term to a JIProlog term.
+	 *
+	 * @param t the term to convert
+	 * @param prolog the engine the term is converted for
+	 * @return the JIProlog term
+	 */
+	public static JIPTerm toJIP(Term t, Prolog prolog)
+	{
+		return new JIPConverter(prolog).convert(t);
+	}
+
+	/**
+	 * Converts a 2APL query to a JIProlog term. Conjunctions are converted to chains
+	 * of cons cells, just like the JIProlog parser represents them, disjunctions to
+	 * the <code>;/2</code> control construct and negated literals to <code>not/1</code>.
+	 *
+	 * @param q the query to convert
+	 * @param prolog the engine the query is converted for
+	 * @return the JIProlog term
+	 */
+	public static JIPTerm toJIP(Query q, Prolog prolog)
+	{
+		JIPConverter c = new JIPConverter(prolog);
+		return c.expose(c.convert(q));
+	}
+
+	/**
+	 * Returns the atom with the given name.
+	 *
+	 * @param name the name of the atom
+	 * @return the (cached) atom
+	 */
+	public static JIPAtom atom(String name)
+	{
+		JIPAtom a = atoms.get(name);
+		if (a==null) {
+			a = JIPAtom.create(name);
+			JIPAtom b = atoms.putIfAbsent(name,a);
+			if (b!=null) a = b;
+		}
+		return a;
+	}
+
+	private JIPTerm convert(Query q)
+	{
+		if (q instanceof Literal) {
+			Literal l = (Literal)q;
+			JIPTerm body = convert(l.getBody());
+			if (l.getSign()) return body;
+			else return functor("not",body);
+		}
+		else if (q instanceof AndQuery) {
+			AndQuery a = (AndQuery)q;
+			JIPTerm right = convert(a.getRight());
+			if (!(a.getRight() instanceof AndQuery)) right = JIPCons.create(right,null);
+			return JIPCons.create(convert(a.getLeft()),(JIPCons)right);
+		}
+		else if (q instanceof OrQuery) {
+			OrQuery o = (OrQuery)q;
+			return functor(";",convert(o.getLeft()),convert(o.getRight()));
+		}
+		else if (q instanceof True) {
+			return atom("true");
+		}
+		else throw new IllegalArgumentException("Cannot convert query " + q);
+	}
+
+	JIPTerm convert(Term t)
+	{
+		if (t instanceof APLVar) {
+			APLVar v = (APLVar)t;
+			if (v.isBounded()) return convert(v.getSubst());
+
+			return variable(v.getName());
+		}
+		else if (t instanceof APLFunction) {
+			APLFunction f = (APLFunction)t;
+			ArrayList<Term> params = f.getParams();
+			if (params.size()==0) return atom(f.getName());
+			
+			// conjunctions are chains of cons cells, see convert(Query)
+			if (f.getName().equals(",") && params.size()==2) {
+				JIPTerm right = convert(params.get(1));
+				if (!(right instanceof JIPCons)) right = JIPCons.create(right,null);
+				return JIPCons.create(convert(params.get(0)),(JIPCons)right);
+			}
+			
+			boolean b = isBuiltin(f.getName(),params.size());
+			JIPTerm[] p = new JIPTerm[params.size()];
+			if (b) nest();
+			for (int i=0; i<p.length; i++) p[i] = convert(params.get(i));
+			if (b) {
+				unnest();
+				return builtin(f.getName(),p);
+			}
+			else return functor(f.getName(),p);
+		}
+		else if (t instanceof APLIdent) {
+			return atom(((APLIdent)t).getName());
+		}
+		else if (t instanceof APLNum) {
+			return number((APLNum)t);
+		}
+		else if (t instanceof APLList) {
+			APLList l = (APLList)t;
+			if (l.isEmpty()) return JIPList.NIL;
+
+			JIPTerm head = convert(l.getHead());
+			Term tail = l.getTail();
+			if (tail instanceof APLList && ((APLList)tail).isEmpty())
+				return JIPList.create(head,null);
+			else return JIPList.create(head,convert(tail));
+		}
+		else throw new IllegalArgumentException("Cannot convert term " + t);
+	}
+
+	/**
+	 * Returns the JIProlog variable with the given name.
+	 *
+	 * @param name the name of the variable
+	 * @return the variable, a fresh one if the variable is anonymous
+	 */
+	JIPVariable variable(String name)
+	{
+		if (name.equals("_")) return JIPVariable.create();
+
+		JIPVariable j = vars.get(name);
+		if (j==null) {
+			j = JIPVariable.create(name);
+			vars.put(name,j);
+		}
+		if (depth>0) {
+			if (hidden==null) hidden = new HashSet<String>();
+			hidden.add(name);
+		}
+		else visible.add(name);
+		return j;
+	}
+
+	/**
+	 * Marks the start of the conversion of the arguments of a builtin.
+	 */
+	void nest()
+	{
+		depth++;
+	}
+
+	/**
+	 * Marks the end of the conversion of the arguments of a builtin.
+	 */
+	void unnest()
+	{
+		depth--;
+	}
+
+	/**
+	 * Builds a call of a builtin predicate by copying the parsed call of the builtin
+	 * and unifying it with the created term.
+	 *
+	 * @param name the name of the builtin
+	 * @param params the arguments
+	 * @return the term bound to the builtin
+	 */
+	JIPTerm builtin(String name, JIPTerm... params)
+	{
+		String[] args = new String[params.length];
+		for (int i=0; i<args.length; i++) {
+			if (params[i] instanceof JIPVariable && !((JIPVariable)params[i]).isAnonymous()) {
+				args[i] = ((JIPVariable)params[i]).getName();
+				// the copy has an equally named variable in the query
+				if (depth==0) visible.add(args[i]);
+			}
+			else args[i] = "_";
+		}
+		
+		JIPTerm t = (JIPTerm)prolog.getBuiltin(source(name,args)).clone();
+		t.unify(functor(name,params),new Hashtable<Object,Object>());
+		return t;
+	}
+	
+	/**
+	 * Extends a converted query with a goal that mentions the variables that only
+	 * occur deeper in the arguments of builtins, if any, such that they are part of
+	 * the solutions.
+	 *
+	 * @param query the converted query
+	 * @return the query to perform
+	 */
+	JIPTerm expose(JIPTerm query)
+	{
+		if (hidden==null) return query;
+		
+		ArrayList<JIPTerm> l = new ArrayList<JIPTerm>();
+		for (String name : hidden) if (!visible.contains(name)) l.add(vars.get(name));
+		if (l.isEmpty()) return query;
+		
+		JIPTerm v = functor("v",l.toArray(new JIPTerm[l.size()]));
+		return JIPCons.create(query,JIPCons.create(functor("=",v,v),null));
+	}
+
+	/**
+	 * Returns whether a compound term is bound to a builtin predicate by the parser,
+	 * in which case it cannot be created by {@link JIPFunctor#create}. This is 
+	 * determined once per predicate by comparing the serialized forms of the parsed
+	 * and the created term.
+	 * 
+	 * @param name the name of the functor
+	 * @param arity the number of arguments
+	 * @return true if the predicate is a builtin
+	 */
+	static boolean isBuiltin(String name, int arity)
+	{
+		if (arity==0) return false;
+		
+		String key = BeliefIndex.predicateKey(name,arity);
+		Boolean b = builtins.get(key);
+		if (b==null) {
+			b = checkBuiltin(name,arity);
+			builtins.put(key,b);
+		}
+		return b;
+	}
+	
+	private static synchronized boolean checkBuiltin(String name, int arity)
+	{
+		if (probe==null) probe = new JIPEngine();
+		
+		JIPTerm[] p = new JIPTerm[arity];
+		String[] args = new String[arity];
+		for (int i=0; i<arity; i++) {
+			p[i] = atom("a");
+			args[i] = "a";
+		}
+		JIPTerm parsed = probe.getTermParser().parseTerm(source(name,args));
+		
+		try {
+			return !Arrays.equals(serialize(parsed),serialize(functor(name,p)));
+		}
+		catch (IOException e) {
+			// assume a builtin, a template is always correct
+			return true;
+		}
+	}
+	
+	/**
+	 * Returns whether a predicate is predefined, i.e. whether it is a builtin, is
+	 * defined by the JIProlog kernel or is exported by one of the JIProlog libraries
+	 * (see {@link PrologLibraries}). Other predicates can only be defined by clauses
+	 * of the program. The kernel predicates are determined once per predicate by
+	 * querying <code>predicate_property/2</code> on a fresh engine.
+	 * 
+	 * @param name the name of the predicate
+	 * @param arity the number of arguments
+	 * @return true if the predicate is predefined
+	 */
+	public static boolean isPredefined(String name, int arity)
+	{
+		String key = BeliefIndex.predicateKey(name,arity);
+		Boolean b = predefined.get(key);
+		if (b==null) {
+			b = isBuiltin(name,arity) || PrologLibraries.libraryOf(key)!=null || checkKernel(name,arity);
+			predefined.put(key,b);
+		}
+		return b;
+	}
+	
+	private static synchronized boolean checkKernel(String name, int arity)
+	{
+		if (probe==null) probe = new JIPEngine();
+		
+		JIPTerm p = functor("/",atom(name),JIPNumber.create(arity));
+		JIPQuery q = probe.openSynchronousQuery(functor("predicate_property",p,JIPVariable.create()));
+		try {
+			return q.nextSolution()!=null;
+		}
+		finally {
+			q.close();
+		}
+	}
+	
+	/**
+	 * Returns the source of a call of a predicate, in which the name is quoted such
+	 * that it is not read as an operator.
+	 *
+	 * @param name the name of the predicate
+	 * @param args the sources of the arguments
+	 * @return the source text
+	 */
+	static String source(String name, String... args)
+	{
+		StringBuilder s = new StringBuilder("'");
+		s.append(name.replace("\\","\\\\").replace("'","\\'"));
+		s.append("'(");
+		for (int i=0; i<args.length; i++) s.append(i==0 ? args[i] : "," + args[i]);
+		s.append(")");
+		return s.toString();
+	}
+	
+	private static byte[] serialize(JIPTerm t) throws IOException
+	{
+		ByteArrayOutputStream b = new ByteArrayOutputStream();
+		ObjectOutputStream o = new ObjectOutputStream(b);
+		o.writeObject(t);
+		o.close();
+		return b.toByteArray();
+	}
+	
+	/**
+	 * Converts a number. Integral values become integers, other values floats.
+	 * Negative numbers are represented using the unary negation operator, just
+	 * like the JIProlog parser does.
+	 */
+	static JIPTerm number(APLNum n)
+	{
+		boolean negative = n.getVal().signum()<0;
+		BigDecimal v = n.getVal().abs();
+
+		JIPTerm j;
+		if (v.scale()<=0 && v.compareTo(MAXINT)<=0) j = JIPNumber.create(v.intValue());
+		else j = JIPNumber.create(v.doubleValue());
+
+		if (negative) return functor("-",j);
+		else return j;
+	}
+
+	/**
+	 * Creates a compound term.
+	 */
+	static JIPFunctor functor(String name, JIPTerm... params)
+	{
+		JIPCons cons = null;
+		for (int i=params.length-1; i>=0; i--) cons = JIPCons.create(params[i],cons);
+		return JIPFunctor.create(name,cons);
+	}
+}
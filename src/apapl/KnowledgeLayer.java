@@ -0,0 +1,180 @@
+package apapl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import com.ugos.JIProlog.engine.JIPFunctor;
+import com.ugos.JIProlog.engine.JIPTerm;
+
+/**
+ * An immutable set of clauses loaded from a Prolog file that is shared by all modules
+ * that use the file as shadow beliefs (see {@link apapl.program.Beliefbase#addFromFile}).
+ * Each file is read and parsed only once per process. The clauses are asserted to a
+ * single engine owned by the layer, on which queries that only concern predicates of
+ * the layer are performed. The engines of the modules do not contain the clauses of the
+ * layer. If a query mixes predicates of the layer with beliefs of the module, the 
+ * predicates of the layer are answered by the engine of the layer through a single
+ * clause (see {@link apapl.LayerCall}); only if a predicate of the layer depends on
+ * predicates the layer does not define, or the module modifies it, its clauses are
+ * copied into the engine of the module (see {@link apapl.Prolog#attach}).
+ * <p>
+ * Directives in the file are executed once, on the engine of the layer.
+ */
+public class KnowledgeLayer
+{
+	/** Layers by the canonical path of their file. */
+	private static HashMap<String,KnowledgeLayer> layers = new HashMap<String,KnowledgeLayer>();
+	
+	/** All layers ever loaded, by their identifier. */
+	private static ArrayList<KnowledgeLayer> ids = new ArrayList<KnowledgeLayer>();
+
+	private int id;
+	private String path;
+	private long modified;
+	private Prolog prolog;
+
+	/**
+	 * Returns the layer for a file. The file is loaded if no layer has been loaded for it
+	 * yet or if it has been modified since.
+	 *
+	 * @param file the Prolog file
+	 * @return the layer
+	 * @throws IOException if the file cannot be read
+	 */
+	public static synchronized KnowledgeLayer get(File file) throws IOException
+	{
+		String path = file.getCanonicalPath();
+		KnowledgeLayer layer = layers.get(path);
+		if (layer==null || layer.modified!=file.lastModified()) {
+			layer = new KnowledgeLayer(file,path);
+			layer.id = ids.size();
+			ids.add(layer);
+			layers.put(path,layer);
+		}
+		return layer;
+	}
+
+	/**
+	 * Returns the layer with the given identifier.
+	 *
+	 * @param id the identifier, see {@link #getId}
+	 * @return the layer
+	 */
+	static synchronized KnowledgeLayer get(int id)
+	{
+		return ids.get(id);
+	}
+
+	/**
+	 * Loads a layer from a file.
+	 */
+	private KnowledgeLayer(File file, String path) throws IOException
+	{
+		this.path = path;
+		this.modified = file.lastModified();
+
+		prolog = new Prolog();
+		prolog.loadLibs();
+
+		InputStream in = new FileInputStream(file);
+		try {
+			Enumeration<?> clauses = prolog.getParser().parseStream(in,path);
+			while (clauses.hasMoreElements()) {
+				JIPTerm t = (JIPTerm)clauses.nextElement();
+				if (isDirective(t)) {
+					JIPTerm goal = ((JIPFunctor)t).getParams().getHead();
+					HashSet<String> predicates = new HashSet<String>();
+					if (!QueryCache.dependencies(goal,predicates)) predicates = null;
+					prolog.getEngine(predicates).doQuery(goal,1);
+				}
+				else prolog.addClause(t);
+			}
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	private static boolean isDirective(JIPTerm t)
+	{
+		return t instanceof JIPFunctor && ((JIPFunctor)t).getName().equals(":-")
+			&& ((JIPFunctor)t).getArity()==1;
+	}
+
+	/**
+	 * Returns whether the layer contains clauses for a predicate.
+	 *
+	 * @param predicate the predicate key, see {@link BeliefIndex#predicateKey}
+	 * @return true if the predicate is defined by this layer, false otherwise
+	 */
+	public boolean defines(String predicate)
+	{
+		return !prolog.getBeliefIndex().get(predicate).isEmpty();
+	}
+
+	/**
+	 * Returns the predicates defined by this layer.
+	 *
+	 * @return the predicate keys
+	 */
+	public Collection<String> getPredicates()
+	{
+		return prolog.getBeliefIndex().getPredicates();
+	}
+
+	/**
+	 * Returns the predicates a predicate of this layer depends on, if these can all
+	 * be answered by the engine of the layer alone, i.e. if they are defined by this
+	 * layer or predefined (see {@link JIPConverter#isPredefined}).
+	 *
+	 * @param predicate the predicate key
+	 * @return the predicates, including the predicate itself; null if the predicate
+	 *         depends on predicates this layer does not define or on goals that are
+	 *         only known at runtime
+	 */
+	Collection<String> closure(String predicate)
+	{
+		HashSet<String> closure = QueryCache.closure(prolog,Collections.singleton(predicate));
+		if (closure==null) return null;
+		for (String p : closure) {
+			int i = p.lastIndexOf('/');
+			if (!defines(p) && !JIPConverter.isPredefined(p.substring(0,i),Integer.parseInt(p.substring(i+1))))
+				return null;
+		}
+		return closure;
+	}
+
+	/**
+	 * Returns the identifier of this layer, which is unique within the process.
+	 *
+	 * @return the identifier
+	 */
+	public int getId()
+	{
+		return id;
+	}
+
+	/**
+	 * Returns the engine of this layer. Queries may be performed on it, it must not
+	 * be modified.
+	 *
+	 * @return the engine
+	 */
+	Prolog getProlog()
+	{
+		return prolog;
+	}
+
+	public String toString()
+	{
+		return path;
+	}
+}
@@ -0,0 +1,68 @@
+package apapl;
+
+import java.util.ArrayList;
+import java.util.Hashtable;
+
+import com.ugos.JIProlog.engine.JIPCons;
+import com.ugos.JIProlog.engine.JIPNumber;
+import com.ugos.JIProlog.engine.JIPQuery;
+import com.ugos.JIProlog.engine.JIPTerm;
+import com.ugos.JIProlog.engine.JIPXCall;
+
+/**
+ * JIProlog extension that answers a call of a predicate of a {@link KnowledgeLayer}
+ * on the engine of the layer. Engines that mix predicates of a layer with their own
+ * predicates define the predicate of the layer by a single clause that calls this
+ * extension (see {@link Prolog#attach}), instead of holding a copy of the clauses of
+ * the layer. The extension is called as
+ * <code>xcall('apapl.LayerCall', [Id, Goal])</code>, where <code>Id</code> is the
+ * identifier of the layer (see {@link KnowledgeLayer#getId}).
+ * <p>
+ * All solutions of the goal are collected at once while holding the lock of the
+ * engine of the layer, such that no query of the layer remains open while the
+ * calling engine backtracks. The solutions are then unified with the goal one by one.
+ */
+public class LayerCall extends JIPXCall
+{
+	private ArrayList<JIPTerm> solutions = null;
+	private int next = 0;
+
+	@SuppressWarnings("rawtypes")
+	public boolean unify(JIPCons params, Hashtable varsTbl)
+	{
+		JIPTerm goal = Prolog.value(params.getNth(2));
+		if (solutions==null) {
+			KnowledgeLayer layer = KnowledgeLayer.get((int)((JIPNumber)Prolog.value(params.getHead())).getValue());
+			solutions = solve(layer.getProlog(),goal);
+		}
+		while (next<solutions.size()) {
+			if (goal.unify(solutions.get(next++),varsTbl)) return true;
+		}
+		return false;
+	}
+
+	public boolean hasMoreChoicePoints()
+	{
+		return solutions==null || next<solutions.size();
+	}
+
+	/**
+	 * Returns all solutions of a goal on the engine of a layer, as instances of the
+	 * goal.
+	 */
+	private static ArrayList<JIPTerm> solve(Prolog prolog, JIPTerm goal)
+	{
+		ArrayList<JIPTerm> solutions = new ArrayList<JIPTerm>();
+		synchronized (prolog.getLock()) {
+			JIPQuery q = prolog.getJIP().openSynchronousQuery((JIPTerm)goal.clone());
+			try {
+				JIPTerm sol;
+				while ((sol = q.nextSolution())!=null) solutions.add((JIPTerm)sol.clone());
+			}
+			finally {
+				q.close();
+			}
+		}
+		return solutions;
+	}
+}
@@ -0,0 +1,595 @@
+package apapl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+import apapl.messaging.APLMessage;
+import apapl.messaging.MessageListener;
+import apapl.messaging.Messenger;
+
+/**
+ * A specific executor that executes the modules in rounds, for simulation
+ * experiments. In every round each executed module performs exactly one complete
+ * deliberation cycle, and the modules of a round are executed in parallel on a
+ * pool of a thread per processor. The next round starts when all modules have
+ * finished their cycle.
+ * <p>
+ * The actions of the modules in external environments are performed in the order
+ * of the names of the modules: a module that performs an external action waits
+ * until the modules before it in the round have finished their cycle. The cycles
+ * only run in parallel up to their first external action.
+ * <p>
+ * The messages and external events that are produced during a round are held back
+ * until the round has finished, and are delivered before the next round in an
+ * order that does not depend on the scheduling of threads: messages by the name of
+ * their sender and then in the order they were sent, external events by the name
+ * of their environment and then in the order they were received. To hold back
+ * messages, the MAS has to be built with the messenger returned by
+ * {@link #buffer(Messenger)}. A run is thus reproducible if the environments are,
+ * that is, if they only change and produce events in response to actions.
+ * <p>
+ * Stepping executes a number of rounds rather than deliberation steps. Modules
+ * are not put to sleep, as they perform a cycle in every round.
+ *
+ * @see apapl.MultiThreadedExecutor
+ */
+public class LockstepExecutor implements Executor
+{
+	/** The pool in which the modules of a round are executed. */
+	private ExecutorService pool;
+
+	/** The thread that executes the rounds, and whether it has to end. */
+	private Thread coordinator;
+	private boolean shutdown = false;
+
+	/** List of modules and their execution state. */
+	private HashMap<APLModule, Entry> entries;
+
+	/**
+	 * List of listeners that are informed whenever a module is started or
+	 * stopped.
+	 */
+	private CopyOnWriteArrayList<MASExecutionListener> listeners;
+
+	/** The order in which the modules of the current round perform external actions. */
+	private Turns turns = new Turns();
+
+	/** The messengers that hold back the messages sent during a round. */
+	private ArrayList<RoundMessenger> messengers;
+
+	/** The number of rounds executed, and the time spent executing them. */
+	private long rounds = 0;
+	private long nanos = 0;
+
+	/**
+	 * Constructs an executor that executes the modules of a round on a pool of a
+	 * thread per processor.
+	 */
+	public LockstepExecutor()
+	{
+		this(Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+				new ThreadFactory()
+				{
+					public Thread newThread(Runnable r)
+					{
+						Thread t = new Thread(r, "LockstepExecutor-cycle");
+						t.setDaemon(true);
+						return t;
+					}
+				}));
+	}
+
+	/**
+	 * Constructs an executor that executes the modules of a round in a given pool.
+	 * The pool has to start the cycles in the order in which they are submitted,
+	 * as a module that performs an external action waits for the modules before
+	 * it.
+	 *
+	 * @param pool the pool
+	 */
+	public LockstepExecutor(ExecutorService pool)
+	{
+		this.pool = pool;
+		entries = new HashMap<APLModule, Entry>();
+		listeners = new CopyOnWriteArrayList<MASExecutionListener>();
+		messengers = new ArrayList<RoundMessenger>();
+
+		coordinator = new Thread(new Rounds(), "LockstepExecutor");
+		coordinator.setDaemon(true);
+		coordinator.start();
+	}
+
+	/**
+	 * Returns a messenger that holds back the messages sent through a messenger
+	 * until the end of the round. The MAS should be built with the returned
+	 * messenger.
+	 *
+	 * @param msgr the messenger that delivers the messages
+	 * @return the buffering messenger
+	 */
+	public synchronized Messenger buffer(Messenger msgr)
+	{
+		RoundMessenger m = new RoundMessenger(msgr);
+		messengers.add(m);
+		return m;
+	}
+
+	/**
+	 * Returns the number of rounds that have been executed.
+	 *
+	 * @return the number of rounds
+	 */
+	public synchronized long getRounds()
+	{
+		return rounds;
+	}
+
+	/**
+	 * Returns the number of rounds executed per second of execution, i.e.
+	 * excluding the time the executor was idle.
+	 *
+	 * @return the throughput in rounds per second
+	 */
+	public synchronized double getRoundsPerSecond()
+	{
+		return nanos == 0 ? 0 : rounds * 1e9 / nanos;
+	}
+
+	public synchronized void addModule(APLModule module)
+	{
+		module.setEEventsBuffered(true);
+		module.setExternalActionOrder(turns);
+		entries.put(module, new Entry(module));
+	}
+
+	public synchronized void removeModule(APLModule module)
+	{
+		Entry e = entries.remove(module);
+		if (e != null)
+		{
+			e.stepsToGo = 0;
+			module.setEEventsBuffered(false);
+			module.setExternalActionOrder(null);
+		}
+	}
+
+	public synchronized Set<APLModule> getModules()
+	{
+		return new HashSet<APLModule>(entries.keySet());
+	}
+
+	public void addMASExecutionListener(MASExecutionListener listener)
+	{
+		listeners.add(listener);
+	}
+
+	public synchronized void start()
+	{
+		for (Entry e : entries.values())
+			e.stepsToGo = -1;
+		notifyAll();
+	}
+
+	/**
+	 * Executes n rounds.
+	 *
+	 * @param n the number of rounds to execute
+	 */
+	public synchronized void step(int n)
+	{
+		for (Entry e : entries.values())
+			e.stepsToGo = n;
+		notifyAll();
+	}
+
+	public synchronized void stop()
+	{
+		for (Entry e : entries.values())
+			e.stepsToGo = 0;
+	}
+
+	public synchronized void start(APLModule module)
+	{
+		entries.get(module).stepsToGo = -1;
+		notifyAll();
+	}
+
+	/**
+	 * Executes n rounds in which the module takes part.
+	 *
+	 * @param module the module to step
+	 * @param n the number of rounds to execute
+	 */
+	public synchronized void step(APLModule module, int n)
+	{
+		entries.get(module).stepsToGo = n;
+		notifyAll();
+	}
+
+	public synchronized void stop(APLModule module)
+	{
+		entries.get(module).stepsToGo = 0;
+	}
+
+	public synchronized void passControl(APLModule srcModule,
+			APLModule dstModule)
+	{
+		// The source module finishes its cycle of the current round, the
+		// destination module takes part from the next round on
+		int srcStepsToGo = entries.get(srcModule).stepsToGo;
+		removeModule(srcModule);
+		addModule(dstModule);
+
+		if (srcStepsToGo == -1)
+			start(dstModule);
+	}
+
+	/**
+	 * Has no effect, as modules perform a cycle in every round.
+	 *
+	 * @param module the module
+	 */
+	public void sleep(APLModule module)
+	{
+	}
+
+	/**
+	 * Has no effect, as modules perform a cycle in every round.
+	 *
+	 * @param module the module
+	 */
+	public void wakeUp(APLModule module)
+	{
+	}
+
+	/**
+	 * Stops the modules, ends the thread that executes the rounds after the current
+	 * round and shuts the pool down. The executor cannot be used afterwards.
+	 */
+	public void shutdown()
+	{
+		synchronized(this)
+		{
+			shutdown = true;
+			stop();
+		}
+		coordinator.interrupt();
+		pool.shutdown();
+	}
+
+	/**
+	 * Executes a round. Delivers the messages and events of the previous round,
+	 * executes one deliberation cycle of each module in parallel, and waits until
+	 * all cycles have finished. The cycles are submitted in the order of the round.
+	 *
+	 * @return false if the round could not be executed because the pool has been
+	 *         shut down
+	 */
+	private boolean round(final List<Entry> round)
+	{
+		for (RoundMessenger m : getMessengers())
+			m.flush();
+		for (Entry e : round)
+			e.m.flushEEvents();
+
+		ArrayList<Callable<Object>> cycles = new ArrayList<Callable<Object>>();
+		for (int i = 0; i < round.size(); i++)
+		{
+			final Entry e = round.get(i);
+			final int position = i;
+			cycles.add(new Callable<Object>()
+			{
+				public Object call()
+				{
+					try
+					{
+						do
+						{
+							e.m.step();
+						} while (!e.m.atCycleStart());
+					} finally
+					{
+						turns.finish(position);
+					}
+					return null;
+				}
+			});
+		}
+
+		turns.begin(round);
+		try
+		{
+			List<Future<Object>> results = pool.invokeAll(cycles);
+			for (int i = 0; i < results.size(); i++)
+			{
+				try
+				{
+					results.get(i).get();
+				} catch (ExecutionException ex)
+				{
+					// The module stops, as a module thread would die
+					ex.getCause().printStackTrace();
+					synchronized(this)
+					{
+						round.get(i).stepsToGo = 0;
+					}
+				}
+			}
+		} catch (InterruptedException ex)
+		{
+			// Finish the round as it is
+		} catch (RejectedExecutionException ex)
+		{
+			return false;
+		} finally
+		{
+			turns.end();
+		}
+		return true;
+	}
+
+	private synchronized ArrayList<RoundMessenger> getMessengers()
+	{
+		return new ArrayList<RoundMessenger>(messengers);
+	}
+
+	private void notifyListeners(APLModule m, boolean started)
+	{
+		for (MASExecutionListener mel : listeners)
+		{
+			if (started)
+				mel.moduleWillStart(m);
+			else
+				mel.moduleStopped(m);
+		}
+	}
+
+	/**
+	 * The execution state of a module.
+	 */
+	private static class Entry
+	{
+		/** The module to be executed */
+		APLModule m;
+		/**
+		 * The number of remaining rounds to be executed. If set to <tt>-1</tt>,
+		 * module will run until explicitly stopped.
+		 */
+		int stepsToGo = 0;
+		/** Whether the listeners have been informed that the module started */
+		boolean started = false;
+
+		Entry(APLModule m)
+		{
+			this.m = m;
+		}
+	}
+
+	/**
+	 * Lets the modules of a round perform their external actions in the order of
+	 * the round: a module may act once the modules before it have finished their
+	 * cycle.
+	 */
+	private static class Turns implements ExternalActionOrder
+	{
+		/** The positions of the modules in the current round. */
+		private HashMap<APLModule, Integer> positions = new HashMap<APLModule, Integer>();
+		/** Which cycles have finished, and the number of leading finished cycles. */
+		private boolean[] finished = new boolean[0];
+		private int turn = 0;
+
+		synchronized void begin(List<Entry> round)
+		{
+			positions.clear();
+			for (int i = 0; i < round.size(); i++)
+				positions.put(round.get(i).m, i);
+			finished = new boolean[round.size()];
+			turn = 0;
+		}
+
+		synchronized void finish(int position)
+		{
+			finished[position] = true;
+			while (turn < finished.length && finished[turn])
+				turn++;
+			notifyAll();
+		}
+
+		synchronized void end()
+		{
+			positions.clear();
+			notifyAll();
+		}
+
+		public synchronized void awaitTurn(APLModule module)
+		{
+			Integer position = positions.get(module);
+			while (position != null && turn < position)
+			{
+				try
+				{
+					wait();
+				} catch (InterruptedException e)
+				{
+					return;
+				}
+				position = positions.get(module);
+			}
+		}
+	}
+
+	/**
+	 * The thread that executes the rounds while some module is executed.
+	 */
+	private class Rounds implements Runnable
+	{
+		public void run()
+		{
+			while (true)
+			{
+				ArrayList<Entry> round = new ArrayList<Entry>();
+				synchronized(LockstepExecutor.this)
+				{
+					if (shutdown)
+						return;
+
+					for (Entry e : entries.values())
+						if (e.stepsToGo != 0)
+							round.add(e);
+
+					if (round.isEmpty())
+					{
+						try
+						{
+							LockstepExecutor.this.wait();
+						} catch (InterruptedException e)
+						{
+							return;
+						}
+						continue;
+					}
+				}
+
+				// Modules take part in the order of their names
+				Collections.sort(round, new Comparator<Entry>()
+				{
+					public int compare(Entry e1, Entry e2)
+					{
+						return e1.m.getName().compareTo(e2.m.getName());
+					}
+				});
+
+				for (Entry e : round)
+				{
+					if (!e.started)
+					{
+						e.started = true;
+						notifyListeners(e.m, true);
+					}
+				}
+
+				long start = System.nanoTime();
+				boolean executed = round(round);
+
+				ArrayList<Entry> stopped = new ArrayList<Entry>();
+				synchronized(LockstepExecutor.this)
+				{
+					if (executed)
+					{
+						rounds++;
+						nanos += System.nanoTime() - start;
+					}
+					for (Entry e : round)
+					{
+						// The pool only rejects the round once it has been shut down
+						if (!executed)
+							e.stepsToGo = 0;
+						if (e.stepsToGo > 0)
+							e.stepsToGo--;
+						if (e.stepsToGo == 0)
+						{
+							e.started = false;
+							stopped.add(e);
+						}
+					}
+				}
+
+				for (Entry e : stopped)
+					notifyListeners(e.m, false);
+			}
+		}
+	}
+
+	/**
+	 * A messenger that holds back the messages that are sent until the end of
+	 * the round. All other requests are passed on to the messenger that delivers
+	 * the messages.
+	 */
+	private static class RoundMessenger implements Messenger
+	{
+		private Messenger msgr;
+		private ArrayList<APLMessage> sent = new ArrayList<APLMessage>();
+
+		RoundMessenger(Messenger msgr)
+		{
+			this.msgr = msgr;
+		}
+
+		public synchronized void sendMessage(APLMessage message)
+		{
+			sent.add(message);
+		}
+
+		/**
+		 * Delivers the messages sent, ordered by sender and then in the order
+		 * they were sent.
+		 */
+		void flush()
+		{
+			ArrayList<APLMessage> l;
+			synchronized(this)
+			{
+				l = sent;
+				sent = new ArrayList<APLMessage>();
+			}
+
+			// the sort is stable, and each sender sends from a single thread
+			Collections.sort(l, new Comparator<APLMessage>()
+			{
+				public int compare(APLMessage m1, APLMessage m2)
+				{
+					return m1.getSender().compareTo(m2.getSender());
+				}
+			});
+			for (APLMessage m : l)
+				msgr.sendMessage(m);
+		}
+
+		public APLMessage receiveMessage(String receiver)
+		{
+			return msgr.receiveMessage(receiver);
+		}
+
+		public void addModule(String modulename)
+		{
+			msgr.addModule(modulename);
+		}
+
+		public void removeModule(String modulename)
+		{
+			msgr.removeModule(modulename);
+		}
+
+		public void restart()
+		{
+			synchronized(this)
+			{
+				sent.clear();
+			}
+			msgr.restart();
+		}
+
+		public void addMessageListener(MessageListener listener)
+		{
+			msgr.addMessageListener(listener);
+		}
+
+		public int getMessageCount(String modulename)
+		{
+			return msgr.getMessageCount(modulename);
+		}
+	}
+}
@@ -0,0 +1,303 @@
+package apapl;
+
+import java.util.HashMap;
+
+/**
+ * Decides in which order the runnable modules of a {@link PooledExecutor} are
+ * executed, and records statistics for tuning the schedule. A module is runnable
+ * when it is not sleeping and waits for a thread of the pool to execute its next
+ * deliberation steps. Runnable modules are ordered by
+ * <ol>
+ * <li>whether they have used up their quota of deliberation step time in the
+ * current period; modules within their quota go first,</li>
+ * <li>their priority, higher priorities first,</li>
+ * <li>their pending work: the number of received messages, external events and
+ * internal events (i.e. failed plans), more work first,</li>
+ * <li>the time they became runnable.</li>
+ * </ol>
+ * The order is determined when the module becomes runnable. A module that uses up
+ * its quota yields its thread after the current step, so that a few busy modules
+ * cannot starve modules that only react to messages.
+ * <p>
+ * The scheduler records how many modules are waiting for a thread, and how long
+ * each module waited.
+ */
+public class ModuleScheduler
+{
+	/** The priority of a module of which the priority has not been set. */
+	public static final int NORMAL_PRIORITY = 0;
+
+	/** The length of a quota period in nanoseconds. */
+	private long period;
+	private long periodStart = System.nanoTime();
+
+	/** The quota of modules of which the quota has not been set, -1 if unlimited. */
+	private long defaultQuota = -1;
+
+	private HashMap<APLModule, Stats> stats = new HashMap<APLModule, Stats>();
+
+	private long sequence = 0;
+	private int queueDepth = 0;
+	private int maxQueueDepth = 0;
+
+	/**
+	 * Constructs a scheduler with quota periods of 100 milliseconds.
+	 */
+	public ModuleScheduler()
+	{
+		this(100);
+	}
+
+	/**
+	 * Constructs a scheduler.
+	 *
+	 * @param period the length of a quota period in milliseconds
+	 */
+	public ModuleScheduler(long period)
+	{
+		this.period = period * 1000000;
+	}
+
+	/**
+	 * Sets the priority of a module.
+	 *
+	 * @param module the module
+	 * @param priority the priority, higher priorities are executed first
+	 */
+	public synchronized void setPriority(APLModule module, int priority)
+	{
+		get(module).priority = priority;
+	}
+
+	/**
+	 * Returns the priority of a module.
+	 *
+	 * @param module the module
+	 * @return the priority
+	 */
+	public synchronized int getPriority(APLModule module)
+	{
+		return get(module).priority;
+	}
+
+	/**
+	 * Sets the quota of a module: the time it may spend in deliberation steps per
+	 * period before modules within their quota go first.
+	 *
+	 * @param module the module
+	 * @param quota the quota in milliseconds, -1 for no quota
+	 */
+	public synchronized void setQuota(APLModule module, long quota)
+	{
+		get(module).quota = quota < 0 ? -1 : quota * 1000000;
+	}
+
+	/**
+	 * Sets the quota of the modules of which the quota has not been set.
+	 *
+	 * @param quota the quota in milliseconds, -1 for no quota
+	 */
+	public synchronized void setDefaultQuota(long quota)
+	{
+		defaultQuota = quota < 0 ? -1 : quota * 1000000;
+	}
+
+	/**
+	 * Returns the number of modules that are waiting for a thread.
+	 *
+	 * @return the queue depth
+	 */
+	public synchronized int getQueueDepth()
+	{
+		return queueDepth;
+	}
+
+	/**
+	 * Returns the largest number of modules that have been waiting for a thread at
+	 * the same time.
+	 *
+	 * @return the maximum queue depth
+	 */
+	public synchronized int getMaxQueueDepth()
+	{
+		return maxQueueDepth;
+	}
+
+	/**
+	 * Returns the mean time a module waited for a thread when it was runnable.
+	 *
+	 * @param module the module
+	 * @return the mean wait time in milliseconds
+	 */
+	public synchronized double getMeanWaitTime(APLModule module)
+	{
+		Stats s = get(module);
+		return s.waits == 0 ? 0 : s.waitTime / 1e6 / s.waits;
+	}
+
+	/**
+	 * Returns the longest time a module waited for a thread when it was runnable.
+	 *
+	 * @param module the module
+	 * @return the maximum wait time in milliseconds
+	 */
+	public synchronized double getMaxWaitTime(APLModule module)
+	{
+		return get(module).maxWaitTime / 1e6;
+	}
+
+	/**
+	 * Returns the total time a module spent in deliberation steps.
+	 *
+	 * @param module the module
+	 * @return the step time in milliseconds
+	 */
+	public synchronized double getStepTime(APLModule module)
+	{
+		return get(module).stepTime / 1e6;
+	}
+
+	/**
+	 * Resets the queue depth maximum and the wait and step times of all modules.
+	 */
+	public synchronized void resetStatistics()
+	{
+		maxQueueDepth = queueDepth;
+		for (Stats s : stats.values())
+		{
+			s.waits = 0;
+			s.waitTime = 0;
+			s.maxWaitTime = 0;
+			s.stepTime = 0;
+		}
+	}
+
+	/**
+	 * Forgets the settings and statistics of a module that has been removed from the
+	 * executor.
+	 */
+	synchronized void remove(APLModule module)
+	{
+		stats.remove(module);
+	}
+
+	/**
+	 * Returns the ticket of a module that becomes runnable, which determines its
+	 * position among the runnable modules.
+	 */
+	synchronized Ticket ready(APLModule module)
+	{
+		// The message count of the messenger does not lock the module, which
+		// may be locked by a thread that sends a message to this module
+		int pending = module.getMessenger().getMessageCount(module.getName())
+				+ module.getEEventCount() + module.getIEvents().size();
+
+		Stats s = get(module);
+		queueDepth++;
+		maxQueueDepth = Math.max(maxQueueDepth, queueDepth);
+		return new Ticket(overQuota(s), s.priority, pending, sequence++, System.nanoTime());
+	}
+
+	/**
+	 * Records that a runnable module has been given a thread.
+	 */
+	synchronized void started(APLModule module, Ticket ticket)
+	{
+		long wait = System.nanoTime() - ticket.time;
+		Stats s = get(module);
+		s.waits++;
+		s.waitTime += wait;
+		s.maxWaitTime = Math.max(s.maxWaitTime, wait);
+		queueDepth--;
+	}
+
+	/**
+	 * Charges the time of a deliberation step to a module, and returns whether the
+	 * module has used up its quota.
+	 */
+	synchronized boolean charge(APLModule module, long nanos)
+	{
+		Stats s = get(module);
+		s.stepTime += nanos;
+		s.used += nanos;
+		return overQuota(s);
+	}
+
+	/**
+	 * Compares the tickets of two runnable modules; the module that goes first is
+	 * the smallest.
+	 */
+	static int compare(Ticket t1, Ticket t2)
+	{
+		if (t1.overQuota != t2.overQuota)
+			return t1.overQuota ? 1 : -1;
+		if (t1.priority != t2.priority)
+			return t1.priority > t2.priority ? -1 : 1;
+		if (t1.pending != t2.pending)
+			return t1.pending > t2.pending ? -1 : 1;
+		return t1.sequence < t2.sequence ? -1 : (t1.sequence == t2.sequence ? 0 : 1);
+	}
+
+	private boolean overQuota(Stats s)
+	{
+		long now = System.nanoTime();
+		if (now - periodStart >= period)
+		{
+			// A new period starts, with all quotas restored
+			periodStart = now;
+			for (Stats t : stats.values())
+				t.used = 0;
+		}
+
+		long quota = s.quota == -2 ? defaultQuota : s.quota;
+		return quota >= 0 && s.used >= quota;
+	}
+
+	private Stats get(APLModule module)
+	{
+		Stats s = stats.get(module);
+		if (s == null)
+		{
+			s = new Stats();
+			stats.put(module, s);
+		}
+		return s;
+	}
+
+	/**
+	 * The position of a runnable module.
+	 */
+	static class Ticket
+	{
+		final boolean overQuota;
+		final int priority;
+		final int pending;
+		final long sequence;
+		final long time;
+
+		Ticket(boolean overQuota, int priority, int pending, long sequence, long time)
+		{
+			this.overQuota = overQuota;
+			this.priority = priority;
+			this.pending = pending;
+			this.sequence = sequence;
+			this.time = time;
+		}
+	}
+
+	/**
+	 * The settings and statistics of a module.
+	 */
+	private static class Stats
+	{
+		int priority = NORMAL_PRIORITY;
+		// -2 if the default quota applies
+		long quota = -2;
+		long used = 0;
+
+		long waits = 0;
+		long waitTime = 0;
+		long maxWaitTime = 0;
+		long stepTime = 0;
+	}
+}
@@ -5,6 +5,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * A specific executor that adopts the strategy of executing every module in its
@@ -216,9 +217,15 @@ public class MultiThreadedExecutor implements Executor
 		 * <tt>-1</tt>, module will run until explicitly stopped.
 		 */
 		private int stepsToGo;
+		/**
+		 * Whether the module has been signalled since its current deliberation
+		 * step started, i.e. whether an input arrived that the step may not have
+		 * seen.
+		 */
+		private boolean signalled;
 		
 		/** The list of listeners */
-		private ArrayList<MASExecutionListener> listeners;
+		private volatile CopyOnWriteArrayList<MASExecutionListener> listeners;
 
 		/**
 		 * Constructs a module executor.
@@ -231,7 +238,7 @@ public class MultiThreadedExecutor implements Executor
 				ArrayList<MASExecutionListener> listeners)
 		{
 			this.m = m;
-			this.listeners = new ArrayList<MASExecutionListener>(listeners);
+			this.listeners = new CopyOnWriteArrayList<MASExecutionListener>(listeners);
 		}
 
 		/**
@@ -294,27 +301,31 @@ public class MultiThreadedExecutor implements Executor
 				
 				synchronized(this)
 				{					
-					// Sleep until new message or external event arrives or
-					// until the module executor has been explicitly stopped.
-					while ( m.getMessageCount() == 0
+					// Sleep until the module is signalled, e.g. because a new
+					// message or external event arrives, or until the module
+					// executor has been explicitly stopped. Messages and events
+					// that arrived while the module was not executed are still
+					// in the queues without a signal.
+					while ( !signalled
+							&& m.getMessageCount() == 0
 							&& m.getEEventCount() == 0
 							&& getStepsToGo() != 0 )
 					{
 						/* 
 						 * Sleeps the thread and releases lock on the
-						 * module executor. The condition has to be continuously 
-						 * re-checked to avoid race condition problem when 
-						 * message arrives after the condition is evaluated, 
-						 * but before the thread is sent to sleep. 
+						 * module executor. Every signal is raised while holding
+						 * the lock, so no signal is missed between evaluating
+						 * the condition and sending the thread to sleep.
 						 */						
 						try
 						{
-							wait(1000);
+							wait();
 						} catch (InterruptedException e)
 						{
 							// Waken up ...
 						}						
 					}
+					signalled = false;
 				}					
 
 				notifyModuleWillWakeUpListeners();
@@ -329,10 +340,13 @@ public class MultiThreadedExecutor implements Executor
 		}
 
 		/**
-		 * Resumes execution of the previously suspended thread.
+		 * Signals the module. Resumes execution of the previously suspended
+		 * thread, or keeps the thread from being suspended the next time the
+		 * module goes to sleep.
 		 */
 		public synchronized void wakeUp()
 		{			
+			signalled = true;
 			if (t != null && t.isAlive())
 			{				
 				// Wakes up the execution thread.			
@@ -350,7 +364,7 @@ public class MultiThreadedExecutor implements Executor
 
 			do
 			{
-				decStepsToGo();
+				startStep();
 				m.step();
 			} while (getStepsToGo() != 0);
 
@@ -375,6 +389,16 @@ public class MultiThreadedExecutor implements Executor
 				stepsToGo--;
 		}
 		
+		/**
+		 * Starts a deliberation step. Decreases the steps-to-go counter and clears
+		 * the signal, as the step sees the inputs that arrived before it started.
+		 */
+		private synchronized void startStep()
+		{
+			decStepsToGo();
+			signalled = false;
+		}
+		
 		/**
 		 * Sets the value of the steps-to-go counter.
 		 *
@@ -387,15 +411,9 @@ public class MultiThreadedExecutor implements Executor
 		
 		private void notifyModuleWillStartListeners()
 		{
-			// Obtain the copy of listeners as the they are typically updated
-			// within another thread
-			ArrayList<MASExecutionListener> lc;
-			synchronized (this)
-			{
-				lc = new ArrayList<MASExecutionListener>(listeners);
-			}
-
-			for (MASExecutionListener mel : lc)
+			// The list is replaced when a listener is added, so it can be
+			// iterated without copying it
+			for (MASExecutionListener mel : listeners)
 			{
 				mel.moduleWillStart(m);
 			}
@@ -403,15 +421,9 @@ public class MultiThreadedExecutor implements Executor
 
 		private void notifyModuleWillWakeUpListeners()
 		{
-			// Obtain the copy of listeners as the they are typically updated
-			// within another thread
-			ArrayList<MASExecutionListener> lc;
-			synchronized (this)
-			{
-				lc = new ArrayList<MASExecutionListener>(listeners);
-			}
-
-			for (MASExecutionListener mel : lc)
+			// The list is replaced when a listener is added, so it can be
+			// iterated without copying it
+			for (MASExecutionListener mel : listeners)
 			{
 				mel.moduleWillWakeUp(m);
 			}
@@ -419,15 +431,9 @@ public class MultiThreadedExecutor implements Executor
 
 		private void notifyModuleStoppedListeners()
 		{
-			// Obtain the copy of listeners as the they are typically updated
-			// within another thread
-			ArrayList<MASExecutionListener> lc;
-			synchronized (this)
-			{
-				lc = new ArrayList<MASExecutionListener>(listeners);
-			}
-
-			for (MASExecutionListener mel : lc)
+			// The list is replaced when a listener is added, so it can be
+			// iterated without copying it
+			for (MASExecutionListener mel : listeners)
 			{
 				mel.moduleStopped(m);
 			}
@@ -435,15 +441,9 @@ public class MultiThreadedExecutor implements Executor
 
 		private void notifyModulePutToSleepListeners()
 		{
-			// Obtain the copy of listeners as the they are typically updated
-			// within another thread
-			ArrayList<MASExecutionListener> lc;
-			synchronized (this)
-			{
-				lc = new ArrayList<MASExecutionListener>(listeners);
-			}
-
-			for (MASExecutionListener mel : lc)
+			// The list is replaced when a listener is added, so it can be
+			// iterated without copying it
+			for (MASExecutionListener mel : listeners)
 			{
 				mel.modulePutToSleep(m);
 			}
@@ -458,7 +458,7 @@ public class MultiThreadedExecutor implements Executor
 		public synchronized void setListeners(
 				ArrayList<MASExecutionListener> listeners)
 		{
-			this.listeners = new ArrayList<MASExecutionListener>(listeners);
+			this.listeners = new CopyOnWriteArrayList<MASExecutionListener>(listeners);
 		}
 	}
 }
@@ -0,0 +1,582 @@
+package apapl;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.Vector;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A specific executor that multiplexes the modules as tasks on a bounded pool of
+ * threads, rather than executing every module in its own thread. A task executes a
+ * few deliberation steps of its module and then submits itself again, such that
+ * many modules share a few threads. By default the pool is a work-stealing
+ * {@link ForkJoinPool} with a thread per processor; on JDKs that have virtual threads
+ * each task can instead be run in a virtual thread, which is preferable if modules
+ * block for a long time in environment actions.
+ * <p>
+ * A sleeping module has no task in the pool and holds no thread. It is submitted
+ * again when it is waken up by an incoming message or external event, or when it is
+ * stopped. The {@link MASExecutionListener}s are informed as by the
+ * {@link MultiThreadedExecutor}, and modules are run and stepped in the same way.
+ * <p>
+ * With a {@link ModuleScheduler}, the runnable modules wait in a priority queue
+ * ordered by the scheduler instead, and a module yields its thread as soon as it
+ * has used up its quota.
+ *
+ * @see apapl.MultiThreadedExecutor
+ */
+public class PooledExecutor implements Executor
+{
+	/** The number of deliberation steps a task executes before it yields. */
+	public static int QUANTUM = 8;
+
+	/** The pool in which the modules are executed. */
+	private ExecutorService pool;
+
+	/** The scheduler that orders the runnable modules, null if none. */
+	private ModuleScheduler scheduler = null;
+
+	/** List of modules and their tasks. */
+	private HashMap<APLModule, ModuleTask> tasks;
+
+	/**
+	 * List of listeners that are informed whenever a module is started,
+	 * stopped, put to sleep or waken up.
+	 */
+	private CopyOnWriteArrayList<MASExecutionListener> listeners;
+
+	/**
+	 * Constructs an executor with a work-stealing pool of a thread per processor.
+	 */
+	public PooledExecutor()
+	{
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Constructs an executor with a work-stealing pool of a given number of threads.
+	 *
+	 * @param parallelism the number of threads
+	 */
+	public PooledExecutor(int parallelism)
+	{
+		this(new ForkJoinPool(parallelism,
+				ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true));
+	}
+
+	/**
+	 * Constructs an executor with a pool of a given number of threads, in which the
+	 * runnable modules are ordered by a scheduler.
+	 *
+	 * @param parallelism the number of threads
+	 * @param scheduler the scheduler
+	 */
+	public PooledExecutor(int parallelism, ModuleScheduler scheduler)
+	{
+		this(new ThreadPoolExecutor(parallelism, parallelism, 0, TimeUnit.MILLISECONDS,
+				new PriorityBlockingQueue<Runnable>(11, new TicketComparator()),
+				new DaemonThreadFactory()));
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * Constructs an executor that executes the modules in a given pool.
+	 *
+	 * @param pool the pool
+	 */
+	public PooledExecutor(ExecutorService pool)
+	{
+		this.pool = pool;
+		tasks = new HashMap<APLModule, ModuleTask>();
+		listeners = new CopyOnWriteArrayList<MASExecutionListener>();
+	}
+
+	/**
+	 * Constructs an executor that runs each task in a new virtual thread. If the JDK
+	 * does not have virtual threads, the executor uses a work-stealing pool of a
+	 * thread per processor instead.
+	 *
+	 * @return the executor
+	 */
+	public static PooledExecutor withVirtualThreads()
+	{
+		try
+		{
+			Object pool = Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			return new PooledExecutor((ExecutorService)pool);
+		} catch (Exception e)
+		{
+			// No virtual threads before Java 21
+			return new PooledExecutor();
+		}
+	}
+
+	public synchronized void addModule(APLModule module)
+	{
+		tasks.put(module, new ModuleTask(module));
+	}
+
+	public synchronized void removeModule(APLModule module)
+	{
+		ModuleTask task = tasks.remove(module);
+		if (task != null)
+		{
+			task.finish();
+			if (scheduler != null)
+				scheduler.remove(module);
+		}
+	}
+
+	/**
+	 * Checks whether a task is the task of a module of this executor, i.e. whether
+	 * its module has not been removed.
+	 */
+	private synchronized boolean hasTask(ModuleTask task)
+	{
+		return tasks.get(task.m) == task;
+	}
+
+	public synchronized Set<APLModule> getModules()
+	{
+		return new HashSet<APLModule>(tasks.keySet());
+	}
+
+	public void addMASExecutionListener(MASExecutionListener listener)
+	{
+		listeners.add(listener);
+	}
+
+	public void start()
+	{
+		for (ModuleTask task : getTasks())
+		{
+			task.execute(-1);
+		}
+	}
+
+	public void step(int n)
+	{
+		for (ModuleTask task : getTasks())
+		{
+			task.execute(n);
+		}
+	}
+
+	public void stop()
+	{
+		for (ModuleTask task : getTasks())
+		{
+			task.finish();
+		}
+	}
+
+	public void start(APLModule module)
+	{
+		getTask(module).execute(-1);
+	}
+
+	public void step(APLModule module, int n)
+	{
+		getTask(module).execute(n);
+	}
+
+	public void stop(APLModule module)
+	{
+		getTask(module).finish();
+	}
+
+	/**
+	 * Makes module to go to sleeping mode. The module is put to sleep after its
+	 * current deliberation step, unless a message or external event has arrived by
+	 * then.
+	 * <p>
+	 * This method should never be called from a synchronized block or method as
+	 * it invokes module execution callbacks.
+	 *
+	 * @param module the module to be put to sleep
+	 */
+	public void sleep(APLModule module)
+	{
+		getTask(module).sleep();
+	}
+
+	public void wakeUp(APLModule module)
+	{
+		ModuleTask task;
+		synchronized(this)
+		{
+			task = tasks.get(module);
+		}
+		if (task != null)
+			task.wakeUp();
+	}
+
+	public synchronized void passControl(APLModule srcModule,
+			APLModule dstModule)
+	{
+		// Determine whether source module was executed in run mode or in
+		// stepping mode
+		int srcStepsToGo = tasks.get(srcModule).getStepsToGo();
+		removeModule(srcModule);
+		addModule(dstModule);
+
+		if (srcStepsToGo == -1)
+		{
+			// srcModule was executed in the run mode
+			start(dstModule);
+		}
+	}
+
+	/**
+	 * Shuts the pool down. Modules that are still executing finish their current
+	 * deliberation step; the executor cannot be used afterwards.
+	 */
+	public void shutdown()
+	{
+		stop();
+		pool.shutdown();
+	}
+
+	/**
+	 * Returns the scheduler that orders the runnable modules.
+	 *
+	 * @return the scheduler, null if the modules are not scheduled
+	 */
+	public ModuleScheduler getScheduler()
+	{
+		return scheduler;
+	}
+
+	private synchronized ModuleTask getTask(APLModule module)
+	{
+		return tasks.get(module);
+	}
+
+	private synchronized Vector<ModuleTask> getTasks()
+	{
+		return new Vector<ModuleTask>(tasks.values());
+	}
+
+	/**
+	 * The task that executes a single module.
+	 * <p>
+	 * As in the {@link MultiThreadedExecutor}, the execution is controlled by the
+	 * <code>stepsToGo</code> counter, which is in case of stepping mode decreased
+	 * after each executed deliberation step, is <code>-1</code> for continuous
+	 * execution, and is set to <code>0</code> to stop as soon as the current
+	 * deliberation step is finished. The task is either idle, submitted to the
+	 * pool, executing, or sleeping.
+	 */
+	private class ModuleTask implements Runnable
+	{
+		/** The module to be executed */
+		private APLModule m;
+		/**
+		 * The number of remaining deliberation steps to be executed. If set to
+		 * <tt>-1</tt>, module will run until explicitly stopped.
+		 */
+		private int stepsToGo;
+
+		/** Whether the module has been started and not stopped yet */
+		private boolean running = false;
+		/** Whether the task is in the pool or executing */
+		private boolean scheduled = false;
+		/** Whether the module has not yet executed a step since it was started */
+		private boolean starting = false;
+		/** Whether the module sleeps */
+		private boolean sleeping = false;
+		/** Whether the module was put to sleep during the current step */
+		private boolean sleepRequested = false;
+		/** Whether the module has been waken up since it last executed a step */
+		private boolean waking = false;
+		/**
+		 * Whether the module has been signalled since its current deliberation
+		 * step started, i.e. whether an input arrived that the step may not have
+		 * seen
+		 */
+		private boolean signalled = false;
+		/** The thread executing the task, if any */
+		private Thread thread;
+		/** The position among the runnable modules, if scheduled */
+		private ModuleScheduler.Ticket ticket;
+
+		/**
+		 * Constructs a module task.
+		 *
+		 * @param m the module to be executed
+		 */
+		public ModuleTask(APLModule m)
+		{
+			this.m = m;
+		}
+
+		/**
+		 * Executes n deliberation steps, or executes the module until explicitly
+		 * stopped if n is <code>-1</code>. Has no effect if the module is already
+		 * being executed.
+		 *
+		 * @param n number of steps to be executed
+		 */
+		public synchronized void execute(int n)
+		{
+			if (running)
+				return;
+
+			running = true;
+			starting = true;
+			stepsToGo = n;
+			submit();
+		}
+
+		/**
+		 * Stops the module after its current deliberation step. A sleeping module
+		 * is waken up first.
+		 */
+		public synchronized void finish()
+		{
+			if (!running)
+				return;
+
+			stepsToGo = 0;
+			wakeUp();
+		}
+
+		/**
+		 * Puts the module to sleep after its current deliberation step. If the
+		 * module is in stepping mode, the method has no effect on the execution.
+		 * It may only be called from the step the task executes.
+		 */
+		public void sleep()
+		{
+			synchronized(this)
+			{
+				// Do not go to sleep if the module is executed in the stepping mode
+				if (stepsToGo != (-1))
+					return;
+
+				if (thread != Thread.currentThread())
+				{
+					throw new RuntimeException(
+							"PooledExecutor.ModuleTask.sleep() called " +
+							"from wrong thread.");
+				}
+				sleepRequested = true;
+			}
+			notifyListeners(PUT_TO_SLEEP);
+		}
+
+		/**
+		 * Signals the module. Resumes execution of the sleeping module by
+		 * submitting the task to the pool again, or keeps the module from going
+		 * to sleep after its current step.
+		 */
+		public synchronized void wakeUp()
+		{
+			if (sleeping)
+			{
+				sleeping = false;
+				waking = true;
+				submit();
+			}
+			else
+				signalled = true;
+		}
+
+		/**
+		 * Executes at most {@link PooledExecutor#QUANTUM} deliberation steps, and
+		 * then submits the task again, lets the module sleep or stops it.
+		 */
+		public void run()
+		{
+			boolean start, wake;
+			synchronized(this)
+			{
+				thread = Thread.currentThread();
+				start = starting;
+				wake = waking;
+				starting = waking = false;
+			}
+			if (scheduler != null)
+				scheduler.started(m, ticket);
+			if (start)
+				notifyListeners(WILL_START);
+			if (wake)
+				notifyListeners(WILL_WAKE_UP);
+
+			// Like the thread of the multi-threaded executor, a started module
+			// executes at least one step
+			int steps = 0;
+			try
+			{
+				while (steps < QUANTUM && (start || getStepsToGo() != 0) && !isSleepRequested())
+				{
+					start = false;
+					startStep();
+					long t = System.nanoTime();
+					m.step();
+					steps++;
+
+					// Yield once the quota is used up
+					if (scheduler != null && scheduler.charge(m, System.nanoTime() - t))
+						break;
+				}
+			} catch (RuntimeException e)
+			{
+				// The module can be started again, as if its thread had died
+				synchronized(this)
+				{
+					thread = null;
+					sleepRequested = false;
+					running = false;
+					scheduled = false;
+				}
+				throw e;
+			}
+
+			boolean woken = false;
+			synchronized(this)
+			{
+				thread = null;
+				if (sleepRequested)
+				{
+					sleepRequested = false;
+					boolean signal = signalled;
+					signalled = false;
+					if (stepsToGo != 0 && !signal && m.getMessageCount() == 0
+							&& m.getEEventCount() == 0)
+					{
+						// Holds no thread until waken up; a message that arrives
+						// from now on finds the module sleeping
+						sleeping = true;
+						scheduled = false;
+						return;
+					}
+					woken = true;
+				}
+			}
+
+			if (woken)
+				notifyListeners(WILL_WAKE_UP);
+
+			if (getStepsToGo() != 0)
+			{
+				enqueue();
+				return;
+			}
+
+			// The module cannot be started again until the listeners have been
+			// informed that it stopped
+			notifyListeners(STOPPED);
+			synchronized(this)
+			{
+				running = false;
+				scheduled = false;
+			}
+
+			// The last steps of a removed module have recorded statistics again
+			if (scheduler != null && !hasTask(this))
+				scheduler.remove(m);
+		}
+
+		/**
+		 * Submits the task to the pool if it is not already scheduled.
+		 */
+		private synchronized void submit()
+		{
+			if (!scheduled)
+			{
+				scheduled = true;
+				enqueue();
+			}
+		}
+
+		/**
+		 * Adds the task to the runnable modules of the pool.
+		 */
+		private void enqueue()
+		{
+			if (scheduler != null)
+				ticket = scheduler.ready(m);
+			pool.execute(this);
+		}
+
+		/**
+		 * Returns the number of remaining deliberation steps.
+		 */
+		public synchronized int getStepsToGo()
+		{
+			return stepsToGo;
+		}
+
+		/**
+		 * Starts a deliberation step. Decreases the steps-to-go counter and clears
+		 * the signal, as the step sees the inputs that arrived before it started.
+		 */
+		private synchronized void startStep()
+		{
+			if (stepsToGo > 0)
+				stepsToGo--;
+			signalled = false;
+		}
+
+		private synchronized boolean isSleepRequested()
+		{
+			return sleepRequested;
+		}
+
+		private void notifyListeners(int event)
+		{
+			for (MASExecutionListener mel : listeners)
+			{
+				switch (event)
+				{
+				case WILL_START: mel.moduleWillStart(m); break;
+				case STOPPED: mel.moduleStopped(m); break;
+				case PUT_TO_SLEEP: mel.modulePutToSleep(m); break;
+				case WILL_WAKE_UP: mel.moduleWillWakeUp(m); break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Orders the tasks in the queue of the pool by their tickets.
+	 */
+	private static class TicketComparator implements Comparator<Runnable>
+	{
+		public int compare(Runnable r1, Runnable r2)
+		{
+			return ModuleScheduler.compare(((ModuleTask)r1).ticket, ((ModuleTask)r2).ticket);
+		}
+	}
+
+	/**
+	 * Creates the threads of the pool as daemon threads, like those of a
+	 * {@link ForkJoinPool}.
+	 */
+	private static class DaemonThreadFactory implements ThreadFactory
+	{
+		private int count = 0;
+
+		public synchronized Thread newThread(Runnable r)
+		{
+			Thread t = new Thread(r, "PooledExecutor-" + (count++));
+			t.setDaemon(true);
+			return t;
+		}
+	}
+
+	private static final int WILL_START = 0;
+	private static final int STOPPED = 1;
+	private static final int PUT_TO_SLEEP = 2;
+	private static final int WILL_WAKE_UP = 3;
+}
@@ -3,8 +3,13 @@ package apapl;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.LinkedList;
+import java.util.concurrent.ConcurrentHashMap;
 
 import apapl.data.APLFunction;
 import apapl.data.APLIdent;
@@ -21,7 +26,6 @@ import com.ugos.JIProlog.engine.JIPEngine;
 import com.ugos.JIProlog.engine.JIPFunctor;
 import com.ugos.JIProlog.engine.JIPList;
 import com.ugos.JIProlog.engine.JIPNumber;
-import com.ugos.JIProlog.engine.JIPParameterTypeException;
 import com.ugos.JIProlog.engine.JIPQuery;
 import com.ugos.JIProlog.engine.JIPTerm;
 import com.ugos.JIProlog.engine.JIPTermParser;
@@ -36,7 +40,39 @@ public class Prolog
 	
 	JIPEngine jip = new JIPEngine();
 	JIPTermParser tp = jip.getTermParser();
-	ArrayList<String> view = new ArrayList<String>();
+	BeliefIndex view = new BeliefIndex();
+	
+	// the parsed calls of builtins by their source, see getBuiltin()
+	private ConcurrentHashMap<String,JIPTerm> builtins = new ConcurrentHashMap<String,JIPTerm>();
+	
+	// modification times of the predicates, used to validate cached answers
+	private HashMap<String,Long> epochs = new HashMap<String,Long>();
+	private long clock = 0;
+	
+	// predicates in the bodies of the rules by the predicate of their head, and the
+	// predicates defined by rules of which the outcome cannot be cached
+	private HashMap<String,HashSet<String>> ruleDependencies = new HashMap<String,HashSet<String>>();
+	private HashSet<String> opaque = new HashSet<String>();
+	private long rulesModified = 0;
+	private boolean consulted = false;
+	
+	// the shared knowledge layers attached to this engine, and the predicates of
+	// these layers of which the clauses have been copied into this engine
+	private ArrayList<KnowledgeLayer> layers = new ArrayList<KnowledgeLayer>();
+	private HashSet<String> imported = new HashSet<String>();
+	
+	// the predicates of these layers that are answered by the engine of their layer
+	// through a single clause, by the predicates they depend on, see link()
+	private HashMap<String,Collection<String>> linked = new HashMap<String,Collection<String>>();
+	
+	// the engines that share the state of this engine, see share()
+	private Sharing sharing = new Sharing();
+	private boolean libsEnabled = false;
+	private boolean closed = false;
+	
+	// told about the clauses asserted to and retracted from this engine only, engines
+	// that share its state have their own listener
+	private ClauseListener listener = null;
 	
 	/**
 	 * Constructs a Prolog engine.
@@ -45,6 +81,356 @@ public class Prolog
 	{
 		
 	}
+	
+	/**
+	 * Constructs a Prolog engine that shares the state of another engine.
+	 * 
+	 * @param other the engine to share the state of
+	 */
+	private Prolog(Prolog other)
+	{
+		jip = other.jip;
+		tp = other.tp;
+		builtins = other.builtins;
+		view = other.view;
+		epochs = other.epochs;
+		clock = other.clock;
+		ruleDependencies = other.ruleDependencies;
+		opaque = other.opaque;
+		rulesModified = other.rulesModified;
+		consulted = other.consulted;
+		layers = other.layers;
+		imported = other.imported;
+		linked = other.linked;
+		sharing = other.sharing;
+		libsEnabled = other.libsEnabled;
+	}
+	
+	/**
+	 * Returns a Prolog engine with the same clauses as this engine. The engines share
+	 * their clauses until one of them is modified; only then the engine that is 
+	 * modified copies the clauses. Sharing takes constant time, and engines that are
+	 * never modified never copy anything. Queries on engines that share clauses are
+	 * performed one at a time.
+	 * 
+	 * @return the sharing engine
+	 */
+	public Prolog share()
+	{
+		synchronized (sharing) {
+			sharing.count++;
+			return new Prolog(this);
+		}
+	}
+	
+	/**
+	 * Gives this engine its own copy of the clauses if they are shared with other
+	 * engines. Must be called before the engine is modified.
+	 */
+	private void detach()
+	{
+		HashSet<PrologLibraries.Library> libraries;
+		synchronized (sharing) {
+			if (sharing.count<=1) return;
+			
+			JIPEngine copy = new JIPEngine();
+			if (consulted) copyClauses(copy);
+			else for (JIPTerm c : view.getClauses()) copy.assertz((JIPTerm)c.clone());
+			
+			view = view.clone();
+			epochs = new HashMap<String,Long>(epochs);
+			HashMap<String,HashSet<String>> deps = new HashMap<String,HashSet<String>>();
+			for (String k : ruleDependencies.keySet()) deps.put(k,new HashSet<String>(ruleDependencies.get(k)));
+			ruleDependencies = deps;
+			opaque = new HashSet<String>(opaque);
+			layers = new ArrayList<KnowledgeLayer>(layers);
+			imported = new HashSet<String>(imported);
+			linked = new HashMap<String,Collection<String>>(linked);
+			
+			libraries = sharing.libraries;
+			sharing.count--;
+			sharing = new Sharing();
+			jip = copy;
+			tp = jip.getTermParser();
+			builtins = new ConcurrentHashMap<String,JIPTerm>();
+		}
+		for (PrologLibraries.Library l : libraries) loadLibrary(l);
+	}
+	
+	/**
+	 * Copies the clauses and operators of the JIProlog engine into another engine.
+	 * Used instead of the view if clauses have been consulted from a file, which are
+	 * not part of the view. The clauses of each predicate that is not predefined (see
+	 * {@link JIPConverter#isPredefined}) are copied in the order of the engine, such
+	 * that retracted consulted clauses stay retracted and consulted and asserted 
+	 * clauses keep their relative order.
+	 * 
+	 * @param copy the engine to copy into
+	 */
+	private void copyClauses(JIPEngine copy)
+	{
+		HashSet<String> ops = new HashSet<String>();
+		for (JIPTerm op : solve(copy,"current_op(P,T,N)")) ops.add(op.toStringq(copy));
+		for (JIPTerm op : solve(jip,"current_op(P,T,N)")) {
+			JIPCons params = ((JIPFunctor)op).getParams();
+			if (!ops.contains(op.toStringq(jip))) 
+				solve(copy,"op(_,_,_)",value(params.getHead()),value(params.getNth(2)),value(params.getNth(3)));
+		}
+		
+		for (JIPTerm p : solve(jip,"current_predicate(N/A)")) {
+			JIPCons indicator = ((JIPFunctor)value(((JIPFunctor)p).getParams().getHead())).getParams();
+			String name = ((JIPAtom)value(indicator.getHead())).getName();
+			int arity = (int)((JIPNumber)value(indicator.getNth(2))).getValue();
+			if (JIPConverter.isPredefined(name,arity)) continue;
+			
+			JIPTerm head = JIPConverter.atom(name);
+			if (arity>0) {
+				JIPTerm[] vars = new JIPTerm[arity];
+				for (int i=0; i<arity; i++) vars[i] = JIPVariable.create();
+				head = JIPConverter.functor(name,vars);
+			}
+			for (JIPTerm c : solve(jip,"clause(_,_)",head,JIPVariable.create())) {
+				JIPCons params = ((JIPFunctor)c).getParams();
+				JIPTerm body = value(params.getNth(2));
+				if (body instanceof JIPAtom && ((JIPAtom)body).getName().equals("true")) 
+					copy.assertz((JIPTerm)value(params.getHead()).clone());
+				else copy.assertz((JIPTerm)JIPConverter.functor(":-",value(params.getHead()),body).clone());
+			}
+		}
+	}
+	
+	/**
+	 * Returns the term a variable is bound to, the term itself if it is not a bound
+	 * variable.
+	 */
+	static JIPTerm value(JIPTerm t)
+	{
+		while (t instanceof JIPVariable && ((JIPVariable)t).isBounded()) t = ((JIPVariable)t).getValue();
+		return t;
+	}
+	
+	/**
+	 * Returns all solutions of a query on a JIProlog engine, as instances of the 
+	 * query. The query is parsed by the engine, such that builtins are called, and
+	 * its arguments are bound to the given arguments, if any.
+	 */
+	private static ArrayList<JIPTerm> solve(JIPEngine engine, String query, JIPTerm... args)
+	{
+		JIPTerm t = engine.getTermParser().parseTerm(query);
+		if (args.length>0) t.unify(JIPConverter.functor(((JIPFunctor)t).getName(),args),new Hashtable<Object,Object>());
+		
+		ArrayList<JIPTerm> solutions = new ArrayList<JIPTerm>();
+		JIPQuery q = engine.openSynchronousQuery(t);
+		try {
+			JIPTerm sol;
+			while ((sol = q.nextSolution())!=null) solutions.add(sol);
+		}
+		finally {
+			q.close();
+		}
+		return solutions;
+	}
+	
+	/**
+	 * Attaches a shared knowledge layer to this engine. Queries that only concern 
+	 * predicates of the layer are performed on the engine of the layer. When a query
+	 * mixes a predicate of the layer with predicates defined by this engine, the 
+	 * predicate is answered by the engine of the layer through a single clause (see
+	 * {@link #link}). The clauses of a predicate of the layer are only copied into this
+	 * engine when the predicate depends on predicates the layer does not define, or 
+	 * when this engine modifies the predicate.
+	 * 
+	 * @param layer the layer to attach
+	 */
+	public void attach(KnowledgeLayer layer)
+	{
+		if (layers.contains(layer)) return;
+		
+		detach();
+		layers.add(layer);
+		for (String p : layer.getPredicates()) touch(p);
+		rulesModified = clock;
+	}
+	
+	/**
+	 * Returns the attached layer that defines a predicate.
+	 * 
+	 * @param predicate the predicate key
+	 * @return the layer, null if the predicate is not defined by an attached layer
+	 */
+	private KnowledgeLayer layerOf(String predicate)
+	{
+		for (KnowledgeLayer l : layers) if (l.defines(predicate)) return l;
+		return null;
+	}
+	
+	/**
+	 * Defines a predicate of an attached layer in this engine by a single clause that
+	 * answers calls of the predicate on the engine of the layer (see {@link LayerCall}),
+	 * if that has not been done yet. The clause is hidden from the view. The clauses of
+	 * the predicate are copied instead if the predicate depends on predicates that
+	 * cannot be answered by the layer alone or that have been copied into this engine.
+	 * 
+	 * @param predicate the predicate key
+	 */
+	private void link(String predicate)
+	{
+		if (predicate==null || imported.contains(predicate) || linked.containsKey(predicate)) return;
+		KnowledgeLayer l = layerOf(predicate);
+		if (l==null) return;
+		
+		Collection<String> closure = l.closure(predicate);
+		if (closure!=null) for (String p : closure) if (imported.contains(p)) closure = null;
+		if (closure==null) {
+			importPredicate(predicate);
+			return;
+		}
+		
+		detach();
+		int i = predicate.lastIndexOf('/');
+		String name = predicate.substring(0,i);
+		int arity = Integer.parseInt(predicate.substring(i+1));
+		JIPTerm head = JIPConverter.atom(name);
+		if (arity>0) {
+			JIPTerm[] vars = new JIPTerm[arity];
+			for (int j=0; j<arity; j++) vars[j] = JIPVariable.create();
+			head = JIPConverter.functor(name,vars);
+		}
+		JIPTerm call = tp.parseTerm("xcall(_,_)");
+		call.unify(JIPConverter.functor("xcall",JIPConverter.atom(LayerCall.class.getName()),
+			JIPList.create(JIPNumber.create(l.getId()),JIPList.create(head,null))),new Hashtable<Object,Object>());
+		JIPTerm t = JIPConverter.functor(":-",head,call);
+		
+		jip.assertz(t);
+		view.add(t.toStringq(jip) + ".", null, predicate, null, t);
+		linked.put(predicate,closure);
+	}
+	
+	/**
+	 * Links the predicates of all attached layers, see {@link #link}.
+	 * 
+	 * @return this engine
+	 */
+	private Prolog linkAll()
+	{
+		for (KnowledgeLayer l : layers) {
+			for (String p : l.getPredicates()) link(p);
+		}
+		return this;
+	}
+	
+	/**
+	 * Copies the clauses of a predicate of an attached layer into this engine, if
+	 * that has not been done yet. The copied clauses are hidden from the view. If the
+	 * predicate was linked, the clause that calls the layer is removed, and linked 
+	 * predicates that depend on the predicate are copied as well, such that they see
+	 * the modifications of this engine.
+	 * 
+	 * @param predicate the predicate key
+	 */
+	private void importPredicate(String predicate)
+	{
+		if (predicate==null || imported.contains(predicate)) return;
+		KnowledgeLayer l = layerOf(predicate);
+		if (l==null) return;
+		
+		detach();
+		if (linked.remove(predicate)!=null) {
+			for (JIPTerm c : view.getClauses(predicate)) jip.retract(c);
+			for (String key : new ArrayList<String>(view.get(predicate))) view.remove(key);
+		}
+		for (JIPTerm c : l.getProlog().getBeliefIndex().getClauses(predicate)) {
+			JIPTerm t = (JIPTerm)c.clone();
+			String s = t.toStringq(jip) + ".";
+			if (view.add(s, null, predicate, getFirstArgKey(getHead(t)), t)) jip.assertz(t);
+		}
+		imported.add(predicate);
+		requireLibraries(l.getProlog().isOpaque(predicate) ? null : l.getProlog().getRuleDependencies(predicate));
+		
+		for (String p : new ArrayList<String>(linked.keySet())) {
+			Collection<String> closure = linked.get(p);
+			if (closure!=null && closure.contains(predicate)) importPredicate(p);
+		}
+	}
+	
+	/**
+	 * Returns the engine a query has to be performed on. This is the engine of an 
+	 * attached layer if the query only concerns predicates of that layer, otherwise
+	 * it is this engine, in which case the predicates of the layers the query concerns
+	 * are linked into this engine (see {@link #link}).
+	 * 
+	 * @param query the query
+	 * @return the engine to perform the query on
+	 */
+	public Prolog getEngine(Query query)
+	{
+		if (layers.isEmpty() && !hasPendingLibraries()) return this;
+		return getEngine(QueryCache.predicates(query));
+	}
+	
+	/**
+	 * Returns the engine a query has to be performed on, see {@link #getEngine(Query)}.
+	 * The libraries that export predicates of the query are loaded into the engine.
+	 * 
+	 * @param predicates the predicates that occur in the query, null if not known
+	 * @return the engine to perform the query on
+	 */
+	public Prolog getEngine(Collection<String> predicates)
+	{
+		Prolog engine = layers.isEmpty() ? this : route(predicates);
+		engine.requireLibraries(predicates);
+		return engine;
+	}
+	
+	/**
+	 * Selects the engine a query has to be performed on given the attached layers.
+	 * 
+	 * @param predicates the predicates that occur in the query, null if not known
+	 * @return the engine to perform the query on
+	 */
+	private Prolog route(Collection<String> predicates)
+	{
+		if (predicates==null) return linkAll();
+		
+		HashSet<String> closure = new HashSet<String>();
+		HashSet<String> layered = new HashSet<String>();
+		KnowledgeLayer layer = null;
+		boolean own = false;
+		LinkedList<String> todo = new LinkedList<String>(predicates);
+		while (!todo.isEmpty()) {
+			String p = todo.removeFirst();
+			if (!closure.add(p)) continue;
+			if (isOpaque(p)) return linkAll();
+			
+			KnowledgeLayer l = imported.contains(p) ? null : layerOf(p);
+			if (l!=null) {
+				layered.add(p);
+				if (layer==null) layer = l;
+				else if (layer!=l) own = true;
+			}
+			else if (!view.get(p).isEmpty() || imported.contains(p)) own = true;
+			
+			Collection<String> deps = getRuleDependencies(p);
+			if (deps!=null) todo.addAll(deps);
+		}
+		
+		if (layer==null) return this;
+		if (!own) return layer.getProlog();
+		
+		for (String p : layered) link(p);
+		return this;
+	}
+	
+	/**
+	 * Returns the object on which queries have to synchronize. Engines that share
+	 * their clauses share the same lock.
+	 * 
+	 * @return the lock
+	 */
+	Object getLock()
+	{
+		return sharing;
+	}
 
 	/**
 	 * Returns the parser that is used by JIProlog.
@@ -56,6 +442,26 @@ public class Prolog
 		return tp;
 	}
 	
+	/**
+	 * Returns a call of a builtin predicate as parsed by the parser of this engine,
+	 * such that it is bound to the implementation of the builtin. Each call is parsed
+	 * once. See {@link apapl.JIPConverter}.
+	 * 
+	 * @param source the source of the call, of which the arguments are variables
+	 * @return the call, to be copied before use
+	 */
+	JIPTerm getBuiltin(String source)
+	{
+		JIPTerm t = builtins.get(source);
+		if (t==null) {
+			synchronized (sharing) {
+				t = tp.parseTerm(source);
+			}
+			builtins.put(source,t);
+		}
+		return t;
+	}
+	
 	/**
 	 * Returns the JIProlog engine. Should only be used by {@link apapl.SolutionIterator}
 	 * @return JIProlog engine
@@ -72,11 +478,64 @@ public class Prolog
 	 */
 	public void removePredicate(String pred)
 	{
-		JIPTerm t = toJIP(pred);
-		String s = t.toStringq(jip);
+		retractClause(toJIP(pred));
+	}
+	
+	/**
+	 * Removes a predicate from the prolog engine. The term is converted directly
+	 * without being parsed.
+	 * 
+	 * @param pred the predicate to remove
+	 */
+	public void removePredicate(Term pred)
+	{
+		retractClause(JIPConverter.toJIP(pred,this));
+	}
+	
+	/**
+	 * Retracts a clause and removes it from the view.
+	 * 
+	 * @param t the clause to retract
+	 */
+	private void retractClause(JIPTerm t)
+	{
+		String predicate = getPredicateKey(getHead(t));
+		importPredicate(predicate);
+		detach();
+		String s = t.toStringq(jip) + ".";
+		
+		// the representation of a clause with variables differs each time it is
+		// parsed, retract removes the first clause that unifies
+		if (!view.contains(s)) s = findUnifiable(predicate, t);
 		
 		jip.retract(t);
-		view.remove(s+".");
+		boolean removed = s!=null && view.remove(s);
+		if (isPrologRule(t)) resetRuleDependencies(predicate);
+		touch(predicate);
+		if (isPrologRule(t)) rulesModified = clock;
+		if (listener!=null) listener.clauseRemoved(predicate, removed ? s : null);
+	}
+	
+	/**
+	 * Returns the first clause of a predicate in the view that unifies with a term.
+	 * If the first argument of the term is ground, only the clauses that may unify
+	 * with it are tried.
+	 * 
+	 * @param predicate the predicate key
+	 * @param t the term
+	 * @return the key of the clause in the view, null if no clause unifies
+	 */
+	private String findUnifiable(String predicate, JIPTerm t)
+	{
+		if (predicate==null) return null;
+		
+		String firstArg = getFirstArgKey(getHead(t));
+		Collection<String> keys = firstArg==null ? view.get(predicate) : view.get(predicate, firstArg);
+		for (String key : keys) {
+			JIPTerm c = view.getClause(key);
+			if (((JIPTerm)c.clone()).unifiable((JIPTerm)t.clone())) return key;
+		}
+		return null;
 	}
 	
 	/**
@@ -86,33 +545,221 @@ public class Prolog
 	 */
 	public void addPredicate(String pred)
 	{	
-		//System.out.println("pred=" + pred);
 		JIPTerm t = tp.parseTerm(pred);
+		assertClause(t, isPrologRule(t)?pred:null);
+	}
+	
+	/**
+	 * Adds a predicate to the prolog engine. The term is converted directly
+	 * without being parsed.
+	 * 
+	 * @param pred the predicate to add
+	 */
+	public void addPredicate(Term pred)
+	{
+		assertClause(JIPConverter.toJIP(pred,this), null);
+	}
+	
+	/**
+	 * Asserts a clause unless it is already present and records it in the view.
+	 * 
+	 * @param t the clause to assert
+	 * @param text the text to show for the clause, null to use the normalized form
+	 */
+	private void assertClause(JIPTerm t, String text)
+	{
 		String s = t.toStringq(jip) + ".";
+		importPredicate(getPredicateKey(getHead(t)));
 		
-		//System.out.println("s=" + s);
-
-		if (!view.contains(s)) {
+		if (view.isHidden(s)) {
+			// the clause was copied from a knowledge layer, now it is a belief as well
+			detach();
+			view.reveal(s, text==null?s:text);
+		}
+		else if (!view.contains(s)) {
+			detach();
 			jip.assertz(t);
-			if (isPrologRule(t)) view.add(pred);
-			else view.add(s);
+			JIPTerm head = getHead(t);
+			String predicate = getPredicateKey(head);
+			view.add(s, text==null?s:text, predicate, getFirstArgKey(head), t);
+			if (isPrologRule(t)) {
+				addRuleDependencies(predicate, ((JIPFunctor)t).getParams().getTail());
+				requireLibraries(opaque.contains(predicate) ? null : ruleDependencies.get(predicate));
+			}
+			touch(predicate);
+			if (isPrologRule(t)) rulesModified = clock;
+			if (listener!=null) listener.clauseAdded(predicate, s, t);
+		}
+	}
+	
+	/**
+	 * Records the predicates in the body of a rule as dependencies of the predicate
+	 * of its head.
+	 * 
+	 * @param predicate the predicate key of the head
+	 * @param body the body of the rule, the tail of the parameters of <code>:-/2</code>
+	 */
+	private void addRuleDependencies(String predicate, JIPTerm body)
+	{
+		if (body instanceof JIPCons) body = ((JIPCons)body).getHead();
+		
+		HashSet<String> deps = ruleDependencies.get(predicate);
+		if (deps==null) {
+			deps = new HashSet<String>();
+			ruleDependencies.put(predicate,deps);
 		}
+		if (!QueryCache.dependencies(body,deps)) opaque.add(predicate);
 	}
 	
 	/**
-	 * Performs a query on the prolog engine and returns the solution (could be empty).
+	 * Records the dependencies of a predicate again from the rules that remain after
+	 * one of its rules has been retracted.
+	 * 
+	 * @param predicate the predicate key of the head
+	 */
+	private void resetRuleDependencies(String predicate)
+	{
+		ruleDependencies.remove(predicate);
+		opaque.remove(predicate);
+		for (JIPTerm c : view.getClauses(predicate)) {
+			if (isPrologRule(c)) addRuleDependencies(predicate, ((JIPFunctor)c).getParams().getTail());
+		}
+	}
+	
+	/**
+	 * Marks a predicate as modified.
+	 * 
+	 * @param predicate the predicate key
+	 */
+	private void touch(String predicate)
+	{
+		clock++;
+		if (predicate!=null) epochs.put(predicate,clock);
+		
+		// rules consulted from a file may depend on any predicate
+		if (consulted) epochs.put(QueryCache.ANY,clock);
+	}
+	
+	/**
+	 * Returns the time at which a predicate was last modified. Time is measured by
+	 * counting the modifications of this engine.
+	 * 
+	 * @param predicate the predicate key
+	 * @return the modification time, 0 if the predicate has not been modified
+	 */
+	public long getEpoch(String predicate)
+	{
+		Long e = epochs.get(predicate);
+		return e==null ? 0 : e;
+	}
+	
+	/**
+	 * Returns the current time, i.e. the number of modifications of this engine.
+	 * 
+	 * @return the current time
+	 */
+	public long getClock()
+	{
+		return clock;
+	}
+	
+	/**
+	 * Returns the time at which a rule was last asserted or retracted, or rules
+	 * were added to this engine otherwise.
+	 * 
+	 * @return the modification time, 0 if the rules have not been modified
+	 */
+	public long getRulesEpoch()
+	{
+		return rulesModified;
+	}
+	
+	/**
+	 * Returns the predicates that are defined by rules, including the rules of the
+	 * attached layers.
+	 * 
+	 * @return the predicate keys
+	 */
+	public Collection<String> getRulePredicates()
+	{
+		if (layers.isEmpty()) return ruleDependencies.keySet();
+		
+		HashSet<String> all = new HashSet<String>(ruleDependencies.keySet());
+		for (KnowledgeLayer l : layers) all.addAll(l.getProlog().getRulePredicates());
+		return all;
+	}
+	
+	/**
+	 * Returns the predicates in the bodies of the rules that define a predicate.
+	 * 
+	 * @param predicate the predicate key
+	 * @return the predicate keys, null if the predicate is not defined by a rule
+	 */
+	public Collection<String> getRuleDependencies(String predicate)
+	{
+		Collection<String> deps = ruleDependencies.get(predicate);
+		KnowledgeLayer l = layers.isEmpty() ? null : layerOf(predicate);
+		if (l==null) return deps;
+		
+		Collection<String> layerDeps = l.getProlog().getRuleDependencies(predicate);
+		if (deps==null) return layerDeps;
+		if (layerDeps==null) return deps;
+		
+		HashSet<String> all = new HashSet<String>(deps);
+		all.addAll(layerDeps);
+		return all;
+	}
+	
+	/**
+	 * Returns whether a predicate is defined by a rule that calls goals which are 
+	 * only known at runtime, or that uses impure or side-effecting builtins.
+	 * 
+	 * @param predicate the predicate key
+	 * @return true if the outcome of the predicate cannot be cached
+	 */
+	public boolean isOpaque(String predicate)
+	{
+		if (opaque.contains(predicate)) return true;
+		KnowledgeLayer l = layers.isEmpty() ? null : layerOf(predicate);
+		return l!=null && l.getProlog().isOpaque(predicate);
+	}
+	
+	/**
+	 * Returns whether clauses have been consulted from a file. The predicates
+	 * defined by these clauses are not known.
+	 * 
+	 * @return true if a file has been consulted
+	 */
+	public boolean isConsulted()
+	{
+		return consulted;
+	}
+	
+	/**
+	 * Returns whether knowledge layers are attached to this engine.
+	 * 
+	 * @return true if a layer is attached
+	 */
+	public boolean hasLayers()
+	{
+		return !layers.isEmpty();
+	}
+	
+	/**
+	 * Performs a query on the prolog engine and returns a stream of solutions that
+	 * are calculated on demand. The stream should be closed when no more solutions 
+	 * are needed.
 	 * 
 	 * @param q the query to perform
-	 * @param killPrologWhenReady deinstantiate the prolog engine when ready
-	 * @return the solution
+	 * @return the solutions
 	 */
 	public SolutionIterator doTest(Query q)
 	{
-		return new SolutionIterator(this, q);
+		return new SolutionIterator(getEngine(q), q, false);
 	}
 	
 	/**
-	 * Performs a query on the prolog engine and returns the solution.
+	 * Performs a query on the prolog engine and returns all solutions.
 	 * 
 	 * @param query the query to perform
 	 * @return the solution
@@ -121,19 +768,88 @@ public class Prolog
 	 */
 	public ArrayList<SubstList<Term>> doQueryAll(Query query)
 	{
-		try {
-				ArrayList<SubstList<Term>> solutions = new ArrayList<SubstList<Term>>();
-				JIPQuery q = jip.openSynchronousQuery(tp.parseTerm(query.toPrologString()));
-				JIPTerm sol = q.nextSolution();
-				while (sol!=null) {
+		return doQuery(query,-1);
+	}
+	
+	/**
+	 * Performs a query on the prolog engine and returns at most <code>max</code>
+	 * solutions. The query is closed as soon as enough solutions have been found, such
+	 * that no time is spent on calculating solutions that are not needed.
+	 * 
+	 * @param query the query to perform
+	 * @param max the maximum number of solutions, a negative number for all solutions
+	 * @return the solutions, an empty list if the query fails
+	 */
+	public ArrayList<SubstList<Term>> doQuery(Query query, int max)
+	{
+		Prolog engine = getEngine(query);
+		return engine.doQuery(JIPConverter.toJIP(query,engine),max);
+	}
+	
+	/**
+	 * Performs a query that has already been converted to a JIProlog term, e.g. an
+	 * instantiated {@link apapl.QueryTemplate}, and returns at most <code>max</code>
+	 * solutions.
+	 * 
+	 * @param query the query to perform
+	 * @param max the maximum number of solutions, a negative number for all solutions
+	 * @return the solutions, an empty list if the query fails
+	 */
+	public ArrayList<SubstList<Term>> doQuery(JIPTerm query, int max)
+	{
+		ArrayList<SubstList<Term>> solutions = new ArrayList<SubstList<Term>>();
+		if (max==0) return solutions;
+		
+		synchronized (sharing) {
+			JIPQuery q = jip.openSynchronousQuery(query);
+			try {
+				while (max<0 || solutions.size()<max) {
+					JIPTerm sol = q.nextSolution();
+					if (sol==null) break;
 					solutions.add(getSubstitutions(sol));
-					sol = q.nextSolution();
 				}
-				return solutions;
 			}
-			catch (JIPParameterTypeException e) {
-				throw e;
+			finally {
+				q.close();
+			}
+		}
+		return solutions;
+	}
+	
+	/**
+	 * Performs a query on the prolog engine and returns the first solution.
+	 * 
+	 * @param query the query to perform
+	 * @return the first solution, null if the query fails
+	 */
+	public SubstList<Term> doQueryFirst(Query query)
+	{
+		ArrayList<SubstList<Term>> solutions = doQuery(query,1);
+		if (solutions.isEmpty()) return null;
+		else return solutions.get(0);
+	}
+	
+	/**
+	 * Checks whether a query succeeds. Only the first solution is calculated and it
+	 * is not converted.
+	 * 
+	 * @param query the query to perform
+	 * @return true if the query has a solution, false otherwise
+	 */
+	public boolean doExists(Query query)
+	{
+		Prolog engine = getEngine(query);
+		if (engine!=this) return engine.doExists(query);
+		
+		synchronized (sharing) {
+			JIPQuery q = jip.openSynchronousQuery(JIPConverter.toJIP(query,this));
+			try {
+				return q.nextSolution()!=null;
+			}
+			finally {
+				q.close();
 			}
+		}
 	}
 	
 	/**
@@ -150,6 +866,8 @@ public class Prolog
 		Enumeration<String> e = t.keys();
 		while (e.hasMoreElements())	{
 			String k = e.nextElement();
+			// variables of the parsed calls of builtins, see getBuiltin()
+			if (k.startsWith("^")) continue;
 			JIPTerm j = (JIPTerm)(t.get(k));
 			Term a = fromJIP(j);
 			if (!(a instanceof APLVar)) theta.put(k,a);
@@ -172,26 +890,58 @@ public class Prolog
 	 * Loads the additional JIProlog libraries. These libraries provide extra
 	 * functionality which is not always needed. For the sake of efficiency these
 	 * libraries are not loaded by default. for instance, when performing a simple query,
-	 * these libraries are not needed.  
+	 * these libraries are not needed.
+	 * <p>
+	 * If libraries are loaded lazily (see {@link PrologLibraries#LAZY}), a library is
+	 * only loaded when a query or clause that calls one of its predicates is performed
+	 * or asserted.
 	 */
 	public void loadLibs() 
 	{
-		File dir = new File( "lib"+File.separatorChar+"jiprolog" );
-		if (dir.isDirectory()) {
-		String[] files = dir.list();
-    		for( int i = 0; i < files.length; i++ ) {
-    			String fileName = files[ i ];
-    			if( fileName.startsWith( "jipx" ) && fileName.endsWith( ".jar" ) ) {
-    				try {
-    					 jip.loadLibrary( dir.getAbsolutePath()
-    			                                + File.separatorChar + fileName );
-    				}
-    				catch( Exception e ) {
-    					System.err.println( "Unable to load JIProlog library \""+ dir.getAbsolutePath()+"\".");
-    					e.printStackTrace( System.err );
-    				}
-    			}
-    		}
+		libsEnabled = true;
+		for (PrologLibraries.Library l : PrologLibraries.getLibraries()) {
+			if (!PrologLibraries.LAZY || !l.isKnown()) loadLibrary(l);
+		}
+	}
+	
+	/**
+	 * Loads the libraries that export any of the given predicates, if libraries are
+	 * enabled for this engine.
+	 * 
+	 * @param predicates the predicate keys, null to load all libraries
+	 */
+	private void requireLibraries(Collection<String> predicates)
+	{
+		if (!hasPendingLibraries()) return;
+		if (predicates==null) {
+			for (PrologLibraries.Library l : PrologLibraries.getLibraries()) loadLibrary(l);
+		}
+		else for (String p : predicates) {
+			PrologLibraries.Library l = PrologLibraries.libraryOf(p);
+			if (l!=null) loadLibrary(l);
+		}
+	}
+	
+	/**
+	 * Returns whether libraries are enabled for this engine and some have not been
+	 * loaded yet.
+	 * 
+	 * @return true if some library may still have to be loaded
+	 */
+	private boolean hasPendingLibraries()
+	{
+		return libsEnabled && sharing.libraries.size()<PrologLibraries.getLibraries().size();
+	}
+	
+	/**
+	 * Loads a library into the engine unless it has been loaded already.
+	 * 
+	 * @param library the library to load
+	 */
+	private void loadLibrary(PrologLibraries.Library library)
+	{
+		synchronized (sharing) {
+			if (sharing.libraries.add(library)) PrologLibraries.load(jip,library);
 		}
 	}
 	
@@ -208,6 +958,102 @@ public class Prolog
 		else return false;
 	}
 	
+	/**
+	 * Returns the head of a clause, i.e. the clause itself if it is a fact.
+	 * 
+	 * @param j the clause
+	 * @return the head of the clause
+	 */
+	private JIPTerm getHead(JIPTerm j)
+	{
+		if (isPrologRule(j)) return ((JIPFunctor)j).getParams().getHead();
+		else return j;
+	}
+	
+	/**
+	 * Returns the predicate key (functor and arity) of a clause head.
+	 * 
+	 * @param head the head of a clause
+	 * @return the predicate key, null if the head is not an atom or compound term
+	 */
+	private static String getPredicateKey(JIPTerm head)
+	{
+		if (head instanceof JIPFunctor) {
+			JIPFunctor f = (JIPFunctor)head;
+			return BeliefIndex.predicateKey(f.getName(),f.getArity());
+		}
+		else if (head instanceof JIPAtom) return BeliefIndex.predicateKey(((JIPAtom)head).getName(),0);
+		else return null;
+	}
+	
+	/**
+	 * Returns the normalized first argument of a clause head if it is ground.
+	 * 
+	 * @param head the head of a clause
+	 * @return the first argument, null if there is none or if it contains variables
+	 */
+	private String getFirstArgKey(JIPTerm head)
+	{
+		if (!(head instanceof JIPFunctor)) return null;
+		JIPTerm arg = ((JIPFunctor)head).getParams().getHead();
+		if (arg==null || !isGround(arg)) return null;
+		else return arg.toStringq(jip);
+	}
+	
+	/**
+	 * Checks whether a term contains no unbound variables. Used instead of 
+	 * {@link JIPTerm#getVariables()}, which fails on numbers and atoms.
+	 * 
+	 * @param t the term
+	 * @return true if the term is ground, false otherwise
+	 */
+	static boolean isGround(JIPTerm t)
+	{
+		if (t==null) return true;
+		else if (t instanceof JIPVariable) {
+			JIPVariable v = (JIPVariable)t;
+			return v.isBounded() && isGround(v.getValue());
+		}
+		else if (t instanceof JIPFunctor) return isGround(((JIPFunctor)t).getParams());
+		else if (t instanceof JIPCons) return isGround(((JIPCons)t).getHead()) && isGround(((JIPCons)t).getTail());
+		else if (t instanceof JIPList) return isGround(((JIPList)t).getHead()) && isGround(((JIPList)t).getTail());
+		else return true;
+	}
+	
+	/**
+	 * Asserts a clause that has already been parsed, see {@link KnowledgeLayer}.
+	 * 
+	 * @param t the clause
+	 */
+	void addClause(JIPTerm t)
+	{
+		assertClause(t, null);
+	}
+	
+	/**
+	 * Returns the index of the clauses asserted to this engine, which can be used to
+	 * look up clauses by predicate and first argument.
+	 * 
+	 * @return the belief index
+	 */
+	public BeliefIndex getBeliefIndex()
+	{
+		return view;
+	}
+	
+	/**
+	 * Sets the listener that is told about the clauses that are asserted to and 
+	 * retracted from this engine as beliefs. The listener is told after the 
+	 * modification time of the predicate has been updated (see {@link #getEpoch}), 
+	 * other modifications, such as consulting a file, only update that time.
+	 * 
+	 * @param listener the listener, null to remove it
+	 */
+	public void setClauseListener(ClauseListener listener)
+	{
+		this.listener = listener;
+	}
+	
 	/**
 	 * Returns the beliefs as a list of strings.
 	 *  
@@ -215,12 +1061,12 @@ public class Prolog
 	 */
 	public ArrayList<String> getBeliefsAsStrings()
 	{
-		return view;
+		return view.toList();
 	}
 	
 	public String toString()
 	{
-			if (view.size()>0)
+			if (view.iterator().hasNext())
 			return Base.concatWith(view,"\n")+"\n\n";
 			else return "";
 	}
@@ -281,7 +1127,7 @@ public class Prolog
 	 * @param t the JIProlog term
 	 * @return 2APL term
 	 */
-	private static Term fromJIP(JIPTerm t)
+	static Term fromJIP(JIPTerm t)
 	{
 		if (t instanceof JIPVariable) {
 			JIPVariable v = (JIPVariable)t;
@@ -354,16 +1200,62 @@ public class Prolog
 	}
 
 	/**
-	 * Release the resources taken by the Prolog engine.
+	 * Releases the resources taken by the Prolog engine, once all engines that share
+	 * its state have been closed. The engine must not be used afterwards.
+	 */
+	public void close()
+	{
+		synchronized (sharing) {
+			if (closed) return;
+			closed = true;
+			if (--sharing.count==0) jip.releaseAllResources();
+		}
+	}
+	
+	/**
+	 * Removes all clauses from the engine such that it can be reused, see 
+	 * {@link PrologPool}. Clauses are retracted in the order they were asserted, such
+	 * that each retract removes exactly the clause it was given.
+	 * 
+	 * @return true if the engine is empty, false if it cannot be emptied because it
+	 *         is shared, has been closed, or contains consulted clauses or layers
 	 */
-	protected void finalize()
+	boolean reset()
 	{
-		jip.releaseAllResources();
+		synchronized (sharing) {
+			if (closed || sharing.count>1 || consulted || !layers.isEmpty()) return false;
+		}
+		for (JIPTerm c : view.getClauses()) jip.retract(c);
+		view = new BeliefIndex();
+		epochs.clear();
+		ruleDependencies.clear();
+		opaque.clear();
+		imported.clear();
+		linked.clear();
+		listener = null;
+		clock++;
+		rulesModified = clock;
+		return true;
 	}
 
 	public void addFromFile(String absolutePath) throws IOException {
 
+			detach();
+			requireLibraries(null);
 			jip.consultFile(absolutePath);
+			consulted = true;
+			touch(null);
+			rulesModified = clock;
 			
 	}
+	
+	/**
+	 * Counts the engines that share the same state, and records the libraries that
+	 * have been loaded into their JIProlog engine.
+	 */
+	private static class Sharing
+	{
+		int count = 1;
+		HashSet<PrologLibraries.Library> libraries = new HashSet<PrologLibraries.Library>();
+	}
 }
@@ -0,0 +1,221 @@
+package apapl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import com.ugos.JIProlog.engine.JIPEngine;
+
+/**
+ * Registry of the JIProlog extension libraries (the <code>jipx*.jar</code> files in
+ * <code>lib/jiprolog</code>). The library directory is scanned only once per process,
+ * and the predicates each library exports are read from the module declaration in its
+ * <code>init.pl</code>.
+ * <p>
+ * JIProlog engines do not share their clauses, so a library still has to be loaded into
+ * every engine that uses it. When libraries are loaded lazily, an engine loads a library
+ * only when a query or a clause that calls one of its exported predicates is performed
+ * or asserted (see {@link apapl.Prolog#loadLibs()}). Engines of which the beliefs never
+ * call a library predicate never load any library.
+ */
+public class PrologLibraries
+{
+	/**
+	 * Libraries are loaded into an engine when one of their predicates is first needed
+	 * if enabled. Disable to load all libraries when the engine is created.
+	 */
+	public static boolean LAZY = true;
+
+	/** The directory that contains the libraries. */
+	private static final String DIRECTORY = "lib" + File.separatorChar + "jiprolog";
+
+	/** Matches the module declaration of a library. */
+	private static final Pattern MODULE = Pattern.compile(":-\\s*module\\s*\\(\\s*\\w+\\s*,\\s*\\[([^\\]]*)\\]");
+
+	/** Matches a predicate indicator in the module declaration. */
+	private static final Pattern INDICATOR = Pattern.compile("([a-z]\\w*)\\s*/\\s*(\\d+)");
+
+	private static volatile List<Library> libraries = null;
+	private static HashMap<String,Library> exports = new HashMap<String,Library>();
+
+	private static long loads = 0;
+	private static long loadTime = 0;
+
+	/**
+	 * Returns the libraries. The library directory is scanned the first time this
+	 * method is called.
+	 *
+	 * @return the libraries
+	 */
+	public static List<Library> getLibraries()
+	{
+		if (libraries==null) scan();
+		return libraries;
+	}
+
+	private static synchronized void scan()
+	{
+		if (libraries==null) {
+			ArrayList<Library> l = new ArrayList<Library>();
+			File dir = new File(DIRECTORY);
+			String[] files = dir.isDirectory() ? dir.list() : null;
+			if (files!=null) {
+				Arrays.sort(files);
+				for (String fileName : files) {
+					if (fileName.startsWith("jipx") && fileName.endsWith(".jar")) {
+						Library library = new Library(dir.getAbsolutePath() + File.separatorChar + fileName);
+						for (String p : library.predicates) exports.put(p,library);
+						l.add(library);
+					}
+				}
+			}
+			libraries = Collections.unmodifiableList(l);
+		}
+	}
+
+	/**
+	 * Returns the library that exports a predicate.
+	 *
+	 * @param predicate the predicate key, see {@link BeliefIndex#predicateKey}
+	 * @return the library, null if no library exports the predicate
+	 */
+	public static Library libraryOf(String predicate)
+	{
+		if (libraries==null) scan();
+		return exports.get(predicate);
+	}
+
+	/**
+	 * Loads a library into an engine.
+	 *
+	 * @param jip the engine
+	 * @param library the library to load
+	 */
+	static void load(JIPEngine jip, Library library)
+	{
+		long start = System.nanoTime();
+		try {
+			jip.loadLibrary(library.path);
+		}
+		catch (Exception e) {
+			System.err.println("Unable to load JIProlog library \""+ library.path +"\".");
+			e.printStackTrace(System.err);
+		}
+		synchronized (PrologLibraries.class) {
+			loads++;
+			loadTime += System.nanoTime() - start;
+		}
+	}
+
+	/**
+	 * Returns the number of times a library has been loaded into an engine.
+	 *
+	 * @return the number of loads
+	 */
+	public static synchronized long getLoadCount()
+	{
+		return loads;
+	}
+
+	/**
+	 * Returns the total time spent loading libraries into engines.
+	 *
+	 * @return the time in milliseconds
+	 */
+	public static synchronized long getLoadTime()
+	{
+		return loadTime / 1000000;
+	}
+
+	/**
+	 * A JIProlog extension library.
+	 */
+	public static class Library
+	{
+		private String path;
+		private Set<String> predicates = new HashSet<String>();
+		private boolean known = false;
+
+		/**
+		 * Reads the predicates exported by the library at the given path.
+		 */
+		private Library(String path)
+		{
+			this.path = path;
+			try {
+				ZipFile jar = new ZipFile(path);
+				try {
+					ZipEntry init = jar.getEntry("init.pl");
+					if (init!=null) {
+						Matcher m = MODULE.matcher(read(jar.getInputStream(init)));
+						if (m.find()) {
+							Matcher i = INDICATOR.matcher(m.group(1));
+							while (i.find()) predicates.add(BeliefIndex.predicateKey(i.group(1),Integer.parseInt(i.group(2))));
+							known = true;
+						}
+					}
+				}
+				finally {
+					jar.close();
+				}
+			}
+			catch (IOException e) {
+				System.err.println("Unable to read JIProlog library \""+ path +"\".");
+			}
+		}
+
+		private static String read(InputStream in) throws IOException
+		{
+			StringBuilder b = new StringBuilder();
+			Reader r = new InputStreamReader(in,"ISO-8859-1");
+			try {
+				char[] buf = new char[4096];
+				int n;
+				while ((n = r.read(buf))>0) b.append(buf,0,n);
+			}
+			finally {
+				r.close();
+			}
+			return b.toString();
+		}
+
+		/**
+		 * Returns the predicates exported by this library.
+		 *
+		 * @return the predicate keys
+		 */
+		public Set<String> getPredicates()
+		{
+			return Collections.unmodifiableSet(predicates);
+		}
+
+		/**
+		 * Returns whether the predicates exported by this library are known. Libraries
+		 * of which the exports are not known are never loaded lazily.
+		 *
+		 * @return true if the exported predicates are known
+		 */
+		public boolean isKnown()
+		{
+			return known;
+		}
+
+		public String toString()
+		{
+			return path;
+		}
+	}
+}
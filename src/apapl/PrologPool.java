@@ -0,0 +1,97 @@
+package apapl;
+
+import java.util.LinkedList;
+
+import apapl.data.Query;
+
+/**
+ * A bounded pool of scratch Prolog engines for transient queries, such as tests on
+ * the plan base (see {@link apapl.program.Planbase#doTest}) and tests on goals that
+ * cannot be solved by the {@link apapl.GoalMatcher}. An engine is acquired, filled
+ * with the clauses the query is performed on, and returned to the pool when the
+ * solutions of the query have been retrieved. Returned engines are emptied such that
+ * they can be reused; at most {@link #CAPACITY} engines are kept, further engines
+ * are closed.
+ */
+public class PrologPool
+{
+	/**
+	 * The maximum number of idle engines kept by the pool.
+	 */
+	public static int CAPACITY = 8;
+
+	private static final LinkedList<Prolog> idle = new LinkedList<Prolog>();
+	private static long created = 0;
+
+	/**
+	 * Returns an empty engine, taken from the pool if an idle engine is available.
+	 * The engine should be returned to the pool by {@link #release(Prolog)}, or by
+	 * closing the iterator returned by {@link #doTest(Prolog, Query)}.
+	 *
+	 * @return the engine
+	 */
+	public static Prolog acquire()
+	{
+		synchronized (idle) {
+			if (!idle.isEmpty()) return idle.removeFirst();
+			created++;
+		}
+		return new Prolog();
+	}
+
+	/**
+	 * Returns an engine to the pool. The engine is emptied, or closed if the pool is
+	 * full or the engine cannot be emptied. The engine must not be used afterwards.
+	 *
+	 * @param prolog the engine acquired from the pool
+	 */
+	public static void release(Prolog prolog)
+	{
+		if (prolog.reset()) {
+			synchronized (idle) {
+				if (idle.size()<CAPACITY) {
+					idle.addFirst(prolog);
+					return;
+				}
+			}
+		}
+		prolog.close();
+	}
+
+	/**
+	 * Performs a query on an engine acquired from the pool. The engine is returned to
+	 * the pool when all solutions have been retrieved or when the iterator is closed.
+	 *
+	 * @param prolog the engine acquired from the pool
+	 * @param query the query to perform
+	 * @return the solutions
+	 */
+	public static SolutionIterator doTest(Prolog prolog, Query query)
+	{
+		return new SolutionIterator(prolog, query, true);
+	}
+
+	/**
+	 * Returns the number of engines the pool has created.
+	 *
+	 * @return the number of engines
+	 */
+	public static long getCreatedCount()
+	{
+		synchronized (idle) {
+			return created;
+		}
+	}
+
+	/**
+	 * Returns the number of idle engines in the pool.
+	 *
+	 * @return the number of engines
+	 */
+	public static int getIdleCount()
+	{
+		synchronized (idle) {
+			return idle.size();
+		}
+	}
+}
@@ -0,0 +1,388 @@
+package apapl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import apapl.beliefinertia.BeliefInertiaParam;
+import apapl.data.APLFunction;
+import apapl.data.APLIdent;
+import apapl.data.APLList;
+import apapl.data.APLVar;
+import apapl.data.Literal;
+import apapl.data.Query;
+import apapl.data.Term;
+
+import com.ugos.JIProlog.engine.JIPAtom;
+import com.ugos.JIProlog.engine.JIPCons;
+import com.ugos.JIProlog.engine.JIPFunctor;
+import com.ugos.JIProlog.engine.JIPList;
+import com.ugos.JIProlog.engine.JIPTerm;
+import com.ugos.JIProlog.engine.JIPVariable;
+
+/**
+ * Caches the answers to queries performed on a {@link apapl.Prolog} engine. An answer
+ * is stored together with the predicates the query depends on, i.e. the predicates in
+ * the query and, through the rules of the belief base, the predicates these depend on.
+ * The engine stamps each predicate with the time it was last modified; a cached answer
+ * is reused as long as none of its predicates has been modified since the answer was
+ * cached. The cache holds a bounded number of answers, the least recently used answer
+ * is evicted first.
+ * <p>
+ * Queries that contain impure functions (see {@link BeliefInertiaParam#IMPURE_FUNCTIONS}),
+ * that modify the belief base or that call goals which are only known at runtime are
+ * never cached.
+ */
+public class QueryCache
+{
+	/**
+	 * Belief queries are cached when enabled.
+	 */
+	public static boolean ENABLED = false;
+
+	/**
+	 * The maximum number of answers cached per belief base.
+	 */
+	public static int CAPACITY = 1024;
+
+	/** Pseudo predicate for predicates of which the definition is not known. */
+	static final String ANY = "*";
+
+	/** Predicates of which the outcome cannot be cached. */
+	private static final String[] UNCACHEABLE =
+		{ "call", "assert", "asserta", "assertz", "retract", "retractall", "abolish", "consult" };
+
+	/** Builtin predicates that never depend on the belief base. */
+	private static final String[] BUILTINS =
+		{ ";/2", "->/2", "not/1", "\\+/1", "true/0", "fail/0", "=/2", "\\=/2", "==/2",
+		  "\\==/2", "</2", ">/2", "=</2", ">=/2", "=:=/2", "=\\=/2", "is/2" };
+
+	private Prolog prolog;
+	private Cache entries;
+	private long hits = 0;
+	private long misses = 0;
+
+	/**
+	 * Constructs an empty cache for the answers of a Prolog engine.
+	 *
+	 * @param prolog the engine of which the answers are cached
+	 */
+	public QueryCache(Prolog prolog)
+	{
+		this.prolog = prolog;
+		this.entries = new Cache(CAPACITY);
+	}
+
+	/**
+	 * Returns the cached answer to a query.
+	 *
+	 * @param key the key of the query, see {@link #key(String, int)}
+	 * @return a copy of the cached solutions, null if the answer is not cached or if
+	 *         some predicate it depends on has been modified
+	 */
+	public ArrayList<SubstList<Term>> get(String key)
+	{
+		Entry e = entries.get(key);
+		if (e!=null) {
+			for (String p : e.predicates) {
+				if (prolog.getEpoch(p)>e.stamp) {
+					entries.remove(key);
+					e = null;
+					break;
+				}
+			}
+		}
+		if (e==null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return copy(e.solutions);
+	}
+
+	/**
+	 * Stores the answer to a query.
+	 *
+	 * @param key the key of the query, see {@link #key(String, int)}
+	 * @param predicates the predicates that occur in the query, null if the query
+	 *        cannot be cached
+	 * @param solutions the solutions of the query
+	 */
+	public void put(String key, Collection<String> predicates, ArrayList<SubstList<Term>> solutions)
+	{
+		if (predicates==null) return;
+
+		HashSet<String> closure = closure(prolog,predicates);
+		if (closure==null) return;
+
+		entries.put(key, new Entry(closure.toArray(new String[closure.size()]), prolog.getClock(), copy(solutions)));
+	}
+
+	/**
+	 * Removes all answers from the cache.
+	 */
+	public void clear()
+	{
+		entries.clear();
+	}
+
+	/**
+	 * Returns the number of answers in the cache.
+	 *
+	 * @return the number of answers
+	 */
+	public int size()
+	{
+		return entries.size();
+	}
+
+	/**
+	 * Returns the number of queries that were answered from the cache.
+	 *
+	 * @return the number of hits
+	 */
+	public long getHits()
+	{
+		return hits;
+	}
+
+	/**
+	 * Returns the number of queries that could not be answered from the cache.
+	 *
+	 * @return the number of misses
+	 */
+	public long getMisses()
+	{
+		return misses;
+	}
+
+	public String toString()
+	{
+		return "hits: " + hits + ", misses: " + misses + ", size: " + entries.size();
+	}
+
+	/**
+	 * Computes the predicates a query depends on given the rules in a Prolog engine.
+	 * The outcome of the query can only change when one of these predicates is
+	 * modified, see {@link Prolog#getEpoch(String)}.
+	 *
+	 * @param prolog the engine the query is performed on
+	 * @param predicates the predicates that occur in the query
+	 * @return the predicates the query depends on, null if the query depends on a
+	 *         predicate of which the outcome cannot be cached
+	 */
+	public static HashSet<String> closure(Prolog prolog, Collection<String> predicates)
+	{
+		HashSet<String> closure = new HashSet<String>();
+		LinkedList<String> todo = new LinkedList<String>(predicates);
+		while (!todo.isEmpty()) {
+			String p = todo.removeFirst();
+			if (!closure.add(p)) continue;
+			if (prolog.isOpaque(p)) return null;
+
+			Collection<String> deps = prolog.getRuleDependencies(p);
+			if (deps!=null) todo.addAll(deps);
+			else if (prolog.isConsulted() && !isBuiltin(p) && prolog.getBeliefIndex().get(p).isEmpty())
+				closure.add(ANY);
+		}
+		return closure;
+	}
+
+	/**
+	 * Constructs the key of a query.
+	 *
+	 * @param query the string representation of the query, including the names of
+	 *        its variables
+	 * @param max the maximum number of solutions that is requested
+	 * @return the key
+	 */
+	public static String key(String query, int max)
+	{
+		return max + ":" + query;
+	}
+
+	/**
+	 * Returns the predicates that occur in a query.
+	 *
+	 * @param query the query
+	 * @return the predicate keys (see {@link BeliefIndex#predicateKey}), null if the
+	 *         query cannot be cached
+	 */
+	public static HashSet<String> predicates(Query query)
+	{
+		HashSet<String> predicates = new HashSet<String>();
+		for (Literal l : query.toLiterals()) {
+			Term body = l.getBody();
+			while (body instanceof APLVar && ((APLVar)body).isBounded()) body = ((APLVar)body).getSubst();
+			if (body instanceof APLVar) return null;
+			if (!predicates(body,predicates)) return null;
+		}
+		return predicates;
+	}
+
+	/**
+	 * Collects the functors that occur in a term. Functors in arguments are collected
+	 * as well, since they may be called by builtin predicates such as
+	 * <code>findall/3</code>.
+	 *
+	 * @return false if the term contains an uncacheable functor
+	 */
+	private static boolean predicates(Term t, HashSet<String> predicates)
+	{
+		if (t instanceof APLVar) {
+			APLVar v = (APLVar)t;
+			if (v.isBounded()) return predicates(v.getSubst(),predicates);
+		}
+		else if (t instanceof APLFunction) {
+			APLFunction f = (APLFunction)t;
+			if (isUncacheable(f.getName())) return false;
+			predicates.add(BeliefIndex.predicateKey(f.getName(),f.getParams().size()));
+			for (Term p : f.getParams()) if (!predicates(p,predicates)) return false;
+		}
+		else if (t instanceof APLIdent) {
+			String name = ((APLIdent)t).getName();
+			if (isUncacheable(name)) return false;
+			predicates.add(BeliefIndex.predicateKey(name,0));
+		}
+		else if (t instanceof APLList) {
+			APLList l = (APLList)t;
+			if (!l.isEmpty()) return predicates(l.getHead(),predicates) && predicates(l.getTail(),predicates);
+		}
+		return true;
+	}
+
+	/**
+	 * Collects the functors that occur in the body of a Prolog rule.
+	 *
+	 * @param body the body of the rule
+	 * @param predicates the set to which the predicate keys are added
+	 * @return false if the body calls a goal that is only known at runtime or contains
+	 *         an uncacheable functor
+	 */
+	static boolean dependencies(JIPTerm body, HashSet<String> predicates)
+	{
+		if (body==null) return true;
+		if (body instanceof JIPCons) {
+			// a conjunction
+			JIPCons c = (JIPCons)body;
+			return dependencies(c.getHead(),predicates) && dependencies(c.getTail(),predicates);
+		}
+		if (body instanceof JIPVariable) {
+			JIPVariable v = (JIPVariable)body;
+			return v.isBounded() && dependencies(v.getValue(),predicates);
+		}
+		if (body instanceof JIPFunctor) {
+			JIPFunctor f = (JIPFunctor)body;
+			String n = f.getName();
+			if (n.equals(";") || n.equals("->") || n.equals("not") || n.equals("\\+")) {
+				predicates.add(BeliefIndex.predicateKey(n,f.getArity()));
+				JIPCons c = f.getParams();
+				while (c!=null) {
+					if (!dependencies(c.getHead(),predicates)) return false;
+					c = (c.getTail() instanceof JIPCons) ? (JIPCons)c.getTail() : null;
+				}
+				return true;
+			}
+		}
+		return functors(body,predicates);
+	}
+
+	private static boolean functors(JIPTerm t, HashSet<String> predicates)
+	{
+		if (t==null) return true;
+		if (t instanceof JIPVariable) {
+			JIPVariable v = (JIPVariable)t;
+			return !v.isBounded() || functors(v.getValue(),predicates);
+		}
+		else if (t instanceof JIPFunctor) {
+			JIPFunctor f = (JIPFunctor)t;
+			if (isUncacheable(f.getName())) return false;
+			predicates.add(BeliefIndex.predicateKey(f.getName(),f.getArity()));
+			return functors(f.getParams(),predicates);
+		}
+		else if (t instanceof JIPList) {
+			JIPList l = (JIPList)t;
+			return functors(l.getHead(),predicates) && functors(l.getTail(),predicates);
+		}
+		else if (t instanceof JIPCons) {
+			JIPCons c = (JIPCons)t;
+			return functors(c.getHead(),predicates) && functors(c.getTail(),predicates);
+		}
+		else if (t instanceof JIPAtom) {
+			String name = ((JIPAtom)t).getName();
+			if (isUncacheable(name)) return false;
+			predicates.add(BeliefIndex.predicateKey(name,0));
+		}
+		return true;
+	}
+
+	private static boolean isUncacheable(String name)
+	{
+		for (String s : UNCACHEABLE) if (s.equals(name)) return true;
+		for (String s : BeliefInertiaParam.IMPURE_FUNCTIONS) if (s.equals(name)) return true;
+		return false;
+	}
+
+	private static boolean isBuiltin(String predicate)
+	{
+		for (String s : BUILTINS) if (s.equals(predicate)) return true;
+		return false;
+	}
+
+	/**
+	 * Copies a list of solutions, such that changes made by clients do not affect the
+	 * cached solutions.
+	 */
+	private static ArrayList<SubstList<Term>> copy(ArrayList<SubstList<Term>> solutions)
+	{
+		ArrayList<SubstList<Term>> copy = new ArrayList<SubstList<Term>>(solutions.size());
+		for (SubstList<Term> s : solutions) {
+			SubstList<Term> c = new SubstList<Term>();
+			for (String k : s.keySet()) c.put(k,s.get(k).clone());
+			copy.add(c);
+		}
+		return copy;
+	}
+
+	/**
+	 * A cached answer.
+	 */
+	private static class Entry
+	{
+		String[] predicates;
+		long stamp;
+		ArrayList<SubstList<Term>> solutions;
+
+		Entry(String[] predicates, long stamp, ArrayList<SubstList<Term>> solutions)
+		{
+			this.predicates = predicates;
+			this.stamp = stamp;
+			this.solutions = solutions;
+		}
+	}
+
+	/**
+	 * Map of cached answers in access order that evicts the least recently used answer
+	 * when it is full.
+	 */
+	private static class Cache extends LinkedHashMap<String,Entry>
+	{
+		private static final long serialVersionUID = 1L;
+
+		private int capacity;
+
+		Cache(int capacity)
+		{
+			super(16,0.75f,true);
+			this.capacity = capacity;
+		}
+
+		protected boolean removeEldestEntry(Map.Entry<String,Entry> eldest)
+		{
+			return size()>capacity;
+		}
+	}
+}
@@ -0,0 +1,484 @@
+package apapl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import apapl.data.APLFunction;
+import apapl.data.APLIdent;
+import apapl.data.APLList;
+import apapl.data.APLNum;
+import apapl.data.APLVar;
+import apapl.data.AndQuery;
+import apapl.data.Literal;
+import apapl.data.OrQuery;
+import apapl.data.Query;
+import apapl.data.Term;
+import apapl.data.True;
+
+import com.ugos.JIProlog.engine.JIPAtom;
+import com.ugos.JIProlog.engine.JIPCons;
+import com.ugos.JIProlog.engine.JIPList;
+import com.ugos.JIProlog.engine.JIPTerm;
+
+/**
+ * A query that has been compiled once such that it can be performed many times with
+ * different variable bindings. Rule guards are compiled into a template in which each
+ * variable corresponds to a numbered slot. Performing the query only requires filling
+ * the slots with the bindings of a substitution; the query does not need to be cloned,
+ * substituted and converted again.
+ * <p>
+ * Calls of builtin predicates are built from the parsed call of the builtin of the
+ * engine the query is performed on (see {@link apapl.JIPConverter}).
+ * <p>
+ * The variables of a template are the variables of the rule it was compiled from.
+ * Variants of the rule (see {@link apapl.program.PGrule#getVariant}) rename these
+ * variables; the renaming is passed when the template is instantiated.
+ */
+public class QueryTemplate
+{
+	/**
+	 * Compiled guards are used when enabled. Disable to perform guards by cloning
+	 * and substituting the query each time, e.g. for benchmarking.
+	 */
+	public static boolean ENABLED = true;
+
+	private Query query;
+	private Node root;
+	private ArrayList<String> slots = new ArrayList<String>();
+	private HashSet<String> predicates;
+	private boolean analyzed = false;
+
+	/**
+	 * Compiles a query into a template.
+	 *
+	 * @param query the query to compile
+	 */
+	public QueryTemplate(Query query)
+	{
+		this.query = query.clone();
+		root = compile(this.query);
+	}
+
+	/**
+	 * Returns the query this template was compiled from.
+	 *
+	 * @return the query
+	 */
+	public Query getQuery()
+	{
+		return query;
+	}
+
+	/**
+	 * Returns whether this template corresponds to the query <code>true</code>.
+	 *
+	 * @return true if the query is <code>true</code>, false otherwise
+	 */
+	public boolean isTrue()
+	{
+		return query instanceof True;
+	}
+
+	/**
+	 * Instantiates this template by filling the variable slots with the bindings of
+	 * a substitution. Variables that are not bound remain variables in the resulting
+	 * JIProlog term.
+	 *
+	 * @param prolog the engine the query is performed on
+	 * @param theta the substitution
+	 * @param renaming list [[old,new],...] of variable renamings that turned the rule
+	 *        this template was compiled from into the variant the substitution refers to
+	 * @return the JIProlog term that can be queried
+	 */
+	public JIPTerm instantiate(Prolog prolog, SubstList<Term> theta, ArrayList<ArrayList<String>> renaming)
+	{
+		Instance i = new Instance(prolog,theta,renaming);
+		return i.converter.expose(root.build(i));
+	}
+
+	/**
+	 * Instantiates the query this template was compiled from by cloning it and applying
+	 * the renaming and substitution to it, as done before guards were compiled.
+	 *
+	 * @param theta the substitution
+	 * @param renaming list [[old,new],...] of variable renamings
+	 * @return the substituted query
+	 */
+	public Query substitute(SubstList<Term> theta, ArrayList<ArrayList<String>> renaming)
+	{
+		Query q = query.clone();
+		if (!renaming.isEmpty()) {
+			SubstList<Term> r = new SubstList<Term>();
+			for (ArrayList<String> change : renaming) r.put(change.get(0),new APLVar(change.get(1)));
+			q.applySubstitution(r);
+		}
+		q.applySubstitution(theta);
+		return q;
+	}
+
+	/**
+	 * Returns a key that identifies the instantiation of this template with a 
+	 * substitution, for the {@link apapl.QueryCache}. Two instantiations with equal
+	 * keys result in the same query.
+	 *
+	 * @param theta the substitution
+	 * @param renaming list [[old,new],...] of variable renamings
+	 * @return the key
+	 */
+	public String key(SubstList<Term> theta, ArrayList<ArrayList<String>> renaming)
+	{
+		Instance i = new Instance(null,theta,renaming);
+		StringBuilder b = new StringBuilder(query.toString());
+		for (int j=0; j<slots.size(); j++) {
+			Term t = i.resolve(j);
+			b.append(j==0 ? " | " : ", ");
+			b.append(t==null ? i.unbound : t.toString());
+		}
+		return b.toString();
+	}
+
+	/**
+	 * Returns the predicates that occur in the query of this template.
+	 *
+	 * @return the predicate keys, null if the query cannot be cached
+	 */
+	public HashSet<String> getPredicates()
+	{
+		if (!analyzed) {
+			predicates = QueryCache.predicates(query);
+			analyzed = true;
+		}
+		return predicates;
+	}
+
+	public String toString()
+	{
+		return query.toString();
+	}
+
+	/**
+	 * Compiles a query.
+	 */
+	private Node compile(Query q)
+	{
+		if (q instanceof Literal) {
+			Literal l = (Literal)q;
+			Node body = compile(l.getBody(),false);
+			if (l.getSign()) return body;
+			else return new Compound("not",body);
+		}
+		else if (q instanceof AndQuery) {
+			AndQuery a = (AndQuery)q;
+			Node right = compile(a.getRight());
+			if (!(a.getRight() instanceof AndQuery)) right = new Conjunction(right,null);
+			return new Conjunction(compile(a.getLeft()),right);
+		}
+		else if (q instanceof OrQuery) {
+			OrQuery o = (OrQuery)q;
+			return new Compound(";",compile(o.getLeft()),compile(o.getRight()));
+		}
+		else if (q instanceof True) {
+			return new Atom("true");
+		}
+		else throw new IllegalArgumentException("Cannot compile query " + q);
+	}
+
+	/**
+	 * Compiles a term. Arguments of functions are evaluated when a substitution is
+	 * applied to them (see {@link apapl.data.APLFunction#evaluateArguments()});
+	 * arithmetic at such positions is compiled into nodes that are evaluated when the
+	 * template is instantiated.
+	 *
+	 * @param t the term to compile
+	 * @param argument true if the term is the argument of a function
+	 */
+	private Node compile(Term t, boolean argument)
+	{
+		if (t instanceof APLVar) {
+			APLVar v = (APLVar)t;
+			if (v.isBounded()) return compile(v.getSubst(),argument);
+			else if (v.getName().equals("_")) return new Anonymous();
+			else {
+				int i = slots.indexOf(v.getName());
+				if (i<0) {
+					i = slots.size();
+					slots.add(v.getName());
+				}
+				return new Slot(i);
+			}
+		}
+		else if (t instanceof APLFunction) {
+			APLFunction f = (APLFunction)t;
+			ArrayList<Term> params = f.getParams();
+			if (params.size()==0) return new Atom(f.getName());
+
+			Node[] args = new Node[params.size()];
+			for (int i=0; i<args.length; i++) args[i] = compile(params.get(i),true);
+
+			if (f.isInfix() && argument) return new Arithmetic(f.getName(),args[0],args[1]);
+			else if (JIPConverter.isBuiltin(f.getName(),args.length)) return new Builtin(f.getName(),args);
+			else return new Compound(f.getName(),args);
+		}
+		else if (t instanceof APLIdent) {
+			return new Atom(((APLIdent)t).getName());
+		}
+		else if (t instanceof APLNum) {
+			return new Num((APLNum)t);
+		}
+		else if (t instanceof APLList) {
+			APLList l = (APLList)t;
+			if (l.isEmpty()) return new Nil();
+
+			Term tail = l.getTail();
+			if (tail instanceof APLList && ((APLList)tail).isEmpty())
+				return new Cons(compile(l.getHead(),false),null);
+			else return new Cons(compile(l.getHead(),false),compile(tail,false));
+		}
+		else throw new IllegalArgumentException("Cannot compile term " + t);
+	}
+
+	/**
+	 * The state of a single instantiation of the template.
+	 */
+	private class Instance
+	{
+		SubstList<Term> theta;
+		String[] names = new String[slots.size()];
+		JIPConverter converter;
+		String unbound;
+
+		Instance(Prolog prolog, SubstList<Term> theta, ArrayList<ArrayList<String>> renaming)
+		{
+			this.theta = theta;
+			converter = new JIPConverter(prolog);
+
+			HashMap<String,String> r = new HashMap<String,String>();
+			for (ArrayList<String> change : renaming) r.put(change.get(0),change.get(1));
+			for (int i=0; i<names.length; i++) {
+				String n = r.get(slots.get(i));
+				names[i] = (n==null ? slots.get(i) : n);
+			}
+		}
+
+		/**
+		 * Returns the binding of the variable in a slot, following variables that are
+		 * bound to other variables just like {@link apapl.data.APLVar#applySubstitution}.
+		 * Stores the name of the last variable in the chain if it is unbound.
+		 */
+		Term resolve(int slot)
+		{
+			String name = names[slot];
+			Term t = theta.get(name);
+			while (t instanceof APLVar) {
+				APLVar v = (APLVar)t;
+				if (v.isBounded()) t = v.getSubst();
+				else if (v.getName().equals(name)) t = null;
+				else {
+					name = v.getName();
+					t = theta.get(name);
+				}
+			}
+			unbound = name;
+			return t;
+		}
+	}
+
+	/**
+	 * A node of a compiled query.
+	 */
+	private static abstract class Node
+	{
+		abstract JIPTerm build(Instance i);
+
+		/**
+		 * Returns the value of this node if it is a number, null otherwise.
+		 */
+		Term value(Instance i)
+		{
+			return null;
+		}
+	}
+
+	private static class Slot extends Node
+	{
+		int index;
+
+		Slot(int index)
+		{
+			this.index = index;
+		}
+
+		JIPTerm build(Instance i)
+		{
+			Term t = i.resolve(index);
+			if (t==null) return i.converter.variable(i.unbound);
+			else return i.converter.convert(t);
+		}
+
+		Term value(Instance i)
+		{
+			Term t = i.resolve(index);
+			if (t instanceof APLFunction) t = ((APLFunction)t).evaluate();
+			return t instanceof APLNum ? t : null;
+		}
+	}
+
+	private static class Anonymous extends Node
+	{
+		JIPTerm build(Instance i)
+		{
+			return i.converter.variable("_");
+		}
+	}
+
+	private static class Atom extends Node
+	{
+		JIPAtom atom;
+
+		Atom(String name)
+		{
+			atom = JIPConverter.atom(name);
+		}
+
+		JIPTerm build(Instance i)
+		{
+			return atom;
+		}
+	}
+
+	private static class Num extends Node
+	{
+		APLNum num;
+
+		Num(APLNum num)
+		{
+			this.num = num;
+		}
+
+		JIPTerm build(Instance i)
+		{
+			return JIPConverter.number(num);
+		}
+
+		Term value(Instance i)
+		{
+			return num;
+		}
+	}
+
+	private static class Compound extends Node
+	{
+		String name;
+		Node[] args;
+
+		Compound(String name, Node... args)
+		{
+			this.name = name;
+			this.args = args;
+		}
+
+		JIPTerm build(Instance i)
+		{
+			return JIPConverter.functor(name,buildArgs(i));
+		}
+
+		JIPTerm[] buildArgs(Instance i)
+		{
+			JIPTerm[] p = new JIPTerm[args.length];
+			for (int j=0; j<p.length; j++) p[j] = args[j].build(i);
+			return p;
+		}
+	}
+
+	/**
+	 * A call of a builtin predicate.
+	 */
+	private static class Builtin extends Compound
+	{
+		Builtin(String name, Node... args)
+		{
+			super(name,args);
+		}
+
+		JIPTerm build(Instance i)
+		{
+			i.converter.nest();
+			JIPTerm[] p = buildArgs(i);
+			i.converter.unnest();
+			return i.converter.builtin(name,p);
+		}
+	}
+
+	/**
+	 * An infix function that is evaluated when both sides evaluate to numbers.
+	 */
+	private static class Arithmetic extends Compound
+	{
+		Arithmetic(String name, Node left, Node right)
+		{
+			super(name,left,right);
+		}
+
+		JIPTerm build(Instance i)
+		{
+			Term v = value(i);
+			if (v!=null) return JIPConverter.number((APLNum)v);
+			else return super.build(i);
+		}
+
+		Term value(Instance i)
+		{
+			Term l = args[0].value(i);
+			Term r = args[1].value(i);
+			if (l==null || r==null) return null;
+			Term v = new APLFunction(l,name,r).evaluate();
+			return v instanceof APLNum ? v : null;
+		}
+	}
+
+	/**
+	 * A conjunction, represented by a chain of cons cells.
+	 */
+	private static class Conjunction extends Node
+	{
+		Node head;
+		Node tail;
+
+		Conjunction(Node head, Node tail)
+		{
+			this.head = head;
+			this.tail = tail;
+		}
+
+		JIPTerm build(Instance i)
+		{
+			return JIPCons.create(head.build(i),tail==null?null:(JIPCons)tail.build(i));
+		}
+	}
+
+	private static class Nil extends Node
+	{
+		JIPTerm build(Instance i)
+		{
+			return JIPList.NIL;
+		}
+	}
+
+	private static class Cons extends Node
+	{
+		Node head;
+		Node tail;
+
+		Cons(Node head, Node tail)
+		{
+			this.head = head;
+			this.tail = tail;
+		}
+
+		JIPTerm build(Instance i)
+		{
+			return JIPList.create(head.build(i),tail==null?null:tail.build(i));
+		}
+	}
+}
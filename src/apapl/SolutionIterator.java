@@ -1,6 +1,7 @@
 package apapl;
 
 import java.util.Iterator;
+import java.util.List;
 
 import apapl.data.Query;
 import apapl.data.Term;
@@ -11,15 +12,20 @@ import com.ugos.JIProlog.engine.JIPTerm;
 
 /**
  * Implements an iterator over all solutions of a query performed on the Prolog engine.
- * More solutions (if any) are calculated at runtime only when the next solution is 
- * requested.
+ * Solutions are calculated at runtime only when the next solution is requested. The
+ * underlying query is closed as soon as all solutions have been retrieved, or when
+ * {@link #close()} is called by a client that does not need any further solutions.
  */
 public class SolutionIterator implements Iterable<SubstList<Term>>, Iterator<SubstList<Term>>
 {
 	private JIPQuery jipQuery = null;
 	private Prolog prolog;
+	private Object lock;
+	private boolean release = false;
+	private Iterator<SubstList<Term>> precomputed = null;
 	
 	private SubstList<Term> nextSol = null;
+	private boolean calculated = true;
 	
 	/**
 	 * Constructs a SolutionIterator.
@@ -29,68 +35,113 @@ public class SolutionIterator implements Iterable<SubstList<Term>>, Iterator<Sub
 	}
 	
 	/**
-	 * Constructs a SolutionIterator. Calculates the first solution when created, by
-	 * firing the query on the prolog engine provided.
+	 * Constructs a SolutionIterator over solutions that have already been calculated,
+	 * for example by the {@link apapl.GoalMatcher}.
+	 * 
+	 * @param solutions the solutions to iterate over
+	 */
+	public SolutionIterator(List<SubstList<Term>> solutions)
+	{
+		precomputed = solutions.iterator();
+		calculated = false;
+	}
+	
+	/**
+	 * Constructs a SolutionIterator. Opens the query on the prolog engine provided,
+	 * the first solution is calculated when it is requested.
 	 * 
 	 * @param prolog the prolog engine to perform the query on
 	 * @param query the query to perform
+	 * @param release true if the engine has been acquired from the {@link apapl.PrologPool}
+	 *        and has to be returned to it when the iterator is closed
 	 */
-	public SolutionIterator(Prolog prolog, Query query)
+	public SolutionIterator(Prolog prolog, Query query, boolean release)
 	{
 		this.prolog = prolog;
-		try {
-			jipQuery = prolog.getJIP().openSynchronousQuery(prolog.getParser().parseTerm(query.toPrologString()));
+		this.lock = prolog.getLock();
+		this.release = release;
+		synchronized (lock) {
+			try {
+				jipQuery = prolog.getJIP().openSynchronousQuery(JIPConverter.toJIP(query,prolog));
+			}
+			catch (JIPParameterTypeException e) {
+				throw e;
+			}
 		}
-		catch (JIPParameterTypeException e) {
-			throw e;
-		}
-		calculateNext();
+		calculated = false;
 	}
 	
 	/**
-	 * Calculates and returns the next solution. Should only be called
-	 * if {@link apapl.SolutionIterator#hasNext} returns true.
+	 * Calculates and returns the next solution.
 	 * 
 	 * @return the next solution,
 	 *         null if there is no next solution
 	 */
 	public SubstList<Term> next()
 	{
+		if (!hasNext()) return null;
 		SubstList<Term> r = nextSol;
-		calculateNext();
+		nextSol = null;
+		calculated = false;
 		return r;
 	}
 	
 	/**
-	 * Calculates the next solution.
+	 * Calculates the next solution. Closes the query if there are no more solutions.
 	 */
 	private void calculateNext()
 	{
-		if (prolog==null) {
+		calculated = true;
+		if (precomputed!=null) {
+			nextSol = precomputed.hasNext() ? precomputed.next() : null;
+		}
+		else if (prolog==null) {
 			nextSol = null;
 		}
-		else if (jipQuery==null) {
+		else if (jipQuery==null || jipQuery.isClosed()) {
 			nextSol = null;
 		}
 		else if (!jipQuery.hasMoreChoicePoints()) {
 			nextSol = null;
 		}
-		else {
+		else synchronized (lock) {
 			JIPTerm sol = jipQuery.nextSolution();
 			if (sol==null) nextSol = null;
 			else nextSol = Prolog.getSubstitutions(sol);
 		}
+		if (nextSol==null) close();
 	}
 	
 	/**
-	 * Returns whether next solution exists.
+	 * Returns whether next solution exists. Calculates the next solution if this
+	 * has not been done yet.
 	 * 
 	 * @return true if next solution exists, false otherwise
 	 */
 	public boolean hasNext()
 	{
-		if (jipQuery==null) return false;
-		else return (nextSol!=null);
+		if (!calculated) calculateNext();
+		return (nextSol!=null);
+	}
+	
+	/**
+	 * Closes the underlying query. No more solutions will be calculated. Should be
+	 * called by clients that stop iterating before all solutions are retrieved, such
+	 * that engines acquired from the {@link apapl.PrologPool} are returned.
+	 */
+	public void close()
+	{
+		if (jipQuery!=null && !jipQuery.isClosed()) synchronized (lock) {
+			jipQuery.close();
+		}
+		if (release) {
+			release = false;
+			PrologPool.release(prolog);
+			prolog = null;
+		}
+		precomputed = null;
+		nextSol = null;
+		calculated = true;
 	}
 	
 	/**
@@ -96,24 +96,21 @@ public class Unifier
 	
 	public static boolean unify(Plan p1a, Plan p2a, SubstList<Term> theta)
 	{
+		// plans of different kinds never unify, and actions are unified by their
+		// functions, which are copied by unify(Term,Term), so the plans are only
+		// copied when their parts are modified below
+		if (p1a.getClass()!=p2a.getClass()) return false;
+		if (p1a instanceof AbstractAction)
+			return unify(((AbstractAction)p1a).getPlan(),((AbstractAction)p2a).getPlan(),theta);
+		if (p1a instanceof BeliefUpdateAction)
+			return unify(((BeliefUpdateAction)p1a).getPlan(),((BeliefUpdateAction)p2a).getPlan(),theta);
+		
 		Plan p1 = p1a.clone();
 		Plan p2 = p2a.clone();
 		p1.applySubstitution(theta);
 		p2.applySubstitution(theta);
 		
-		if (p1 instanceof AbstractAction && p2 instanceof AbstractAction)
-		{
-			AbstractAction a1 = (AbstractAction)p1;
-			AbstractAction a2 = (AbstractAction)p2;
-			return unify(a1.getPlan(),a2.getPlan(),theta);
-		}
-		else if (p1 instanceof BeliefUpdateAction && p2 instanceof BeliefUpdateAction)
-		{
-			BeliefUpdateAction a1 = (BeliefUpdateAction)p1;
-			BeliefUpdateAction a2 = (BeliefUpdateAction)p2;
-			return unify(a1.getPlan(),a2.getPlan(),theta);
-		}
-		else if (p1 instanceof ConditionalPlan && p2 instanceof ConditionalPlan)
+		if (p1 instanceof ConditionalPlan && p2 instanceof ConditionalPlan)
 		{
 			ConditionalPlan a1 = (ConditionalPlan)p1;
 			ConditionalPlan a2 = (ConditionalPlan)p2;
@@ -1,14 +1,15 @@
 package apapl.beliefinertia;
 
-import java.io.StringReader;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 
 import apapl.APLModule;
+import apapl.Prolog;
+import apapl.beliefinertia.dependencyset.DependencyGraph;
 import apapl.beliefinertia.dependencyset.DependencySetBuilder;
-import apapl.beliefinertia.dependencyset.InferenceRules;
-import apapl.data.Literal;
-import apapl.parser.prolog.PrologParser;
 import apapl.plans.AssertBelief;
 import apapl.program.BeliefUpdate;
 import apapl.program.Rule;
@@ -25,6 +26,23 @@ import apapl.program.Rule;
  * accordingly. These updated rule selectors can be found in the package
  * apapl.beliefinertia.dependencyset.
  * 
+ * The dependency sets are computed from the dependency graph of the rules in the belief
+ * base, which is taken from the Prolog engine of the module. When rules are asserted
+ * or retracted at runtime, only the part of the graph concerning the predicates of
+ * these rules is analysed again (see {@link #update()}).
+ * 
+ * Clones of a module share its rules, and the inertia module of a clone shares the
+ * dependency graph and the predicate ids with the inertia module of the module (see
+ * {@link #share}). Each inertia module analyses the rules of the belief base of its
+ * own module. A shared graph is the union of the rules of all these belief bases,
+ * such that the dependency sets of the shared rules cover each of them.
+ * 
+ * Predicates are interned to integer ids (see {@link PredicateTable}), so the dependency
+ * sets of the rules and the predicates changed by the belief updates are bit sets. A belief
+ * update only marks its predicates as dirty; before rules are selected, the rules of
+ * which the dependency set intersects the dirty predicates lose their inertia (see
+ * {@link #activateRules()}).
+ * 
  * Belief inertia can be enabled and disabled, because it is still in testing mode. This
  * can be set in the class apapl.beliefinertia.BeliefInertiaParam. When it has been
  * tested enough we will integrate it into 2APL completely.
@@ -35,99 +53,169 @@ import apapl.program.Rule;
 public class BeliefInertiaModule 
 {
 	APLModule a;
-	InferenceRules inferenceRules;
+	DependencyGraph graph;
+	DependencySetBuilder builder;
+	PredicateTable predicates = new PredicateTable();
+	Rule[] rules;
+	BitSet dirty = new BitSet();
+	long analyzed;
+	boolean shared = false;
 		
 	/**
 	 * Initialize the direct and indirect belief updates and the rules of this APLModule for belief inertia.
 	 * This will set the belief and goal update criteria for each rule.
 	 *  
 	 * @param a the APLModule that needs to be initialized
-	 * @param beliefBase the belief base of this module as one string, this is required to generate the dependency sets
-	 * @param directBUs a linked listed of direct belief updates (see apapl.plans.AssertBelief). they cannot be infered from
-	 * the APLModule easily because they are hidden inside the plans.
 	 */
 	public void initalize(APLModule a) 
 	{
 		this.a = a;
-		String bb = a.getBeliefbase().toString();
+		graph = new DependencyGraph();
+		builder = new DependencySetBuilder(graph, predicates);
+		rules = a.getAllRules().toArray(new Rule[0]);
 		
-		inferenceRules = parseInferenceRules(bb);
-		
-		// TODO: these three methods are highly inefficient (we iterate over all the rules many times)
-		// but if we do not parse too many 2APL files at runtime this should be no problem
-		// still, we might consider optimizing it
+		updateGraph();
 		
 		// generate the dependency sets for the rules: all the predicates in the belief base that each rule can affect
-		(new DependencySetBuilder(inferenceRules)).build(a);
+		builder.build(a);
 		
-		// assign for all (direct/indirect) belief updates what rules they possibly can affect		
-		assignBUrules();
+		// assign for all (direct/indirect) belief updates what predicates they update		
+		assignBUpredicates();
 	}
 	
 	/**
-	 * Parse the inference rules of a belief base using a dedicated Prolog parser. 
+	 * Returns the inertia module of a clone of the module. The clone shares the rules,
+	 * the dependency graph and the predicate ids with the module, but analyses the
+	 * rules of its own belief base. Predicates that are dirty for the module are dirty
+	 * for the clone as well.
 	 * 
-	 * @param bb The belief base of an APLModule in a String
-	 * @return An InferenceRules object which contains two HashMaps of the predicates in the inference rules
+	 * @param clone the clone of the module
+	 * @return the inertia module of the clone
 	 */
-	private InferenceRules parseInferenceRules(String bb) 
+	public synchronized BeliefInertiaModule share(APLModule clone)
 	{
-		PrologParser parser = new PrologParser(new StringReader(""));
+		shared = true;
 		
-		parser.ReInit(new StringReader(bb));
+		BeliefInertiaModule m = new BeliefInertiaModule();
+		m.a = clone;
+		m.graph = graph;
+		m.builder = builder;
+		m.predicates = predicates;
+		m.rules = rules;
+		m.dirty = (BitSet)dirty.clone();
+		m.analyzed = analyzed;
+		m.shared = true;
+		return m;
+	}
+	
+	/**
+	 * Analyse the rules of the belief base again if rules have been asserted or retracted
+	 * since they were last analysed. The dependency sets of the practical reasoning rules
+	 * are updated, and the predicates of which the rules have changed are marked as dirty.
+	 */
+	public synchronized void update()
+	{
+		if (a.getBeliefbase().getBelief().getRulesEpoch()==analyzed) return;
 		
-		try {
-			return parser.Prolog();
-		} catch (apapl.parser.prolog.ParseException e) {
-			e.printStackTrace();
+		BitSet bits;
+		synchronized (graph) {
+			HashSet<String> changed = updateGraph();
+			if (changed.isEmpty()) return;
+			
+			// rules of which the old dependency set contains a changed predicate should
+			// lose their inertia as well
+			bits = predicates.bits(changed);
+			for (Rule rule : rules) {
+				if (rule.dependencies.intersects(bits)) rule.inertia = false;
+				builder.build(rule);
+			}
 		}
-		
-		return null;
+		dirty.or(bits);
 	}
 	
 	/**
-	 * For each belief update action (direct and indirect) find the relevant practical reasoning
-	 * rules and add them as "relevant rules" to the belief updates. These relevant rules will
-	 * have their belief inertia flag disabled when the belief update action is executed. 
+	 * Marks predicates as updated by a belief update.
+	 * 
+	 * @param updated the ids of the predicates, see {@link PredicateTable}
 	 */
-	private void assignBUrules()
+	public synchronized void beliefsUpdated(BitSet updated)
 	{
-		// indirect belief updates are belief update specifications of the form { pre } Update(X1,...,Xn) { post }
-		for (BeliefUpdate b : a.getBeliefUpdates())	 		
-			b.addRelevantRules(findRelevantRules(b.getPost()));
+		dirty.or(updated);
+	}
+	
+	/**
+	 * Disable the inertia of all rules of which the dependency set contains a predicate
+	 * that has been updated since this method was last called. Must be called before the
+	 * inertia of the rules is used.
+	 */
+	public synchronized void activateRules()
+	{
+		if (dirty.isEmpty()) return;
 		
-		// direct belief updates are plans of the form +belief(X1,..,Xn) and -belief(X1,..,Xn)
-		for (AssertBelief ab : a.getDirectBeliefUpdates()) 	
-			ab.addRelevantRules(findRelevantRules(ab.getPost()));
+		for (Rule rule : rules)
+			if (rule.dependencies.intersects(dirty)) rule.inertia = false;
+		dirty.clear();
 	}
 	
 	/**
-	 * Find the relevant rules of a belief query by iterating over all practical reasoning rules
-	 * and see whether there is a predicate in the dependency set that occurs in the belief query
-	 * as well. If so, at it as a relevant rule 
+	 * Update the dependency graph with the rules in the Prolog engine of the module.
+	 * A shared graph only grows, see {@link #share}.
 	 * 
-	 * @param query The belief query represented as an arraylist of literals
-	 * @return the relevant rules as a linkedlist of rules
+	 * @return the predicates of which the rules have changed
 	 */
-	private LinkedList<Rule> findRelevantRules(ArrayList<Literal> query) {
-		LinkedList<Rule> ret = new LinkedList<Rule>();
+	private HashSet<String> updateGraph()
+	{
+		Prolog prolog = a.getBeliefbase().getBelief();
+		analyzed = prolog.getRulesEpoch();
 		
-		for (Rule rule : a.getAllRules()) {
-			
-			// rules are excluded from inertia (meaning their guard should always be checked)
-			// if a random number is generated in their dependency set
-			if (RuleOperations.containsImpureSymbol(rule.dependencySet))
-				continue;
-			
-			for (Literal l : query) {
-				String p = RuleOperations.getPredicate(l);
-				if (rule.dependencySet.contains(p)) {
-					ret.add(rule);
-					break;
-				}
+		// the graph identifies predicates by their name only
+		HashMap<String,HashSet<String>> heads = new HashMap<String,HashSet<String>>();
+		HashSet<String> impure = new HashSet<String>();
+		for (String key : prolog.getRulePredicates()) {
+			String head = name(key);
+			HashSet<String> body = heads.get(head);
+			if (body==null) {
+				body = new HashSet<String>();
+				heads.put(head,body);
 			}
+			Collection<String> deps = prolog.getRuleDependencies(key);
+			if (deps!=null) for (String dep : deps) body.add(name(dep));
+			if (prolog.isOpaque(key)) impure.add(head);
+		}
+		
+		HashSet<String> changed = new HashSet<String>();
+		if (!shared) for (String head : new ArrayList<String>(graph.getHeads()))
+			if (!heads.containsKey(head) && graph.removeRules(head)) changed.add(head);
+		for (String head : heads.keySet()) {
+			boolean c = shared ? graph.addRules(head,heads.get(head),impure.contains(head))
+			                   : graph.setRules(head,heads.get(head),impure.contains(head));
+			if (c) changed.add(head);
 		}
+		return changed;
+	}
+	
+	/**
+	 * Returns the name of a predicate key: p/2 --> p
+	 */
+	private static String name(String key)
+	{
+		int i = key.lastIndexOf('/');
+		return i<=0 ? key : key.substring(0,i);
+	}
+	
+	/**
+	 * For each belief update action (direct and indirect) store the predicates it updates
+	 * as a bit set. When the belief update action is executed, these predicates are marked
+	 * as dirty, such that the rules that depend on them lose their inertia.
+	 */
+	private void assignBUpredicates()
+	{
+		// indirect belief updates are belief update specifications of the form { pre } Update(X1,...,Xn) { post }
+		for (BeliefUpdate b : a.getBeliefUpdates())	 		
+			b.setUpdatedPredicates(predicates.literalBits(b.getPost()));
 		
-		return ret;
+		// direct belief updates are plans of the form +belief(X1,..,Xn) and -belief(X1,..,Xn)
+		for (AssertBelief ab : a.getDirectBeliefUpdates()) 	
+			ab.setUpdatedPredicates(predicates.literalBits(ab.getPost()));
 	}
 }
@@ -0,0 +1,217 @@
+package apapl.beliefinertia;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import apapl.GoalMatcher;
+import apapl.SubstList;
+import apapl.data.AndQuery;
+import apapl.data.Goal;
+import apapl.data.Literal;
+import apapl.data.Query;
+import apapl.data.Term;
+import apapl.program.Goalbase;
+import apapl.program.PGrule;
+
+/**
+ * The goal-side counterpart of belief inertia. Remembers for each PG rule the goals
+ * its head matches and the substitutions for which it matches them, such that the
+ * head of a rule is not matched against all goals in every deliberation cycle.
+ * <p>
+ * The goal base records for each predicate when goals with a positive literal of that
+ * predicate were last added or dropped (see {@link Goalbase#getEpoch(String)}). Only
+ * goals with positive literals of the predicates in the head of a rule can match the
+ * head, so the goals a head may match are only collected again once the goals of
+ * one of these predicates have changed. Goals are not modified while they are in the
+ * goal base, hence the substitutions for which the head matches a goal are computed
+ * once per goal.
+ * <p>
+ * An instance belongs to a single goal base, see {@link Goalbase#getGoalInertia()}.
+ * The rules themselves may be shared by clones of a module, so nothing is stored in
+ * the rules.
+ */
+public class GoalInertia
+{
+	/**
+	 * Head matches are remembered when enabled. Disable to match the heads of the
+	 * rules against all goals in every deliberation cycle, e.g. for benchmarking.
+	 */
+	public static boolean ENABLED = true;
+
+	private Goalbase goalbase;
+	private IdentityHashMap<PGrule,Entry> entries = new IdentityHashMap<PGrule,Entry>();
+
+	/**
+	 * Constructs the head matches for a goal base.
+	 *
+	 * @param goalbase the goal base
+	 */
+	public GoalInertia(Goalbase goalbase)
+	{
+		this.goalbase = goalbase;
+	}
+
+	/**
+	 * Returns the goals that the head of a rule may match, in the order of the goal
+	 * base. The list must not be modified.
+	 *
+	 * @param rule the PG rule
+	 * @return the goals
+	 */
+	public List<Goal> candidates(PGrule rule)
+	{
+		Entry e = entry(rule);
+		if (e==null) return snapshot();
+
+		long clock = goalbase.getClock();
+		if (e.goals!=null) {
+			boolean changed = false;
+			for (String p : e.predicates) {
+				if (goalbase.getEpoch(p)>e.checked) {
+					changed = true;
+					break;
+				}
+			}
+			if (!changed) {
+				e.checked = clock;
+				return e.goals;
+			}
+		}
+
+		ArrayList<Goal> goals = new ArrayList<Goal>();
+		IdentityHashMap<Goal,ArrayList<SubstList<Term>>> matches = new IdentityHashMap<Goal,ArrayList<SubstList<Term>>>();
+		for (Goal g : goalbase) {
+			if (mayMatch(e,g)) {
+				goals.add(g);
+				ArrayList<SubstList<Term>> m = e.matches.get(g);
+				if (m!=null) matches.put(g,m);
+			}
+		}
+		e.goals = goals;
+		e.matches = matches;
+		e.checked = clock;
+		return goals;
+	}
+
+	/**
+	 * Returns the substitutions for which the head of a rule matches a goal. The
+	 * substitutions are remembered for goals without variables; for other goals the
+	 * head is matched every time.
+	 *
+	 * @param rule the PG rule
+	 * @param head the head to match if the substitutions are not remembered, e.g. the
+	 *        head of a variant of the rule of which the variables do not clash with
+	 *        the variables of the goal
+	 * @param goal the goal, obtained from {@link #candidates(PGrule)}
+	 * @return the substitutions, which may be modified by the caller
+	 */
+	public ArrayList<SubstList<Term>> substitutions(PGrule rule, Query head, Goal goal)
+	{
+		Entry e = entry(rule);
+		if (e==null || !goal.getVariables().isEmpty()) return goal.possibleSubstitutions(head);
+
+		ArrayList<SubstList<Term>> m = e.matches.get(goal);
+		if (m==null) {
+			// without variables in the goal, the head of a variant equals the head
+			// of the rule
+			m = goal.possibleSubstitutions(rule.getHead());
+			e.matches.put(goal,m);
+		}
+
+		ArrayList<SubstList<Term>> copy = new ArrayList<SubstList<Term>>(m.size());
+		for (SubstList<Term> theta : m) copy.add(theta.clone());
+		return copy;
+	}
+
+	/**
+	 * Returns the entry of a rule, null if its head matches cannot be remembered.
+	 */
+	private Entry entry(PGrule rule)
+	{
+		if (!ENABLED) return null;
+
+		Entry e = entries.get(rule);
+		if (e==null) {
+			e = new Entry(rule.getHead());
+			entries.put(rule,e);
+		}
+		return e.predicates==null ? null : e;
+	}
+
+	/**
+	 * Checks whether a goal contains positive literals of all the predicates of
+	 * positive literals in the head.
+	 */
+	private static boolean mayMatch(Entry e, Goal goal)
+	{
+		for (String p : e.required) {
+			boolean found = false;
+			for (Literal l : goal) {
+				if (l.getSign() && p.equals(GoalMatcher.functor(l.getBody()))) {
+					found = true;
+					break;
+				}
+			}
+			if (!found) return false;
+		}
+		return true;
+	}
+
+	private List<Goal> snapshot()
+	{
+		ArrayList<Goal> goals = new ArrayList<Goal>();
+		for (Goal g : goalbase) goals.add(g);
+		return goals;
+	}
+
+	/**
+	 * The head matches of a rule.
+	 */
+	private static class Entry
+	{
+		// the predicates in the head, and those of its positive literals; null if
+		// the head cannot be matched by the goal matcher or has no positive literal
+		String[] predicates = null;
+		String[] required = null;
+
+		// the goals the head may match, the time these were collected, and the
+		// substitutions for the goals the head has been matched against
+		List<Goal> goals = null;
+		long checked = 0;
+		IdentityHashMap<Goal,ArrayList<SubstList<Term>>> matches = new IdentityHashMap<Goal,ArrayList<SubstList<Term>>>();
+
+		Entry(Query head)
+		{
+			if (!GoalMatcher.supports(head)) return;
+
+			ArrayList<String> all = new ArrayList<String>();
+			ArrayList<String> positive = new ArrayList<String>();
+			if (!collect(head,all,positive) || positive.isEmpty()) return;
+
+			predicates = all.toArray(new String[all.size()]);
+			required = positive.toArray(new String[positive.size()]);
+		}
+
+		/**
+		 * Collects the predicates of a conjunction of literals. Returns false for
+		 * other queries, such as disjunctions.
+		 */
+		private static boolean collect(Query q, ArrayList<String> all, ArrayList<String> positive)
+		{
+			if (q instanceof AndQuery) {
+				AndQuery a = (AndQuery)q;
+				return collect(a.getLeft(),all,positive) && collect(a.getRight(),all,positive);
+			}
+			else if (q instanceof Literal) {
+				Literal l = (Literal)q;
+				String p = GoalMatcher.functor(l.getBody());
+				if (p==null) return false;
+				if (!all.contains(p)) all.add(p);
+				if (l.getSign() && !positive.contains(p)) positive.add(p);
+				return true;
+			}
+			else return false;
+		}
+	}
+}
@@ -0,0 +1,71 @@
+package apapl.beliefinertia;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+
+import apapl.data.Literal;
+
+/**
+ * Interns the predicates of a module to consecutive integer ids, such that sets of
+ * predicates can be stored as bit sets. Dependency sets of rules (see
+ * {@link apapl.program.Rule#dependencies}) and the predicates updated by belief
+ * updates are stored as bit sets, such that whether a belief update affects a rule
+ * is decided by a single intersection.
+ */
+public class PredicateTable
+{
+	private HashMap<String,Integer> ids = new HashMap<String,Integer>();
+
+	/**
+	 * Returns the id of a predicate, assigning a new id if it has none yet.
+	 *
+	 * @param pred the name of the predicate
+	 * @return the id
+	 */
+	public synchronized int id(String pred)
+	{
+		Integer i = ids.get(pred);
+		if (i==null) {
+			i = ids.size();
+			ids.put(pred,i);
+		}
+		return i;
+	}
+
+	/**
+	 * Returns the bit set of a set of predicates.
+	 *
+	 * @param preds the names of the predicates
+	 * @return the bit set
+	 */
+	public BitSet bits(Collection<String> preds)
+	{
+		BitSet b = new BitSet();
+		for (String p : preds) b.set(id(p));
+		return b;
+	}
+
+	/**
+	 * Returns the bit set of the predicates of a list of literals.
+	 *
+	 * @param literals the literals
+	 * @return the bit set
+	 */
+	public BitSet literalBits(Collection<Literal> literals)
+	{
+		BitSet b = new BitSet();
+		for (Literal l : literals) b.set(id(RuleOperations.getPredicate(l)));
+		return b;
+	}
+
+	/**
+	 * Returns the number of predicates that have an id.
+	 *
+	 * @return the number of predicates
+	 */
+	public synchronized int size()
+	{
+		return ids.size();
+	}
+}
@@ -5,6 +5,7 @@ import java.util.HashSet;
 
 import apapl.SubstList;
 import apapl.data.APLFunction;
+import apapl.data.APLIdent;
 import apapl.data.Literal;
 import apapl.data.Query;
 import apapl.data.Term;
@@ -85,8 +86,12 @@ public class RuleOperations {
 	 * @return The predicate as a string
 	 */
 	public static String getPredicate(Literal l) {
-		String s = l.getBody().toString();
-		return getPredicate(s);
+		Term body = l.getBody();
+		if (body instanceof APLFunction && !((APLFunction)body).isInfix())
+			return ((APLFunction)body).getName();
+		if (body instanceof APLIdent)
+			return ((APLIdent)body).getName();
+		return getPredicate(body.toString());
 	}
 	
 	/**
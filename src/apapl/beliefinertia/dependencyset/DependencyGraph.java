@@ -0,0 +1,243 @@
+package apapl.beliefinertia.dependencyset;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+
+import apapl.beliefinertia.RuleOperations;
+
+/**
+ * The dependency graph of the predicates of a belief base. There is an edge from a
+ * predicate to each predicate that occurs in the body of a rule that defines it.
+ * Predicates are identified by their name only (see {@link RuleOperations#getPredicate}),
+ * so the rules of predicates with the same name but a different arity are merged, just
+ * as in {@link InferenceRules}.
+ * <p>
+ * The dependency set of a predicate is the set of predicates it can reach in the graph,
+ * including itself. Predicates that depend on each other recursively share the same
+ * dependency set, so the dependency sets are computed per strongly connected component
+ * of the graph (Tarjan's algorithm) and remembered. When the rules of a predicate
+ * change, only the dependency sets of the predicates that can reach that predicate are
+ * computed again.
+ */
+public class DependencyGraph
+{
+	private HashMap<String,HashSet<String>> edges = new HashMap<String,HashSet<String>>();
+	private HashMap<String,HashSet<String>> reverse = new HashMap<String,HashSet<String>>();
+	private HashSet<String> opaque = new HashSet<String>();
+	private HashMap<String,Component> components = new HashMap<String,Component>();
+
+	// the state of Tarjan's algorithm while components are computed
+	private HashMap<String,Integer> index;
+	private HashMap<String,Integer> lowlink;
+	private LinkedList<String> stack;
+	private HashSet<String> onStack;
+
+	/**
+	 * Sets the predicates in the bodies of the rules that define a predicate,
+	 * replacing those set before.
+	 *
+	 * @param head the name of the predicate
+	 * @param body the names of the predicates in the bodies of its rules
+	 * @param impure true if the rules call goals that are only known at runtime or
+	 *        use impure functions, such that the outcome of the predicate can change
+	 *        without any belief being updated
+	 * @return true if the graph has changed
+	 */
+	public boolean setRules(String head, Collection<String> body, boolean impure)
+	{
+		HashSet<String> old = edges.get(head);
+		if (old!=null && old.size()==body.size() && old.containsAll(body) && opaque.contains(head)==impure)
+			return false;
+
+		invalidate(head);
+		if (old!=null) for (String p : old) reverse.get(p).remove(head);
+
+		HashSet<String> succ = new HashSet<String>(body);
+		edges.put(head,succ);
+		for (String p : succ) {
+			HashSet<String> pred = reverse.get(p);
+			if (pred==null) {
+				pred = new HashSet<String>();
+				reverse.put(p,pred);
+			}
+			pred.add(head);
+		}
+		if (impure) opaque.add(head);
+		else opaque.remove(head);
+		return true;
+	}
+
+	/**
+	 * Adds predicates to the bodies of the rules that define a predicate, keeping
+	 * those set before. A predicate that has been impure stays impure.
+	 *
+	 * @param head the name of the predicate
+	 * @param body the names of the predicates in the bodies of its rules
+	 * @param impure true if the rules are impure, see {@link #setRules}
+	 * @return true if the graph has changed
+	 */
+	public boolean addRules(String head, Collection<String> body, boolean impure)
+	{
+		HashSet<String> all = new HashSet<String>(body);
+		HashSet<String> old = edges.get(head);
+		if (old!=null) all.addAll(old);
+		return setRules(head,all,impure || opaque.contains(head));
+	}
+
+	/**
+	 * Removes the rules of a predicate from the graph.
+	 *
+	 * @param head the name of the predicate
+	 * @return true if the graph has changed
+	 */
+	public boolean removeRules(String head)
+	{
+		HashSet<String> old = edges.get(head);
+		if (old==null) return false;
+
+		invalidate(head);
+		for (String p : old) reverse.get(p).remove(head);
+		edges.remove(head);
+		opaque.remove(head);
+		return true;
+	}
+
+	/**
+	 * Returns the predicates that are defined by rules.
+	 *
+	 * @return the names of the predicates
+	 */
+	public Collection<String> getHeads()
+	{
+		return edges.keySet();
+	}
+
+	/**
+	 * Returns the dependency set of a predicate: the predicate itself and all the
+	 * predicates that occur in the bodies of the rules it depends on. The set must
+	 * not be modified.
+	 *
+	 * @param pred the name of the predicate
+	 * @return the dependency set
+	 */
+	public HashSet<String> dependencySet(String pred)
+	{
+		return component(pred).set;
+	}
+
+	/**
+	 * Returns whether the outcome of a predicate can change without any belief being
+	 * updated, because it depends on a rule that uses impure functions or calls goals
+	 * that are only known at runtime.
+	 *
+	 * @param pred the name of the predicate
+	 * @return true if the predicate is impure
+	 */
+	public boolean isImpure(String pred)
+	{
+		return component(pred).impure;
+	}
+
+	/**
+	 * Returns the component of a predicate, computing it if necessary.
+	 */
+	private Component component(String pred)
+	{
+		Component c = components.get(pred);
+		if (c==null) {
+			index = new HashMap<String,Integer>();
+			lowlink = new HashMap<String,Integer>();
+			stack = new LinkedList<String>();
+			onStack = new HashSet<String>();
+			visit(pred);
+			index = lowlink = null;
+			stack = null;
+			onStack = null;
+			c = components.get(pred);
+		}
+		return c;
+	}
+
+	/**
+	 * Visits a predicate in Tarjan's algorithm. Predicates of which the component is
+	 * known are not visited again.
+	 */
+	private void visit(String p)
+	{
+		int i = index.size();
+		index.put(p,i);
+		lowlink.put(p,i);
+		stack.addFirst(p);
+		onStack.add(p);
+
+		HashSet<String> succ = edges.get(p);
+		if (succ!=null) {
+			for (String q : succ) {
+				if (components.containsKey(q)) continue;
+				if (!index.containsKey(q)) {
+					visit(q);
+					lowlink.put(p,Math.min(lowlink.get(p),lowlink.get(q)));
+				}
+				else if (onStack.contains(q)) lowlink.put(p,Math.min(lowlink.get(p),index.get(q)));
+			}
+		}
+
+		if (lowlink.get(p)!=i) return;
+
+		// p is the root of a component, of which all successors outside the
+		// component have been completed
+		ArrayList<String> members = new ArrayList<String>();
+		String q;
+		do {
+			q = stack.removeFirst();
+			onStack.remove(q);
+			members.add(q);
+		} while (!q.equals(p));
+
+		Component c = new Component();
+		c.set.addAll(members);
+		for (String m : members) {
+			if (opaque.contains(m)) c.impure = true;
+			HashSet<String> s = edges.get(m);
+			if (s==null) continue;
+			for (String r : s) {
+				Component d = components.get(r);
+				if (d==null) continue;
+				c.set.addAll(d.set);
+				if (d.impure) c.impure = true;
+			}
+		}
+		if (RuleOperations.containsImpureSymbol(c.set)) c.impure = true;
+		for (String m : members) components.put(m,c);
+	}
+
+	/**
+	 * Forgets the components of all predicates that can reach a predicate.
+	 */
+	private void invalidate(String pred)
+	{
+		LinkedList<String> todo = new LinkedList<String>();
+		HashSet<String> seen = new HashSet<String>();
+		todo.add(pred);
+		seen.add(pred);
+		while (!todo.isEmpty()) {
+			String p = todo.removeFirst();
+			components.remove(p);
+			HashSet<String> preds = reverse.get(p);
+			if (preds==null) continue;
+			for (String q : preds) if (seen.add(q)) todo.add(q);
+		}
+	}
+
+	/**
+	 * A strongly connected component together with everything it can reach.
+	 */
+	private static class Component
+	{
+		HashSet<String> set = new HashSet<String>();
+		boolean impure = false;
+	}
+}
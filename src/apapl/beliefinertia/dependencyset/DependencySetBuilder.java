@@ -3,6 +3,7 @@ package apapl.beliefinertia.dependencyset;
 import java.util.HashSet;
 
 import apapl.APLModule;
+import apapl.beliefinertia.PredicateTable;
 import apapl.beliefinertia.RuleOperations;
 import apapl.data.Literal;
 import apapl.data.Query;
@@ -17,12 +18,13 @@ import apapl.program.Rule;
  */
 public class DependencySetBuilder 
 {
-	InferenceRules inferenceRules;
-	APLModule m;
+	DependencyGraph graph;
+	PredicateTable predicates;
 	
-	public DependencySetBuilder(InferenceRules rules)
+	public DependencySetBuilder(DependencyGraph graph, PredicateTable predicates)
 	{
-		this.inferenceRules = rules;
+		this.graph = graph;
+		this.predicates = predicates;
 	}
 	
 	/**
@@ -33,23 +35,35 @@ public class DependencySetBuilder
 	public void build(APLModule a) 
 	{
 		for (Rule rule : a.getAllRules())
-		{
-			Query guard = rule.getGuard();
-			rule.dependencySet = dependencySet(guard);
-			
-			// not all rules should participate in inertia, because reserved terms such as
-			// "rand" (generates a random number x s.t. 0 < x < 1) will always have a 
-			// different outcome. we call these rule "unpure" rules
-			if (RuleOperations.containsImpureSymbol(rule.dependencySet))
-				rule.exclude = true;
-		}
+			build(rule);
 	}
 	
 	/**
-	 * Recursively calculate the depdendency set of a query by taking each literal
-	 * in the query and collect all predicates that are in the body of all inference
-	 * rules of which the literal is the head of. Repeat this until the set does not
-	 * longer increase (fixed point).
+	 * Build the dependency set for the guard of a single rule and store it in the rule.
+	 * 
+	 * @param rule
+	 * @return true if the dependency set of the rule has changed
+	 */
+	public boolean build(Rule rule)
+	{
+		Query guard = rule.getGuard();
+		HashSet<String> set = dependencySet(guard);
+		
+		// not all rules should participate in inertia, because reserved terms such as
+		// "rand" (generates a random number x s.t. 0 < x < 1) will always have a 
+		// different outcome. we call these rule "unpure" rules
+		boolean exclude = isImpure(guard);
+		
+		if (set.equals(rule.dependencySet) && exclude==rule.exclude) return false;
+		rule.dependencySet = set;
+		rule.dependencies = predicates.bits(set);
+		rule.exclude = exclude;
+		return true;
+	}
+	
+	/**
+	 * Calculate the depdendency set of a query by taking the union of the dependency
+	 * sets of the predicates of its literals (see {@link DependencyGraph#dependencySet}).
 	 * 
 	 * @param query
 	 * @return
@@ -57,41 +71,23 @@ public class DependencySetBuilder
 	public HashSet<String> dependencySet(Query query) {
 		HashSet<String> set = new HashSet<String>();
 		
-		for (Literal lit : query.toLiterals()) {
-			String pred = RuleOperations.getPredicate(lit);
-			set.addAll(dependencySet(pred, inferenceRules));
-		}
+		for (Literal lit : query.toLiterals())
+			set.addAll(graph.dependencySet(RuleOperations.getPredicate(lit)));
 		
 		return set;
 	}
 	
 	/**
-	 * Calculate the dependency set of a predicate and use the inference rules for this.
+	 * Returns true if the outcome of the query can change without a belief update,
+	 * because one of its predicates depends on an impure function.
 	 * 
-	 * @param pred
-	 * @param beliefbase
+	 * @param query
 	 * @return
 	 */
-   public HashSet<String> dependencySet(String pred, InferenceRules inferenceRules) 
-   {
-    	HashSet<String> retSet = new HashSet<String>();
-    	InferenceRules infCopy = inferenceRules.clone();
-    	
-    	retSet.add(pred);
+	public boolean isImpure(Query query) {
+		for (Literal lit : query.toLiterals())
+			if (graph.isImpure(RuleOperations.getPredicate(lit))) return true;
 		
-    	if (infCopy.containsKey(pred)) 
-    	{    	
-    		// add all predicates that are in the base of this rule
-			HashSet<String> body = infCopy.get(pred);
-			retSet.addAll(body);
-			infCopy.remove(pred);
-			for (String predBody : body) 
-			{
-				HashSet<String> depp = dependencySet(predBody, infCopy);
-				retSet.addAll(depp);
-			}
-	
-    	}
-    	return retSet;
-    }
+		return false;
+	}
 }
@@ -1,6 +1,7 @@
 package apapl.beliefinertia.ruleselectors;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import apapl.APLModule;
 import apapl.NoRuleException;
@@ -10,7 +11,6 @@ import apapl.beliefinertia.RuleOperations;
 import apapl.benchmarking.APLBenchmarkParam;
 import apapl.benchmarking.APLBenchmarker;
 import apapl.data.APLFunction;
-import apapl.data.Query;
 import apapl.data.Term;
 import apapl.program.Beliefbase;
 import apapl.program.PCrule;
@@ -31,21 +31,23 @@ public class PCruleSelector {
 	 * @param a the event/message/abstract action
 	 * @param unfreshVars the list variables that cannot be used anymore
 	 * @param theta the substitution for applying the rule
-	 * @param rules all the pc rules in this APLModule
+	 * @param rules the pc rules in this APLModule that may match <code>a</code>
 	 * @return the selected PC-rule
 	 * @throws NoRuleException thrown if no rule is specified for <code>a</code>
 	 */
 	public static PCrule selectPCrule(Beliefbase beliefbase, APLFunction a, 
-			ArrayList<String> unfreshVars, SubstList<Term> theta, ArrayList<PCrule> rules, APLModule m )
+			ArrayList<String> unfreshVars, SubstList<Term> theta, List<PCrule> rules, APLModule m )
 	throws NoRuleException
 	{
+		// rules that depend on beliefs updated since the last selection lose their inertia
+		if (m.getBeliefInertia()!=null) m.getBeliefInertia().activateRules();
+		
 		boolean norulefound = true;
 		boolean inertia;
 		for (PCrule pcrule : rules) {
 			SubstList<Term> theta2 = new SubstList<Term>();
-			PCrule variant = pcrule.getVariant(unfreshVars);
-			Query guard = variant.getGuard().clone();
-			APLFunction head = variant.getHead();
+			ArrayList<ArrayList<String>> renaming = new ArrayList<ArrayList<String>>();
+			APLFunction head = pcrule.getHeadVariant(unfreshVars,renaming);
 			
 			if (Unifier.unify(head,a.clone(),theta2)) {
 				// we are going to evaluate the rule, so we can reset the inertia which means that we
@@ -63,10 +65,10 @@ public class PCruleSelector {
 				if (!inertia || (pcrule.connected && !sameSubHead)) {
 					norulefound = false;
 					
-					guard.applySubstitution(theta2);
-					
 					APLBenchmarker.startTiming(m, APLBenchmarkParam.BEL_QUERY);
-					boolean beliefQuery = beliefbase.doQuery(guard,theta2);
+					APLBenchmarker.startTiming(m, APLBenchmarkParam.GUARD_QUERY);
+					boolean beliefQuery = beliefbase.doQuery(pcrule.getGuardTemplate(),renaming,theta2);
+					APLBenchmarker.stopTiming(m, APLBenchmarkParam.GUARD_QUERY);
 					APLBenchmarker.stopTiming(m, APLBenchmarkParam.BEL_QUERY);
 					
 					if (beliefQuery) 
@@ -77,7 +79,7 @@ public class PCruleSelector {
 						
 						APLBenchmarker.stopTiming(m, APLBenchmarkParam.PCRULE);
 						
-						return variant;
+						return pcrule.getVariant(unfreshVars);
 					} else {
 						pcrule.ruleApplied = false;
 					}
@@ -87,7 +89,7 @@ public class PCruleSelector {
 					
 					APLBenchmarker.stopTiming(m, APLBenchmarkParam.PCRULE);
 					
-					return variant;
+					return pcrule.getVariant(unfreshVars);
 				}
 			}
 		}
@@ -4,6 +4,7 @@ import java.util.ArrayList;
 
 import apapl.APLModule;
 import apapl.SubstList;
+import apapl.beliefinertia.GoalInertia;
 import apapl.benchmarking.APLBenchmarkParam;
 import apapl.benchmarking.APLBenchmarker;
 import apapl.data.Goal;
@@ -39,6 +40,9 @@ public class PGruleSelector
 	{
 		ArrayList<PlanSeq> plans = new ArrayList<PlanSeq>();
 		boolean inertia;
+		
+		// rules that depend on beliefs updated since the last selection lose their inertia
+		if (m.getBeliefInertia()!=null) m.getBeliefInertia().activateRules();
 			
 		// for each rule
 		for (PGrule pgrule : rules)
@@ -177,10 +181,10 @@ public class PGruleSelector
 		return ret;
 	}
 	
-	private static ArrayList<SubstList<Term>> benchmarkPossibleSubs(Query query, APLModule m, Goal goal) 
+	private static ArrayList<SubstList<Term>> benchmarkPossibleSubs(GoalInertia inertia, PGrule rule, Query query, APLModule m, Goal goal) 
 	{
 		APLBenchmarker.startTiming(m, APLBenchmarkParam.GOAL_QUERY);
-		ArrayList<SubstList<Term>> ret = goal.possibleSubstitutions(query);
+		ArrayList<SubstList<Term>> ret = inertia.substitutions(rule, query, goal);
 		APLBenchmarker.stopTiming(m, APLBenchmarkParam.GOAL_QUERY);
 		
 		return ret;
@@ -219,47 +223,58 @@ public class PGruleSelector
 	
 	private static boolean testHead(PGrule pgrule, Goalbase goalbase, APLModule m)
 	{
-		SubstList<Term> theta1;
-		
-		if ((theta1 = benchmarkGBquery(pgrule.getHead(), m, goalbase)) != null) {
-			pgrule.theta1 = theta1;
-			
-			// overwrite substitutions that have possibly changed
-			pgrule.theta2.putAll(theta1);
-			return true;
+		// the first substitution for the first goal the head matches, as
+		// Goalbase.testGoal would return
+		GoalInertia inertia = goalbase.getGoalInertia();
+		for (Goal goal : inertia.candidates(pgrule)) {
+			ArrayList<SubstList<Term>> substs = benchmarkPossibleSubs(inertia, pgrule, pgrule.getHead(), m, goal);
+			if (!substs.isEmpty()) {
+				SubstList<Term> theta1 = substs.get(0);
+				pgrule.theta1 = theta1;
+				
+				// overwrite substitutions that have possibly changed
+				pgrule.theta2.putAll(theta1);
+				return true;
+			}
 		}
 		return false;
 	}
 	
 	private static boolean testHeadAndGuard(PGrule pgrule, Beliefbase beliefbase, Goalbase goalbase, Planbase planbase, APLModule m) 
 	{
-		for (Goal goal : goalbase)
+		GoalInertia inertia = goalbase.getGoalInertia();
+		for (Goal goal : inertia.candidates(pgrule))
 		{
+			// the body of the rule is not needed to test the head and guard, the plan
+			// is built from the rule itself
 			ArrayList<SubstList<Term>> substs;
-			PGrule variant = pgrule.getVariant(goal.getVariables());
-			substs = benchmarkPossibleSubs(variant.getHead(), m, goal);
+			Query head = pgrule.getHeadVariant();
+			Query guard = pgrule.getGuard().clone();
+			substs = benchmarkPossibleSubs(inertia, pgrule, head, m, goal);
 		
 			// for all possible substitutions of the head of the rule, try to match
 			// it with the guard of the rule
 			for (SubstList<Term> theta1 : substs)
 			{
-				variant.applySubstitution(theta1);
+				head.applySubstitution(theta1);
+				guard.applySubstitution(theta1);
 				// if the goal cannot be entailed from the belief base
 				// and we are not working for the same goal already
 				// and the guard is satisfied
 				
 				// ** note: we separate the test for the head and the guard, because we only should reset the
 				//          inertia if the guard has been evaluated
-				if (!benchmarkBBquery(variant.getHead(), theta1, m, beliefbase) 
+				if (!benchmarkBBquery(head, theta1, m, beliefbase) 
 						&& !planbase.sameRuleActiveForSameGoal( pgrule, theta1 ))
 				{
 					// we will now query the guard, so reset inertia
 					pgrule.inertia = true;
 					
-					if (testGuard(variant, beliefbase, theta1, false, m)) {
+					SubstList<Term> theta2 = theta1.clone();
+					if (benchmarkBBquery(guard, theta2, m, beliefbase)) {
 						pgrule.theta1 = theta1;
-						pgrule.ruleApplied = variant.ruleApplied;
-						pgrule.theta2 = variant.theta2;
+						pgrule.ruleApplied = true;
+						pgrule.theta2 = theta2;
 						return true;
 					}
 				}
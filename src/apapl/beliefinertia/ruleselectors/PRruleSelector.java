@@ -8,7 +8,6 @@ import apapl.SubstList;
 import apapl.beliefinertia.RuleOperations;
 import apapl.benchmarking.APLBenchmarkParam;
 import apapl.benchmarking.APLBenchmarker;
-import apapl.data.Query;
 import apapl.data.Term;
 import apapl.deliberation.ProcessIEventsResult;
 import apapl.plans.PlanSeq;
@@ -39,20 +38,23 @@ public class PRruleSelector {
 								  SubstList<PlanSeq> thetaP, ProcessIEventsResult r, APLModule m
 								)
 	{
+		// rules that depend on beliefs updated since the last selection lose their inertia
+		if (m.getBeliefInertia()!=null) m.getBeliefInertia().activateRules();
+		
 		PlanSeq rest = new PlanSeq();
 		
-		PRrule variant = ((PRrule)rule).clone();
 		PlanSeq plancopy = plan.clone();
 		
 		if (ignoreChunks) plancopy.unChunk();
 		
-		// Make rule fresh
+		// Make the head and guard of the rule fresh, the body is only copied when the
+		// rule is applied
 		ArrayList<String> unfresh = plan.getVariables();
-		ArrayList<String> own = ((PRrule)rule).getBody().getVariables();
+		ArrayList<String> own = rule.getBody().getVariables();
 		ArrayList<ArrayList<String>> changes = new ArrayList<ArrayList<String>>();
-		variant.freshVars(unfresh,own,changes);
+		PlanSeq head = rule.getHeadVariant(unfresh,own,changes);
 		
-		PlanUnifier pu = new PlanUnifier(variant.getHead(),plancopy);
+		PlanUnifier pu = new PlanUnifier(head,plancopy);
 		if (pu.unify(theta,thetaP,rest,ignoreChunks))
 		{
 			// we are going to evaluate the rule, so we can reset the inertia which means that we
@@ -72,11 +74,10 @@ public class PRruleSelector {
 			
 			if (!inertia || (rule.connected && !sameSubHead)) 
 			{
-				Query q = variant.getGuard();
-				q.applySubstitution(theta);
-				
 				APLBenchmarker.startTiming(m, APLBenchmarkParam.BEL_QUERY);
-				boolean beliefQuery = beliefs.doQuery(q,theta);
+				APLBenchmarker.startTiming(m, APLBenchmarkParam.GUARD_QUERY);
+				boolean beliefQuery = beliefs.doQuery(rule.getGuardTemplate(),changes,theta);
+				APLBenchmarker.stopTiming(m, APLBenchmarkParam.GUARD_QUERY);
 				APLBenchmarker.stopTiming(m, APLBenchmarkParam.BEL_QUERY);
 				
 				if (beliefQuery)
@@ -84,7 +85,7 @@ public class PRruleSelector {
 					rule.ruleApplied = true;
 					rule.theta2 = theta.clone();
 					
-					PlanSeq p = buildPlan(rule, variant, theta, thetaP, changes, false);
+					PlanSeq p = buildPlan(rule.getBodyVariant(unfresh,own,changes), rule, theta, thetaP, changes, false);
 					r.addApplied( rule, theta, thetaP );
 					updatePlan(plan, p, rest);
 	
@@ -95,7 +96,7 @@ public class PRruleSelector {
 				}
 			} else if (rule.ruleApplied) 
 			{
-				PlanSeq p = buildPlan(rule, variant, theta, thetaP, changes, true);
+				PlanSeq p = buildPlan(rule.getBodyVariant(unfresh,own,changes), rule, theta, thetaP, changes, true);
 				r.addApplied( rule, theta, thetaP );
 				updatePlan(plan, p, rest);
 				return true;
@@ -113,10 +114,9 @@ public class PRruleSelector {
 		plan.addLast(rest);
 	}
 
-	private static PlanSeq buildPlan(PRrule rule, PRrule variant, SubstList<Term> theta,
+	private static PlanSeq buildPlan(PlanSeq p, PRrule rule, SubstList<Term> theta,
 			SubstList<PlanSeq> thetaP, ArrayList<ArrayList<String>> changes,
 			boolean b) {
-		PlanSeq p = variant.getBody();
 		p.applyPlanSubstitution(thetaP);
 		theta.applyChanges(changes);
 		
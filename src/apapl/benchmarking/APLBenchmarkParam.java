@@ -67,6 +67,7 @@ public class APLBenchmarkParam
 	 */
 	public static final String DELIB_STEP = "deliberation step";
 	public static final String BEL_QUERY = "belief query";
+	public static final String GUARD_QUERY = "guard query";
 	public static final String BEL_UPD = "belief update";
 	public static final String GOAL_QUERY = "goal query";
 	public static final String GOAL_UPD = "goal update";
@@ -87,7 +88,7 @@ public class APLBenchmarkParam
 	/**
 	 * Operations array (see description above)
 	 */
-	protected static final String OP_ARRAY[] = { DELIB_STEP, BEL_QUERY, BEL_UPD, GOAL_QUERY, GOAL_UPD, PGRULE/*, PCRULE,  PRRULE*/ };
+	protected static final String OP_ARRAY[] = { DELIB_STEP, BEL_QUERY, GUARD_QUERY, BEL_UPD, GOAL_QUERY, GOAL_UPD, PGRULE/*, PCRULE,  PRRULE*/ };
 	
 
 	/**
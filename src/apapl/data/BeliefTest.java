@@ -62,9 +62,11 @@ public class BeliefTest extends Test
 		
 		SolutionIterator solutions = bb.doTest(query);
 		if (next == null) {
-			return solutions.next();
+			SubstList<Term> solution = solutions.next();
+			solutions.close();
+			return solution;
 		}
-		else {
+		else try {
 			for (SubstList<Term> solution : solutions) {
 				if (solution == null) 
 					return null;
@@ -77,6 +79,9 @@ public class BeliefTest extends Test
 				}
 			}
 		}
+		finally {
+			solutions.close();
+		}
 		return null;
 	}
 	
@@ -1,11 +1,13 @@
 package apapl.data;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 
+import apapl.GoalMatcher;
 import apapl.Prolog;
+import apapl.PrologPool;
 import apapl.SolutionIterator;
 import apapl.SubstList;
 import apapl.UnboundedVarException;
@@ -20,6 +22,11 @@ public class Goal implements Iterable<Literal>
 {
 	private LinkedList<Literal> goal;
 	
+	// the sorted string representations of the literals and the canonical key, 
+	// computed when first needed and discarded when the goal is modified
+	private String[] sorted = null;
+	private String key = null;
+	
 	/**
 	 * Constructs a new empty goal.
 	 */
@@ -46,6 +53,7 @@ public class Goal implements Iterable<Literal>
 	public void addLiteral(Literal l)
 	{
 		goal.add(l);
+		modified();
 	}
 	
 	/**
@@ -65,15 +73,28 @@ public class Goal implements Iterable<Literal>
 	 * @return the list of possible substitutions
 	 */
 	public ArrayList<SubstList<Term>> possibleSubstitutions(Query query)
-	{		
-		ArrayList<SubstList<Term>> solutionsList = new ArrayList<SubstList<Term>>();
-		Prolog prolog = new Prolog();
-		for (Literal l : goal) prolog.addPredicate(l.toPrologString());
+	{
+		return possibleSubstitutions(query,-1);
+	}
+	
+	/**
+	 * Performs a query on this goal and returns at most <code>max</code> possible
+	 * substitutions.
+	 * 
+	 * @param query the query to be performed
+	 * @param max the maximum number of substitutions, a negative number for all
+	 * @return the list of possible substitutions
+	 */
+	public ArrayList<SubstList<Term>> possibleSubstitutions(Query query, int max)
+	{
+		if (GoalMatcher.supports(query)) return GoalMatcher.solve(this,query,max);
 		
-		SolutionIterator solutions = prolog.doTest(query);		
-		for(SubstList<Term> term: solutions) {
-			solutionsList.add(term);
+		ArrayList<SubstList<Term>> solutionsList = new ArrayList<SubstList<Term>>();
+		SolutionIterator solutions = prologTest(query);
+		while ((max<0 || solutionsList.size()<max) && solutions.hasNext()) {
+			solutionsList.add(solutions.next());
 		}
+		solutions.close();
 				
 		return solutionsList;
 	}
@@ -86,10 +107,23 @@ public class Goal implements Iterable<Literal>
 	 */
 	public SolutionIterator doTest(Query query)
 	{
-		Prolog prolog = new Prolog();
+		if (GoalMatcher.supports(query)) return new SolutionIterator(GoalMatcher.solve(this,query,-1));
+		else return prologTest(query);
+	}
+	
+	/**
+	 * Performs a test on this goal by asserting its literals to a scratch Prolog engine.
+	 * Only used for queries that cannot be solved by the {@link apapl.GoalMatcher}, 
+	 * i.e. queries that refer to Prolog built-in predicates.
+	 * 
+	 * @param query the query to perform on this goal
+	 * @return the possible solutions
+	 */
+	private SolutionIterator prologTest(Query query)
+	{
+		Prolog prolog = PrologPool.acquire();
 		for (Literal l : goal) prolog.addPredicate(l.toPrologString());
-		SolutionIterator solutions = prolog.doTest(query);
-		return solutions;
+		return PrologPool.doTest(prolog,query);
 	}
 	
 	/**
@@ -109,20 +143,73 @@ public class Goal implements Iterable<Literal>
 	 */
 	public boolean equals(Goal goal)
 	{
-		LinkedList<Literal> ga = new LinkedList<Literal>();
-		LinkedList<Literal> gb = new LinkedList<Literal>();
-				
-		for (Literal l : goal) ga.add(l.clone());
-		for (Literal l : this) gb.add(l.clone());
-		
-		if (ga.size()!=gb.size()) return false;
-		
-		Collections.sort(ga,GoalCompare.INSTANCE);
-		Collections.sort(gb,GoalCompare.INSTANCE);
+		return getKey().equals(goal.getKey());
+	}
+	
+	/**
+	 * Returns the string representations of the literals of this goal in the order
+	 * of {@link GoalCompare}. Two goals are equal if these are equal.
+	 * 
+	 * @return the sorted literals, must not be modified
+	 */
+	public String[] getSortedLiterals()
+	{
+		if (sorted==null) {
+			String[] a = new String[goal.size()];
+			int i = 0;
+			for (Literal l : goal) a[i++] = l.toString();
+			Arrays.sort(a);
+			sorted = a;
+		}
+		return sorted;
+	}
+	
+	/**
+	 * Returns a key that identifies this goal regardless of the order of its literals.
+	 * Two goals are equal if and only if their keys are equal.
+	 * 
+	 * @return the canonical key
+	 */
+	public String getKey()
+	{
+		if (key==null) {
+			StringBuilder b = new StringBuilder();
+			for (String l : getSortedLiterals()) b.append(l).append('\0');
+			key = b.toString();
+		}
+		return key;
+	}
+	
+	/**
+	 * Checks whether every literal of this goal occurs in another goal, i.e. whether
+	 * this goal is a subgoal of the other goal.
+	 * 
+	 * @param goal the possible supergoal
+	 * @return true if this goal is a subgoal of the goal, false otherwise
+	 */
+	public boolean isSubGoalOf(Goal goal)
+	{
+		String[] a = getSortedLiterals();
+		String[] b = goal.getSortedLiterals();
+		if (a.length>b.length) return false;
 		
-		for (int i=0; i<ga.size(); i++)
-			if (!ga.get(i).toString().equals(gb.get(i).toString())) return false;
-		return true;
+		int i = 0;
+		int j = 0;
+		while (i<b.length) {
+			if (j>=a.length) return true;
+			else if (a[j].equals(b[i])) {i++; j++;}
+			else i++;
+		}
+		return (j==a.length);
+	}
+	
+	/**
+	 * Discards the keys of this goal after it has been modified.
+	 */
+	private void modified()
+	{
+		sorted = null;
+		key = null;
 	}
 	
 	/**
@@ -133,6 +220,7 @@ public class Goal implements Iterable<Literal>
 	public void removeLiteral(Literal l)
 	{
 		goal.remove(l);
+		modified();
 	}
 	
 	/**
@@ -143,6 +231,7 @@ public class Goal implements Iterable<Literal>
 	public void applySubstitution(SubstList<Term> theta)
 	{
 		for (Literal l : goal) l.applySubstitution(theta);
+		modified();
 	}
 	
 	/**
@@ -151,6 +240,7 @@ public class Goal implements Iterable<Literal>
 	public void evaluate()
 	{
 		for (Literal l : goal) l.evaluate();
+		modified();
 	}
 	
 	/**
@@ -204,6 +294,7 @@ public class Goal implements Iterable<Literal>
 	public void freshVars(ArrayList<String> unfresh, ArrayList<String> own, ArrayList<ArrayList<String>> changes)
 	{
 		for (Literal l : goal) l.freshVars(unfresh,own,changes);
+		modified();
 	}
 	
 	/**
@@ -290,5 +381,6 @@ public class Goal implements Iterable<Literal>
 	public void unvar() throws UnboundedVarException
 	{
 		for (Literal l : goal) l.unvar();
+		modified();
 	}
 }
@@ -68,11 +68,12 @@ public class GoalTest extends Test
 		SolutionIterator solutions = gb.doTest(query);
 		if (next==null) {
 			SubstList<Term> ret = solutions.next();
+			solutions.close();
 			
 			APLBenchmarker.stopTiming(testedModule, APLBenchmarkParam.GOAL_QUERY);
 			return ret;
 		}
-		else {
+		else try {
 			for (SubstList<Term> solution : solutions) {
 				if (solution==null) {
 					APLBenchmarker.stopTiming(testedModule, APLBenchmarkParam.GOAL_QUERY);
@@ -88,6 +89,9 @@ public class GoalTest extends Test
 				}
 			}
 		}
+		finally {
+			solutions.close();
+		}
 		APLBenchmarker.stopTiming(testedModule, APLBenchmarkParam.GOAL_QUERY);
 		return null;
 	}
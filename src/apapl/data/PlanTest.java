@@ -69,9 +69,11 @@ public class PlanTest extends Test
         
         SolutionIterator solutions = pb.doTest(query);
         if (next == null) {
-            return solutions.next();
+            SubstList<Term> solution = solutions.next();
+            solutions.close();
+            return solution;
         }
-        else {
+        else try {
             for (SubstList<Term> solution : solutions) {
                 if (solution == null) 
                     return null;
@@ -84,6 +86,9 @@ public class PlanTest extends Test
                 }
             }
         }
+        finally {
+            solutions.close();
+        }
         return null;
         
 		
@@ -144,4 +149,4 @@ public class PlanTest extends Test
 	{
 		return toString();
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
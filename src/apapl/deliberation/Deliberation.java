@@ -2,6 +2,7 @@ package apapl.deliberation;
 
 import java.util.ArrayList;
 import java.util.ListIterator;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import apapl.APLModule;
 import apapl.ModuleChangeListener;
@@ -13,7 +14,7 @@ import apapl.benchmarking.APLBenchmarker;
  */
 public class Deliberation implements Cloneable
 {
-	private ArrayList<ModuleChangeListener> listeners;
+	private CopyOnWriteArrayList<ModuleChangeListener> listeners;
 	private ArrayList<DeliberationStep> cycle;
 	private ListIterator<DeliberationStep>  current; 
 
@@ -26,7 +27,7 @@ public class Deliberation implements Cloneable
 	 */
 	public Deliberation()
 	{		
-		listeners = new ArrayList<ModuleChangeListener>();
+		listeners = new CopyOnWriteArrayList<ModuleChangeListener>();
 
 	    cycle = new ArrayList<DeliberationStep>();
 	    
@@ -40,7 +41,7 @@ public class Deliberation implements Cloneable
 						ArrayList<DeliberationStep> cycle,
 						ListIterator<DeliberationStep> current) {
 		super();
-		this.listeners = new ArrayList<ModuleChangeListener>();
+		this.listeners = new CopyOnWriteArrayList<ModuleChangeListener>();
 		this.cycle = new ArrayList<DeliberationStep>(cycle);
 		this.current = this.cycle.listIterator();
 		
@@ -102,31 +103,38 @@ public class Deliberation implements Cloneable
 	 * 
 	 * @param listener the object interested in the change
 	 */
-	public synchronized void addModuleChangeListener(ModuleChangeListener listener)
+	public void addModuleChangeListener(ModuleChangeListener listener)
 	{
 		listeners.add(listener);
 	}
 
 	/**
 	 * Notify all interested listeners of a change of the module's mental state.
+	 * The listeners are called in the thread of the module; listeners that take
+	 * time should be subscribed to an {@link apapl.EventBus} instead.
 	 * 
 	 * @param module the module that changed
 	 * @param result the specific result of this deliberation step.
 	 */
 	private void notifyListeners( APLModule module, DeliberationResult result )
 	{
-		// Create a local copy to allow thread safe access.
-		ArrayList<ModuleChangeListener> l;
-		synchronized(this)
-		{
-			l = new ArrayList<ModuleChangeListener>(listeners);
-		}
-		
-		for(ModuleChangeListener acl : l)
+		// The list is copied when a listener is added, not on every step
+		for(ModuleChangeListener acl : listeners)
 		{ acl.moduleChanged( module, result );
 		}
 	}
 	
+	/**
+	 * Returns whether the next step is the first step of the deliberation cycle, i.e.
+	 * whether a complete cycle has been performed.
+	 * 
+	 * @return true if the next step starts a new cycle
+	 */
+	public synchronized boolean atCycleStart()
+	{
+		return current.nextIndex() == 0;
+	}
+	
 	/**
 	 * Resets the deliberation cycle. 
 	 * The consequence of calling this method is that the next deliberation step will be 'Apply PG-Rules'.
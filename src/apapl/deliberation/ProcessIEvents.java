@@ -12,7 +12,6 @@ import apapl.beliefinertia.RuleOperations;
 import apapl.beliefinertia.ruleselectors.PRruleSelector;
 import apapl.benchmarking.APLBenchmarkParam;
 import apapl.benchmarking.APLBenchmarker;
-import apapl.data.Query;
 import apapl.data.Term;
 import apapl.plans.PlanSeq;
 import apapl.program.Beliefbase;
@@ -98,29 +97,28 @@ public class ProcessIEvents implements DeliberationStep
 		
 		PlanSeq rest = new PlanSeq();
 		
-		PRrule variant = ((PRrule)rule).clone();
 		PlanSeq plancopy = plan.clone();
 		
 		if (ignoreChunks) plancopy.unChunk();
 		
-		// Make rule fresh
+		// Make the head and guard of the rule fresh, the body is only copied when the
+		// rule is applied
 		ArrayList<String> unfresh = plan.getVariables();
-		ArrayList<String> own = ((PRrule)rule).getBody().getVariables();
+		ArrayList<String> own = rule.getBody().getVariables();
 		ArrayList<ArrayList<String>> changes = new ArrayList<ArrayList<String>>();
-		variant.freshVars(unfresh,own,changes);
+		PlanSeq head = rule.getHeadVariant(unfresh,own,changes);
 		
-		PlanUnifier pu = new PlanUnifier(variant.getHead(),plancopy);
+		PlanUnifier pu = new PlanUnifier(head,plancopy);
 		if (pu.unify(theta,thetaP,rest,ignoreChunks))
 		{
-			Query q = variant.getGuard();
-			q.applySubstitution(theta);
-			
 			APLBenchmarker.startTiming(m, APLBenchmarkParam.BEL_QUERY);
-			boolean beliefQuery = beliefs.doQuery(q,theta);
+			APLBenchmarker.startTiming(m, APLBenchmarkParam.GUARD_QUERY);
+			boolean beliefQuery = beliefs.doQuery(rule.getGuardTemplate(),changes,theta);
+			APLBenchmarker.stopTiming(m, APLBenchmarkParam.GUARD_QUERY);
 			APLBenchmarker.stopTiming(m, APLBenchmarkParam.BEL_QUERY);
 			
 			if (beliefQuery)
-			{ PlanSeq p = variant.getBody();
+			{ PlanSeq p = rule.getBodyVariant(unfresh,own,changes);
 				p.applyPlanSubstitution(thetaP);
 				theta.applyChanges(changes);
 				p.applySubstitution(theta);
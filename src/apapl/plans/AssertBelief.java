@@ -1,7 +1,7 @@
 package apapl.plans;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.BitSet;
 
 import apapl.APLModule;
 import apapl.SubstList;
@@ -13,7 +13,6 @@ import apapl.data.Literal;
 import apapl.data.Term;
 import apapl.program.Beliefbase;
 import apapl.program.Goalbase;
-import apapl.program.Rule;
 
 /**
  * AssertBelief is a 2APL plan that directly adds or removes a single literal from the beliefbase of the executing agent.
@@ -33,8 +32,8 @@ public class AssertBelief extends Plan {
 	 * @author Marc van Zee (marcvanzee@gmail.com), Utrecht University
 	 */
 	
-	// All rules that are possibly affected by this belief update, derived from atomClosure
-	private LinkedList<Rule> relevantRules = new LinkedList<Rule>();
+	// The ids of the predicates updated by this belief update, see apapl.beliefinertia.PredicateTable
+	private BitSet updatedPredicates = new BitSet();
 	
 	/**
 	 * Constructs a new belief update action.
@@ -70,7 +69,11 @@ public class AssertBelief extends Plan {
 		goalbase.removeReachedGoals(beliefbase);
 		APLBenchmarker.stopTiming(module, APLBenchmarkParam.GOAL_UPD);
 		
-		setInertiaFlags();
+		BeliefInertiaModule inertia = module.getBeliefInertia();
+		if (inertia!=null) {
+			inertia.update();
+			inertia.beliefsUpdated(updatedPredicates);
+		}
 		
 		return new PlanResult(this, PlanResult.SUCCEEDED);
 	}
@@ -116,7 +119,7 @@ public class AssertBelief extends Plan {
 	public AssertBelief clone()
 	{
 		AssertBelief copy = new AssertBelief(literal.clone());
-		copy.addRelevantRules(relevantRules);
+		copy.setUpdatedPredicates(updatedPredicates);
 		return copy;
 	}
 	
@@ -140,17 +143,16 @@ public class AssertBelief extends Plan {
 
 	
 	/**
-	 * Updates the updateBelief flag of all rules that can possibly be affected by this rule
-	 * For belief caching
+	 * Returns the predicates updated by this belief update. The rules of which the 
+	 * dependency set contains one of these lose their inertia when it is executed.
 	 * 
+	 * @return the ids of the predicates
 	 */
-	public void setInertiaFlags() {
-		for (Rule r : this.relevantRules) {
-			r.inertia = false;
-		}
+	public BitSet getUpdatedPredicates() {
+		return updatedPredicates;
 	}
 	
-	public void addRelevantRules(LinkedList<Rule> rules) {
-		relevantRules.addAll(rules);
+	public void setUpdatedPredicates(BitSet predicates) {
+		this.updatedPredicates = predicates;
 	}
 }
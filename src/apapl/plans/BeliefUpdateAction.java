@@ -6,6 +6,7 @@ import java.util.LinkedList;
 import apapl.APLModule;
 import apapl.NoRuleException;
 import apapl.SubstList;
+import apapl.beliefinertia.BeliefInertiaModule;
 import apapl.benchmarking.APLBenchmarkParam;
 import apapl.benchmarking.APLBenchmarker;
 import apapl.data.APLFunction;
@@ -61,7 +62,11 @@ public class BeliefUpdateAction extends Plan
 			APLBenchmarker.stopTiming(module, APLBenchmarkParam.BEL_UPD);
 		}
 		
-		c.setBeliefFlags();
+		BeliefInertiaModule inertia = module.getBeliefInertia();
+		if (inertia!=null) {
+			inertia.update();
+			inertia.beliefsUpdated(c.getUpdatedPredicates());
+		}
 		
 		parent.removeFirst();
 		
@@ -95,6 +95,7 @@ public class ExternalAction extends Plan {
         try {
 
         	String agentName = module.getAgentName();
+        	module.awaitExternalActionTurn();
             return e.performAction(agentName, action);
 
         } catch (ActException e1) {
@@ -92,6 +92,8 @@ public class GoalAction extends ModulePlan
 		
 		APLBenchmarker.stopTiming(module, APLBenchmarkParam.GOAL_QUERY);
 		
+		if (r == PlanResult.SUCCEEDED && updatedModule != module) updatedModule.wakeUp();
+		
 		return new PlanResult(this, r) ;
 	}
 	
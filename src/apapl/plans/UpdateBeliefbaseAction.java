@@ -61,6 +61,8 @@ public class UpdateBeliefbaseAction extends ModulePlan
 					literal.unvar();
 					affectedModule.getBeliefbase().assertBelief(literal);
 				}
+				if (affectedModule != module)
+					affectedModule.wakeUp();
 			} else
 			{
 				throw (new ModuleAccessException(moduleId,
@@ -1,9 +1,10 @@
 package apapl.program;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.BitSet;
 
 import apapl.APLModule;
+import apapl.QueryTemplate;
 import apapl.beliefinertia.BeliefInertiaModule;
 import apapl.data.APLFunction;
 import apapl.data.Literal;
@@ -27,8 +28,8 @@ public class BeliefUpdate extends Rule
 	 * @author Marc van Zee (marcvanzee@gmail.com), Utrecht University
 	 */
 	
-	// All rules that are possibly affected by this belief update, derived from atomClosure
-	private LinkedList<Rule> relevantRules = new LinkedList<Rule>();
+	// The ids of the predicates updated by this belief update, see apapl.beliefinertia.PredicateTable
+	private BitSet updatedPredicates = new BitSet();
 	
 	/**
 	 * Constructs a belief update.
@@ -45,35 +46,35 @@ public class BeliefUpdate extends Rule
 	}
 	
 	/**
-	 * Add rules which are affected by this update
+	 * Returns the predicates updated by this belief update. The rules of which the 
+	 * dependency set contains one of these lose their inertia when it is executed.
 	 * 
-	 * @author Marc van Zee (marcvanzee@gmail.com), Utrecht University
+	 * @return the ids of the predicates
 	 */
-	public void addRelevantRules(LinkedList<Rule> rules) {
-		relevantRules.addAll(rules);
+	public BitSet getUpdatedPredicates() {
+		return updatedPredicates;
 	}
 	
 	/**
-	 * Updates the updateBelief flag of all rules that can possibly be affected by this rule
-	 * For belief caching
-	 * 
-	 * @author Marc van Zee (marcvanzee@gmail.com), Utrecht University
+	 * Returns the pre-condition of this belief update.
 	 * 
+	 * @return teh pre-condition
 	 */
-	public void setBeliefFlags() {
-		for (Rule r : this.relevantRules) {
-			r.inertia = false;
-		}
+	public Query getPre()
+	{
+		return pre;
 	}
 	
 	/**
-	 * Returns the pre-condition of this belief update.
+	 * Returns the compiled pre-condition of this belief update. The pre-condition is
+	 * compiled the first time it is requested and shared by all clones.
 	 * 
-	 * @return teh pre-condition
+	 * @return the compiled pre-condition
 	 */
-	public Query getPre()
+	public QueryTemplate getPreTemplate()
 	{
-		return pre;
+		if (guardTemplate==null) guardTemplate = new QueryTemplate(pre);
+		return guardTemplate;
 	}
 	
 	/**
@@ -224,7 +225,8 @@ public class BeliefUpdate extends Rule
 		ArrayList<Literal> postclone = new ArrayList<Literal>();
 		for (Literal l : post) postclone.add(l.clone());
 		BeliefUpdate b = new BeliefUpdate(pre.clone(),act.clone(),postclone);
-		b.setRelevantRules(this.relevantRules);
+		b.setUpdatedPredicates(this.updatedPredicates);
+		b.guardTemplate = getPreTemplate();
 		
 		return b;
 	}
@@ -256,7 +258,7 @@ public class BeliefUpdate extends Rule
 		for (Literal l : post) l.freshVars(unfresh,own,changes);
 	}
 
-	public void setRelevantRules(LinkedList<Rule> rules) {
-		this.relevantRules = rules;
+	public void setUpdatedPredicates(BitSet predicates) {
+		this.updatedPredicates = predicates;
 	}
 }
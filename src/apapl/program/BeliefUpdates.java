@@ -9,7 +9,6 @@ import apapl.Unifier;
 import apapl.benchmarking.APLBenchmarkParam;
 import apapl.benchmarking.APLBenchmarker;
 import apapl.data.APLFunction;
-import apapl.data.Query;
 import apapl.data.Term;
 import apapl.plans.BeliefUpdateAction;
 
@@ -21,11 +20,21 @@ public class BeliefUpdates extends Rulebase<BeliefUpdate>
 	private int a = 0;
 	private int b = 0;
 	
+	private HeadIndex<BeliefUpdate> index = new HeadIndex<BeliefUpdate>()
+	{
+		protected APLFunction head(BeliefUpdate rule)
+		{
+			return rule.getAct();
+		}
+	};
+	
 	/**
 	 * Selects a belief update specification of which the action matches
 	 * the belief update action and the pre-condition can be entailed 
 	 * by the belief base. Returns the belief update and stores the substitutions
 	 * in <code>theta</code>. Returns null if no belief update could be selected.
+	 * Only the belief updates of which the action could match the belief update
+	 * action are tried (see {@link HeadIndex}).
 	 * 
 	 * @param plan the belief update action
 	 * @param beliefbase the belief base
@@ -36,7 +45,7 @@ public class BeliefUpdates extends Rulebase<BeliefUpdate>
 	public BeliefUpdate selectBeliefUpdate(APLFunction plan, Beliefbase beliefbase, SubstList<Term> theta, APLModule m) throws NoRuleException
 	{
 		boolean norulefound = true;
-		for (BeliefUpdate c : rules) {
+		for (BeliefUpdate c : index.candidates(rules,plan,theta)) {
 			BeliefUpdate rulecopy = c.clone();
 			ArrayList<String> unfresh = plan.getVariables();
 			ArrayList<String> own = rulecopy.getVariables();
@@ -47,11 +56,10 @@ public class BeliefUpdates extends Rulebase<BeliefUpdate>
 			SubstList<Term> theta2 = theta.clone();
 			if (Unifier.unify(plan,act,theta2)) {
 				norulefound = false;
-				Query pre = rulecopy.getPre();
-				pre.applySubstitution(theta2);
-				
 				APLBenchmarker.startTiming(m, APLBenchmarkParam.BEL_QUERY);
-				boolean beliefQuery = beliefbase.doQuery(pre,theta2);
+				APLBenchmarker.startTiming(m, APLBenchmarkParam.GUARD_QUERY);
+				boolean beliefQuery = beliefbase.doQuery(c.getPreTemplate(),changes,theta2);
+				APLBenchmarker.stopTiming(m, APLBenchmarkParam.GUARD_QUERY);
 				APLBenchmarker.stopTiming(m, APLBenchmarkParam.BEL_QUERY);
 				
 				if (beliefQuery) {
@@ -87,12 +95,7 @@ public class BeliefUpdates extends Rulebase<BeliefUpdate>
 	 */
 	public boolean defines(BeliefUpdateAction a)
 	{
-		APLFunction plan = a.getPlan();
-		for (BeliefUpdate b : rules)  {
-			APLFunction act = b.getAct();
-			if (act.getName().equals(plan.getName())&&act.getParams().size()==plan.getParams().size()) return true;
-		}
-		return false;
+		return index.defines(rules,a.getPlan());
 	}
 	
 	/**
@@ -9,9 +9,13 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 
+import apapl.GuardNetwork;
+import apapl.KnowledgeLayer;
 import apapl.Logger;
 import apapl.Parser;
 import apapl.Prolog;
+import apapl.QueryCache;
+import apapl.QueryTemplate;
 import apapl.SolutionIterator;
 import apapl.SubstList;
 import apapl.beliefinertia.dependencyset.InferenceRules;
@@ -33,6 +37,9 @@ public class Beliefbase extends Base
 {
 	private Prolog belief;
 	
+	private QueryCache cache = null;
+	private GuardNetwork network = null;
+	
 	private Logger logger = null;
 	
 	/** @deprecated */
@@ -47,6 +54,16 @@ public class Beliefbase extends Base
 		belief.loadLibs();
 	}	
 	
+	/**
+	 * Constructs a belief base in which the beliefs are stored by the given engine.
+	 * 
+	 * @param belief the Prolog engine
+	 */
+	private Beliefbase(Prolog belief)
+	{
+		this.belief = belief;
+	}
+	
 	/**
 	 * Performs a query on the belief base and returns all solutions.
 	 * 
@@ -86,6 +103,49 @@ public class Beliefbase extends Base
 		else return false;
 	}
 	
+	/**
+	 * Performs a compiled query, typically the guard of a rule, in the beliefbase. 
+	 * Returns only one of more possible solutions. The query is instantiated with 
+	 * substitution theta. If the query succeeds with a substitution, this substitution
+	 * is added to theta.
+	 * 
+	 * @param query the compiled query
+	 * @param renaming list [[old,new],...] of variables that are renamed in the
+	 *        variant of the rule theta refers to
+	 * @param theta the substitution 
+	 * @return true if the query is successful, false otherwise.
+	 */
+	public boolean doQuery(QueryTemplate query, ArrayList<ArrayList<String>> renaming, SubstList<Term> theta)
+	{
+		if (!QueryTemplate.ENABLED) return doQuery(query.substitute(theta,renaming),theta);
+		
+		if( logger != null)
+			logger.beliefQuery(query.toString(),"doQueryTemplate");
+
+		if (query.isTrue()) return true;
+		
+		if (GuardNetwork.ENABLED) {
+			Boolean satisfied = getGuardNetwork().query(query,renaming,theta);
+			if (satisfied!=null) return satisfied;
+		}
+		
+		ArrayList<SubstList<Term>> solutions = null;
+		String key = null;
+		if (QueryCache.ENABLED) {
+			key = QueryCache.key(query.key(theta,renaming),1);
+			solutions = getQueryCache().get(key);
+		}
+		if (solutions==null) {
+			Prolog engine = belief.getEngine(query.getPredicates());
+			solutions = engine.doQuery(query.instantiate(engine,theta,renaming),1);
+			if (key!=null) getQueryCache().put(key,query.getPredicates(),solutions);
+		}
+		if (solutions.isEmpty()) return false;
+		
+		theta.putAll(solutions.get(0));
+		return true;
+	}
+	
 	/**
 	 * Performs a query on the belief base. Returns only one of more
 	 * possible solutions if the query succeeds, null if the query does not 
@@ -104,10 +164,50 @@ public class Beliefbase extends Base
 			return new SubstList<Term>();
 		}
 		else {
-			ArrayList<SubstList<Term>> solutions = belief.doQueryAll(query);
-			if (solutions.size()<1) return null;
-			else return solutions.get(0);
+			ArrayList<SubstList<Term>> solutions = query(query,1);
+			return solutions.isEmpty() ? null : solutions.get(0);
+		}
+	}
+	
+	/**
+	 * Checks whether a query succeeds on the belief base. Only the first solution 
+	 * is calculated.
+	 * 
+	 * @param query the query to be performed
+	 * @return true if the query succeeds, false otherwise
+	 */
+	public boolean doExists(Query query)
+	{
+		if( logger != null)
+			logger.beliefQuery(query.toString(),"doExists");
+
+		query.evaluate();
+		if (query instanceof True) return true;
+		else if (QueryCache.ENABLED) return !query(query,1).isEmpty();
+		else return belief.doExists(query);
+	}
+	
+	/**
+	 * Performs a query on the belief base. Returns at most <code>max</code> 
+	 * solutions of this query. Each solution is a possible substitution.
+	 * 
+	 * @param query the query to be performed
+	 * @param max the maximum number of solutions, a negative number for all solutions
+	 * @return the list of substitutions
+	 */
+	public ArrayList<SubstList<Term>> doQuery(Query query, int max)
+	{
+		if( logger != null)
+			logger.beliefQuery(query.toString(),"doQueryK");
+
+		ArrayList<SubstList<Term>> solutions;
+		query.evaluate();
+		if (query instanceof True) {
+			solutions = new ArrayList<SubstList<Term>>();
+			if (max!=0) solutions.add(new SubstList<Term>());
 		}
+		else solutions = query(query,max);
+		return solutions;
 	}
 	
 	/**
@@ -128,10 +228,56 @@ public class Beliefbase extends Base
 			solutions = new ArrayList<SubstList<Term>>();
 			solutions.add(new SubstList<Term>());
 		}
-		else solutions = belief.doQueryAll(query);
+		else solutions = query(query,-1);
+		return solutions;
+	}
+	
+	/**
+	 * Performs a query on the Prolog engine. If the query cache is enabled, the 
+	 * answer is taken from the cache unless a belief the query depends on has changed
+	 * since the answer was cached.
+	 * 
+	 * @param query the query to be performed
+	 * @param max the maximum number of solutions, a negative number for all solutions
+	 * @return the list of substitutions
+	 */
+	private ArrayList<SubstList<Term>> query(Query query, int max)
+	{
+		if (!QueryCache.ENABLED) return belief.doQuery(query,max);
+		
+		String key = QueryCache.key(query.toString(),max);
+		ArrayList<SubstList<Term>> solutions = getQueryCache().get(key);
+		if (solutions==null) {
+			solutions = belief.doQuery(query,max);
+			getQueryCache().put(key,QueryCache.predicates(query),solutions);
+		}
 		return solutions;
 	}
 	
+	/**
+	 * Returns the cache of query answers of this belief base. The cache is only used
+	 * if {@link apapl.QueryCache#ENABLED} is set.
+	 * 
+	 * @return the query cache
+	 */
+	public QueryCache getQueryCache()
+	{
+		if (cache==null) cache = new QueryCache(belief);
+		return cache;
+	}
+	
+	/**
+	 * Returns the network that matches guards over the facts of this belief base. The
+	 * network is only used if {@link apapl.GuardNetwork#ENABLED} is set.
+	 * 
+	 * @return the guard network
+	 */
+	public GuardNetwork getGuardNetwork()
+	{
+		if (network==null) network = new GuardNetwork(belief);
+		return network;
+	}
+	
 	/**
 	 * Tests a goal on the beliefbase. Returns whether if the goal
 	 * can be derived from the module's beliefs. 
@@ -152,6 +298,26 @@ public class Beliefbase extends Base
 		return true;
 	}
 	
+	/**
+	 * Returns the predicates the outcome of {@link #doGoalQuery(Goal, SubstList)} 
+	 * depends on, i.e. the predicates of the literals of the goal and the predicates
+	 * these are derived from by the rules of the belief base. 
+	 * 
+	 * @param g the goal
+	 * @return the predicate keys, null if the outcome may change when any belief
+	 *         changes
+	 */
+	public HashSet<String> getGoalDependencies(Goal g)
+	{
+		HashSet<String> predicates = new HashSet<String>();
+		for (Literal l : g) {
+			HashSet<String> p = QueryCache.predicates(l);
+			if (p==null) return null;
+			predicates.addAll(p);
+		}
+		return QueryCache.closure(belief,predicates);
+	}
+	
 	/**
 	 * Checks whether the number of opening parentheses in the string 
 	 * equals the number of closing parentheses. Used to check whether
@@ -191,9 +357,9 @@ public class Beliefbase extends Base
 			Term b = literal.getBody();
 			if (b instanceof APLFunction) ((APLFunction)b).evaluateArguments();
 			if (literal.getSign()) {
-				belief.addPredicate(b.toString());
+				belief.addPredicate(b);
 			}
-			else belief.removePredicate(b.toString());
+			else belief.removePredicate(b);
 		}
 		catch (Exception e) { }
 	}
@@ -272,23 +438,31 @@ public class Beliefbase extends Base
 	}
 	
 	/**
-	 * Clones the beliefbase
+	 * Releases the Prolog engine of this belief base. The belief base must not be
+	 * used afterwards.
+	 */
+	public void close()
+	{
+		belief.close();
+	}
+	
+	/**
+	 * Clones the beliefbase. The clone shares the Prolog engine of this belief base
+	 * until either of them changes its beliefs, see {@link apapl.Prolog#share()}.
 	 */
 	
 	public Beliefbase clone()
 	{
-		Beliefbase cloned = new Beliefbase();
+		Beliefbase cloned = new Beliefbase(belief.share());
 		
 		cloned.setLogger(logger);
 		
-		for (String b :  belief.getBeliefsAsStrings())
-			cloned.getBelief().addPredicate(b);
-		
 		return cloned;		
 	}
 
 	/**
 	 * Adds beliefs from a prolog-file. Either as shadow-beliefs (not rendered by the GUI) or as visible ones.
+	 * Shadow-beliefs are loaded once per file and shared by all modules, see {@link apapl.KnowledgeLayer}.
 	 * 
 	 * @param beliefsFile
 	 * @param shadow
@@ -298,7 +472,7 @@ public class Beliefbase extends Base
 
 		if( shadow == true ) {
 			
-			belief.addFromFile(beliefsFile.getAbsolutePath());
+			belief.attach(KnowledgeLayer.get(beliefsFile));
 		
 		}
 		else {
@@ -2,13 +2,20 @@ package apapl.program;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
 
+import apapl.GoalMatcher;
 import apapl.Logger;
+import apapl.Prolog;
 import apapl.SolutionIterator;
 import apapl.SubstList;
+import apapl.beliefinertia.GoalInertia;
 import apapl.data.Goal;
-import apapl.data.GoalCompare;
 import apapl.data.Literal;
 import apapl.data.Query;
 import apapl.data.Term;
@@ -19,11 +26,52 @@ import apapl.data.True;
  * over by means of an iterator. In contrast to the belief base, goals are not stored
  * as a Prolog program, but as a collection of goals. The reason is that goals have a 
  * non-standard entailment operator.
+ * <p>
+ * Goals are indexed by their canonical key (see {@link Goal#getKey()}), such that
+ * duplicate goals are detected and goals are dropped without comparing them to all
+ * goals in the base, and by each of their literals, such that only goals that share
+ * a literal with a goal are compared when dropping its sub- or supergoals. Goals must
+ * not be modified once they have been added to the goal base.
+ * <p>
+ * Reached goals are detected incrementally (see {@link #removeReachedGoals}): goals
+ * are also indexed by the predicates their achievement depends on, and a goal is only
+ * tested again on the belief base once one of these predicates has been modified.
  */
 public class Goalbase extends Base implements Iterable<Goal>
 {	
+	/**
+	 * Reached goals are detected incrementally when enabled. Disable to test all
+	 * goals whenever the beliefs are updated, e.g. for benchmarking.
+	 */
+	public static boolean INCREMENTAL = true;
+	
 	private ArrayList<Goal> gb = new ArrayList<Goal>();
 	
+	// goals by their canonical key, and by the string representation of each literal
+	private HashMap<String,ArrayList<Goal>> keys = new HashMap<String,ArrayList<Goal>>();
+	private HashMap<String,ArrayList<Goal>> literals = new HashMap<String,ArrayList<Goal>>();
+	
+	// goals without literals, these are subgoals of every goal
+	private ArrayList<Goal> empty = new ArrayList<Goal>();
+	
+	// the goals that have not been tested since they were added, the goals that must
+	// be tested whenever the beliefs change, and the goals that were not reached by
+	// the predicates their achievement depends on 
+	private Set<Goal> untested = identitySet();
+	private Set<Goal> volatileGoals = identitySet();
+	private HashMap<String,ArrayList<Goal>> dependents = new HashMap<String,ArrayList<Goal>>();
+	private IdentityHashMap<Goal,String[]> dependencies = new IdentityHashMap<Goal,String[]>();
+	
+	// the belief base on which the goals were last tested, and the time of that test
+	private Beliefbase tested = null;
+	private long testedAt = 0;
+	
+	// the number of modifications, and the time at which goals with positive literals
+	// of a predicate were last added or dropped
+	private long clock = 0;
+	private HashMap<String,Long> epochs = new HashMap<String,Long>();
+	private GoalInertia inertia = null;
+	
 	private Logger logger = null;
 	
 	/**
@@ -39,6 +87,7 @@ public class Goalbase extends Base implements Iterable<Goal>
 	public Goalbase(ArrayList<Goal> gb)
 	{		
 		this.gb = new ArrayList<Goal>(gb);
+		for (Goal g : gb) index(g);
 	}
 
 	/**
@@ -75,7 +124,7 @@ public class Goalbase extends Base implements Iterable<Goal>
 		SubstList<Term> theta = null;
 		if (query instanceof True) return new SubstList<Term>();
 		else for (Goal goal : this) {
-			ArrayList<SubstList<Term>> solutions = goal.possibleSubstitutions(query);
+			ArrayList<SubstList<Term>> solutions = goal.possibleSubstitutions(query,1);
 			if (solutions.size()>0) return solutions.get(0);
 		}
 		return null;		
@@ -88,7 +137,7 @@ public class Goalbase extends Base implements Iterable<Goal>
 	 */
 	public  Iterator<Goal> iterator()
 	{
-		return gb.iterator();
+		return Collections.unmodifiableList(gb).iterator();
 	}
 	
 	/**
@@ -102,9 +151,10 @@ public class Goalbase extends Base implements Iterable<Goal>
 		if( logger != null)
 			logger.goalAddition(goal.toString(),"assertGoal");
 
-		for (Goal g : gb) if (g.equals(goal)) return;
 		goal.evaluate();
+		if (contains(goal)) return;
 		gb.add(goal);
+		index(goal);
 	}
 	
 	/**
@@ -118,9 +168,10 @@ public class Goalbase extends Base implements Iterable<Goal>
 		if( logger != null)
 			logger.goalAddition(goal.toString(),"asserGoalHead");
 
-		for (Goal g : gb) if (g.equals(goal)) return;
 		goal.evaluate();
+		if (contains(goal)) return;
 		gb.add(0,goal);
+		index(goal);
 	}
 	
 	
@@ -135,20 +186,8 @@ public class Goalbase extends Base implements Iterable<Goal>
 		if( logger != null)
 			logger.goalRemoval(goal.toString(),"dropGoal");
 
-		ArrayList<Goal> toRemove = new ArrayList<Goal>();
-		ArrayList<Literal> toDropList = new ArrayList<Literal>();
-		for (Literal l : goal) toDropList.add(l.clone());
-		Collections.sort(toDropList,GoalCompare.INSTANCE);
-		String toDrop = toDropList.toString();
-		
-		for (Goal g : gb) {
-			ArrayList<Literal> goalList = new ArrayList<Literal>();
-			for (Literal l : g) goalList.add(l.clone());
-			Collections.sort(goalList,GoalCompare.INSTANCE);
-			if (goalList.toString().equals(toDrop)) toRemove.add(g);
-		}
-
-		for (Goal g : toRemove) gb.remove(g);
+		ArrayList<Goal> toRemove = keys.get(goal.getKey());
+		if (toRemove!=null) remove(new ArrayList<Goal>(toRemove));
 	}
 	
 	/**
@@ -162,9 +201,15 @@ public class Goalbase extends Base implements Iterable<Goal>
 		if( logger != null)
 			logger.goalRemoval(goal.toString(),"dropSubGoalGoals");
 
-		ArrayList<Goal> toRemove = new ArrayList<Goal>();
-		for (Goal g : gb) if (isSubGoalFor(g,goal)) toRemove.add(g);
-		for (Goal g : toRemove) gb.remove(g);
+		// a subgoal consists of literals of the goal only
+		ArrayList<Goal> toRemove = new ArrayList<Goal>(empty);
+		Set<Goal> checked = identitySet();
+		for (String l : goal.getSortedLiterals()) {
+			ArrayList<Goal> candidates = literals.get(l);
+			if (candidates!=null) for (Goal g : candidates)
+				if (checked.add(g) && g.isSubGoalOf(goal)) toRemove.add(g);
+		}
+		remove(toRemove);
 	}
 	
 	/**
@@ -177,39 +222,163 @@ public class Goalbase extends Base implements Iterable<Goal>
 		if( logger != null)
 			logger.goalRemoval(goal.toString(),"dropSuperGoals");
 
+		// a supergoal contains every literal of the goal, so it suffices to check
+		// the goals that contain its least frequent literal
+		List<Goal> candidates = gb;
+		for (String l : goal.getSortedLiterals()) {
+			ArrayList<Goal> c = literals.get(l);
+			if (c==null) return;
+			if (c.size()<candidates.size()) candidates = c;
+		}
+		
 		ArrayList<Goal> toRemove = new ArrayList<Goal>();
-		for (Goal g : gb) if (isSubGoalFor(goal,g)) toRemove.add(g);
-		for (Goal g : toRemove) gb.remove(g);
+		for (Goal g : candidates) if (goal.isSubGoalOf(g)) toRemove.add(g);
+		remove(toRemove);
 	}
 	
 	/**
-	 * Check wheter a is a subgoal of b or not.
+	 * Checks whether the goal base contains a goal.
 	 * 
-	 * @param a the possible subgoal
-	 * @param b the possible supergoal
-	 * @return true if a is a subgoal of b, false otherwise
+	 * @param goal the goal
+	 * @return true if the goal base contains a goal equal to the goal, false otherwise
+	 */
+	public boolean contains(Goal goal)
+	{
+		return keys.containsKey(goal.getKey());
+	}
+	
+	/**
+	 * Adds a goal to the indexes.
+	 */
+	private void index(Goal goal)
+	{
+		add(keys,goal.getKey(),goal);
+		String[] l = goal.getSortedLiterals();
+		if (l.length==0) empty.add(goal);
+		for (int i=0; i<l.length; i++)
+			if (i==0 || !l[i].equals(l[i-1])) add(literals,l[i],goal);
+		untested.add(goal);
+		touch(goal);
+	}
+	
+	private static void add(HashMap<String,ArrayList<Goal>> index, String key, Goal goal)
+	{
+		ArrayList<Goal> goals = index.get(key);
+		if (goals==null) {
+			goals = new ArrayList<Goal>(1);
+			index.put(key,goals);
+		}
+		goals.add(goal);
+	}
+	
+	/**
+	 * Removes goals from the goal base and its indexes.
 	 */
-	private boolean isSubGoalFor(Goal a, Goal b)
+	private void remove(List<Goal> toRemove)
 	{
-		// TODO log this too
+		if (toRemove.isEmpty()) return;
 		
-		ArrayList<Goal> toRemove = new ArrayList<Goal>();
-		ArrayList<Literal> dropGoal = new ArrayList<Literal>();
-		for (Literal l : a) dropGoal.add(l.clone());
-		Collections.sort(dropGoal,GoalCompare.INSTANCE);
+		for (Goal goal : toRemove) {
+			remove(keys,goal.getKey(),goal);
+			String[] l = goal.getSortedLiterals();
+			if (l.length==0) removeIdentical(empty,goal);
+			for (int i=0; i<l.length; i++)
+				if (i==0 || !l[i].equals(l[i-1])) remove(literals,l[i],goal);
+			untested.remove(goal);
+			forget(goal);
+			touch(goal);
+		}
 		
-		ArrayList<Literal> goalList = new ArrayList<Literal>();
-		for (Literal l : b) goalList.add(l.clone());
-		Collections.sort(goalList,GoalCompare.INSTANCE);
-			
-		int i = 0;
-		int j = 0;
-		while (i<goalList.size()) {
-			if (j>=dropGoal.size()) return true;
-			else if (dropGoal.get(j).equals(goalList.get(i))) {i++; j++;}
-			else i++;
+		if (toRemove.size()==1) removeIdentical(gb,toRemove.get(0));
+		else {
+			Set<Goal> removed = identitySet();
+			removed.addAll(toRemove);
+			ArrayList<Goal> remaining = new ArrayList<Goal>(gb.size());
+			for (Goal g : gb) if (!removed.contains(g)) remaining.add(g);
+			gb.clear();
+			gb.addAll(remaining);
+		}
+	}
+	
+	private static Set<Goal> identitySet()
+	{
+		return Collections.newSetFromMap(new IdentityHashMap<Goal,Boolean>());
+	}
+	
+	/**
+	 * Marks the predicates of the positive literals of a goal as modified.
+	 */
+	private void touch(Goal goal)
+	{
+		clock++;
+		for (Literal l : goal) {
+			String p = l.getSign() ? GoalMatcher.functor(l.getBody()) : null;
+			if (p!=null) epochs.put(p,clock);
+		}
+	}
+	
+	/**
+	 * Returns the time at which goals with a positive literal of a predicate were
+	 * last added or dropped. Time is measured by counting the modifications of this
+	 * goal base.
+	 * 
+	 * @param predicate the predicate, see {@link GoalMatcher#functor}
+	 * @return the modification time, 0 if no such goal has been added or dropped
+	 */
+	public long getEpoch(String predicate)
+	{
+		Long e = epochs.get(predicate);
+		return e==null ? 0 : e;
+	}
+	
+	/**
+	 * Returns the current time, i.e. the number of modifications of this goal base.
+	 * 
+	 * @return the current time
+	 */
+	public long getClock()
+	{
+		return clock;
+	}
+	
+	/**
+	 * Returns the head matches of the PG rules on the goals of this goal base.
+	 * 
+	 * @return the head matches
+	 */
+	public GoalInertia getGoalInertia()
+	{
+		if (inertia==null) inertia = new GoalInertia(this);
+		return inertia;
+	}
+	
+	/**
+	 * Removes a goal from the index of the predicates the goals depend on.
+	 */
+	private void forget(Goal goal)
+	{
+		volatileGoals.remove(goal);
+		String[] predicates = dependencies.remove(goal);
+		if (predicates!=null) for (String p : predicates) remove(dependents,p,goal);
+	}
+	
+	private static void remove(HashMap<String,ArrayList<Goal>> index, String key, Goal goal)
+	{
+		ArrayList<Goal> goals = index.get(key);
+		if (goals!=null) {
+			removeIdentical(goals,goal);
+			if (goals.isEmpty()) index.remove(key);
+		}
+	}
+	
+	private static void removeIdentical(ArrayList<Goal> goals, Goal goal)
+	{
+		for (int i=0; i<goals.size(); i++) {
+			if (goals.get(i)==goal) {
+				goals.remove(i);
+				return;
+			}
 		}
-		return (j==dropGoal.size());
 	}
 	
 	/**
@@ -244,25 +413,66 @@ public class Goalbase extends Base implements Iterable<Goal>
 	/**
 	 * Removes all goals from the goalbase that are currently achieved. A goal is
 	 * achieved if it can be entailed by the belief base.
+	 * <p>
+	 * Only goals that have been added since the previous call, and goals that depend
+	 * on a predicate that has been modified since, are tested on the belief base; the
+	 * other goals were not achieved then and cannot be achieved now. All goals are 
+	 * tested if the previous call concerned another belief base.
 	 * 
 	 * @param bb the beliefbase
 	 */
 	public void removeReachedGoals(Beliefbase bb)
 	{
-		SubstList<Term> theta = new SubstList<Term>();
+		Prolog belief = bb.getBelief();
+		long now = belief.getClock();
+		
+		List<Goal> candidates;
+		if (!INCREMENTAL || bb!=tested) candidates = gb;
+		else {
+			candidates = new ArrayList<Goal>(untested);
+			candidates.addAll(volatileGoals);
+			Set<Goal> added = identitySet();
+			added.addAll(candidates);
+			for (String p : dependents.keySet()) {
+				if (belief.getEpoch(p)>testedAt) {
+					for (Goal g : dependents.get(p)) if (added.add(g)) candidates.add(g);
+				}
+			}
+		}
 		
 		ArrayList<Goal> toRemove = new ArrayList<Goal>();
-		for (Goal g : gb)
-		if (bb.doGoalQuery(g,theta))
-			toRemove.add(g);
+		ArrayList<Goal> toIndex = new ArrayList<Goal>();
+		for (Goal g : candidates) {
+			if (bb.doGoalQuery(g,new SubstList<Term>())) toRemove.add(g);
+			else toIndex.add(g);
+		}
+		
+		// the rules the goals depend on may have changed as well
+		if (candidates==gb) {
+			volatileGoals.clear();
+			dependents.clear();
+			dependencies.clear();
+		}
+		else for (Goal g : toIndex) forget(g);
+		for (Goal g : toIndex) {
+			HashSet<String> d = INCREMENTAL ? bb.getGoalDependencies(g) : null;
+			if (d==null) volatileGoals.add(g);
+			else {
+				String[] predicates = d.toArray(new String[d.size()]);
+				for (String p : predicates) add(dependents,p,g);
+				dependencies.put(g,predicates);
+			}
+		}
+		untested.clear();
+		tested = bb;
+		testedAt = now;
 			
 		for (Goal g : toRemove)	{
 
 			if( logger != null)
 				logger.goalRemoval(g.toString(),"removeReachedGoals");
-
-			gb.remove(g);
 		}
+		remove(toRemove);
 	}
 
 	/**
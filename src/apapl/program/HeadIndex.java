@@ -0,0 +1,211 @@
+package apapl.program;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import apapl.SubstList;
+import apapl.data.APLFunction;
+import apapl.data.APLIdent;
+import apapl.data.APLNum;
+import apapl.data.APLVar;
+import apapl.data.Term;
+
+/**
+ * Indexes the rules of a rule base by the functor (name and arity) of their head, and
+ * by the value of one argument of the head. Given an event, message, abstract action or
+ * belief update action, only the rules of which the head could unify with it are
+ * returned, such that only these have to be renamed and unified.
+ * <p>
+ * For each functor the argument that discriminates best between its rules is indexed:
+ * the argument position with the most distinct constants (atoms, numbers and compound
+ * terms by their functor) in the heads, e.g. the performative of <code>message/5</code>.
+ * Rules that have a variable or another term at that position are candidates for any
+ * value. Candidates are returned in the order of the rule base.
+ * <p>
+ * The index is rebuilt when the rules of the rule base are replaced or added.
+ *
+ * @param <E> the type of the rules
+ */
+abstract class HeadIndex<E extends Rule>
+{
+	private static final int[] NONE = new int[0];
+
+	private List<E> rules = null;
+	private int size = -1;
+
+	private HashMap<String,Functor> functors = new HashMap<String,Functor>();
+
+	/**
+	 * Returns the head of a rule that is matched against.
+	 *
+	 * @param rule the rule
+	 * @return the head
+	 */
+	protected abstract APLFunction head(E rule);
+
+	/**
+	 * Returns the rules of which the head could unify with a term.
+	 *
+	 * @param rules the rules of the rule base
+	 * @param a the term
+	 * @param theta the substitution that applies to the term
+	 * @return the candidate rules, in the order of the rule base
+	 */
+	public synchronized List<E> candidates(List<E> rules, APLFunction a, SubstList<Term> theta)
+	{
+		Functor f = functor(rules,a);
+		if (f==null) return new ArrayList<E>(0);
+
+		int[] c = f.all;
+		if (f.position>=0) {
+			String key = key(a.getParams().get(f.position),theta);
+			if (key!=null) {
+				int[] k = f.byValue.get(key);
+				c = merge(k==null ? NONE : k, f.any);
+			}
+		}
+
+		ArrayList<E> l = new ArrayList<E>(c.length);
+		for (int i : c) l.add(rules.get(i));
+		return l;
+	}
+
+	/**
+	 * Returns whether some rule has a head with the same functor as a term.
+	 *
+	 * @param rules the rules of the rule base
+	 * @param a the term
+	 * @return true if there is such a rule
+	 */
+	public synchronized boolean defines(List<E> rules, APLFunction a)
+	{
+		return functor(rules,a)!=null;
+	}
+
+	/**
+	 * Returns the entry of the functor of a term, rebuilding the index if the rules
+	 * have changed.
+	 */
+	private Functor functor(List<E> rules, APLFunction a)
+	{
+		if (rules!=this.rules || rules.size()!=size) build(rules);
+		return functors.get(a.getName() + "/" + a.getParams().size());
+	}
+
+	private void build(List<E> rules)
+	{
+		this.rules = rules;
+		size = rules.size();
+		functors.clear();
+
+		HashMap<String,ArrayList<Integer>> byFunctor = new HashMap<String,ArrayList<Integer>>();
+		for (int i=0; i<rules.size(); i++) {
+			APLFunction h = head(rules.get(i));
+			String name = h.getName() + "/" + h.getParams().size();
+			ArrayList<Integer> l = byFunctor.get(name);
+			if (l==null) {
+				l = new ArrayList<Integer>();
+				byFunctor.put(name,l);
+			}
+			l.add(i);
+		}
+
+		for (String name : byFunctor.keySet()) {
+			ArrayList<Integer> l = byFunctor.get(name);
+			Functor f = new Functor();
+			f.all = toArray(l);
+
+			// choose the argument with the most distinct constants
+			int arity = head(rules.get(l.get(0))).getParams().size();
+			int best = 0;
+			for (int p=0; p<arity; p++) {
+				HashSet<String> keys = new HashSet<String>();
+				for (int i : l) {
+					String k = key(head(rules.get(i)).getParams().get(p),null);
+					if (k!=null) keys.add(k);
+				}
+				if (keys.size()>best) {
+					best = keys.size();
+					f.position = p;
+				}
+			}
+
+			if (f.position>=0) {
+				HashMap<String,ArrayList<Integer>> byValue = new HashMap<String,ArrayList<Integer>>();
+				ArrayList<Integer> any = new ArrayList<Integer>();
+				for (int i : l) {
+					String k = key(head(rules.get(i)).getParams().get(f.position),null);
+					if (k==null) any.add(i);
+					else {
+						ArrayList<Integer> v = byValue.get(k);
+						if (v==null) {
+							v = new ArrayList<Integer>();
+							byValue.put(k,v);
+						}
+						v.add(i);
+					}
+				}
+				for (String k : byValue.keySet()) f.byValue.put(k,toArray(byValue.get(k)));
+				f.any = toArray(any);
+			}
+			functors.put(name,f);
+		}
+	}
+
+	/**
+	 * Returns the key of an argument if it is a constant that can only unify with
+	 * terms of the same key, null otherwise. Infix functions are not constants, as
+	 * they may be evaluated when a substitution is applied.
+	 */
+	private static String key(Term t, SubstList<Term> theta)
+	{
+		while (t instanceof APLVar) {
+			Term s = theta==null ? ((APLVar)t).getSubst() : ((APLVar)t).getSubst(theta);
+			if (s==null || s==t) return null;
+			t = s;
+		}
+		if (t instanceof APLIdent) return "i:" + ((APLIdent)t).getName();
+		else if (t instanceof APLNum) return "n:" + ((APLNum)t).getVal();
+		else if (t instanceof APLFunction) {
+			APLFunction f = (APLFunction)t;
+			if (f.isInfix()) return null;
+			return "f:" + f.getName() + "/" + f.getParams().size();
+		}
+		else return null;
+	}
+
+	/**
+	 * Merges two ascending arrays of indices.
+	 */
+	private static int[] merge(int[] a, int[] b)
+	{
+		if (b.length==0) return a;
+		if (a.length==0) return b;
+		int[] m = new int[a.length+b.length];
+		int i = 0, j = 0, k = 0;
+		while (i<a.length && j<b.length) m[k++] = a[i]<b[j] ? a[i++] : b[j++];
+		while (i<a.length) m[k++] = a[i++];
+		while (j<b.length) m[k++] = b[j++];
+		return m;
+	}
+
+	private static int[] toArray(ArrayList<Integer> l)
+	{
+		int[] a = new int[l.size()];
+		for (int i=0; i<a.length; i++) a[i] = l.get(i);
+		return a;
+	}
+
+	/**
+	 * The rules of a single functor.
+	 */
+	private static class Functor
+	{
+		int[] all;
+		int position = -1;
+		HashMap<String,int[]> byValue = new HashMap<String,int[]>();
+		int[] any = NONE;
+	}
+}
@@ -106,7 +106,10 @@ public class PCrule extends Rule
 	 */
 	public PCrule clone()
 	{
-		return new PCrule(head.clone(),guard.clone(),body.clone());
+		PCrule clone = new PCrule(head.clone(),guard.clone(),body.clone());
+		clone.guardTemplate = getGuardTemplate();
+		clone.renaming = this.renaming;
+		return clone;
 	}
 	
 	public String toRTF()
@@ -186,7 +189,28 @@ public class PCrule extends Rule
 	public PCrule getVariant(ArrayList<String> unfresh)
 	{
 		PCrule variant = clone();
-		variant.freshVars(unfresh,getVariables());
+		variant.renaming = new ArrayList<ArrayList<String>>();
+		variant.freshVars(unfresh,getVariables(),variant.renaming);
 		return variant;
 	}
-}
\ No newline at end of file
+	
+	/**
+	 * Returns the head of the variant of this rule that {@link #getVariant(ArrayList)}
+	 * would return, without copying the body. Variables are renamed deterministically,
+	 * so the head can be unified and the guard queried before the rule is known to be
+	 * applicable, and the variant is only constructed when it is.
+	 * 
+	 * @param unfresh the list of variables that cannot be used anymore
+	 * @param renaming the list to which the renaming [[old,new],...] of the variables
+	 *        in the head and guard is added
+	 * @return a fresh clone of the head
+	 */
+	public APLFunction getHeadVariant(ArrayList<String> unfresh, ArrayList<ArrayList<String>> renaming)
+	{
+		ArrayList<String> own = getVariables();
+		APLFunction h = head.clone();
+		h.freshVars(unfresh,own,renaming);
+		guard.clone().freshVars(unfresh,own,renaming);
+		return h;
+	}
+}
\ No newline at end of file
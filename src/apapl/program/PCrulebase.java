@@ -1,6 +1,7 @@
 package apapl.program;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import apapl.APLModule;
 import apapl.NoRuleException;
@@ -12,7 +13,6 @@ import apapl.beliefinertia.ruleselectors.PCruleSelector;
 import apapl.benchmarking.APLBenchmarkParam;
 import apapl.benchmarking.APLBenchmarker;
 import apapl.data.APLFunction;
-import apapl.data.Query;
 import apapl.data.Term;
 import apapl.plans.AbstractAction;
 
@@ -21,6 +21,14 @@ import apapl.plans.AbstractAction;
  */
 public class PCrulebase extends Rulebase<PCrule>
 {
+	private HeadIndex<PCrule> index = new HeadIndex<PCrule>()
+	{
+		protected APLFunction head(PCrule rule)
+		{
+			return rule.getHead();
+		}
+	};
+	
 	/**
 	 * Constructs a new PC-rule base.
 	 */
@@ -33,7 +41,9 @@ public class PCrulebase extends Rulebase<PCrule>
 	 * event/message/abstract action <code>a</code> and the guard is satisfied by
 	 * the beliefs of the module. Returns a copy of the rule with fresh (unique) variables
 	 * such that is does not interfere with the variables that already occur in the plan 
-	 * from which the abstract action is called.
+	 * from which the abstract action is called. Only the rules of which the head has
+	 * the same functor as <code>a</code>, and possibly the same value at the argument
+	 * that discriminates between the rules, are tried (see {@link HeadIndex}).
 	 * 
 	 * @param beliefbase the beliefs
 	 * @param a the event/message/abstract action
@@ -47,27 +57,27 @@ public class PCrulebase extends Rulebase<PCrule>
 	{
 		APLBenchmarker.startTiming(m, APLBenchmarkParam.PCRULE);
 		
-		if (BeliefInertiaParam.ENABLED) return PCruleSelector.selectPCrule(beliefbase, a, unfreshVars, theta, rules, m);
+		List<PCrule> candidates = index.candidates(rules,a,null);
+		if (BeliefInertiaParam.ENABLED) return PCruleSelector.selectPCrule(beliefbase, a, unfreshVars, theta, candidates, m);
 		
 		boolean norulefound = true;
-		for (PCrule pcrule : rules) {
+		for (PCrule pcrule : candidates) {
 			SubstList<Term> theta2 = new SubstList<Term>();
-			PCrule variant = pcrule.getVariant(unfreshVars);
-			Query guard = variant.getGuard().clone();
-			APLFunction head = variant.getHead();
+			ArrayList<ArrayList<String>> renaming = new ArrayList<ArrayList<String>>();
+			APLFunction head = pcrule.getHeadVariant(unfreshVars,renaming);
 			
 			if (Unifier.unify(head,a.clone(),theta2)) {
 				norulefound = false;
-				guard.applySubstitution(theta2);
-				
 				APLBenchmarker.startTiming(m, APLBenchmarkParam.BEL_QUERY);
-				boolean beliefQuery = beliefbase.doQuery(guard,theta2);
+				APLBenchmarker.startTiming(m, APLBenchmarkParam.GUARD_QUERY);
+				boolean beliefQuery = beliefbase.doQuery(pcrule.getGuardTemplate(),renaming,theta2);
+				APLBenchmarker.stopTiming(m, APLBenchmarkParam.GUARD_QUERY);
 				APLBenchmarker.stopTiming(m, APLBenchmarkParam.BEL_QUERY);
 				
 				if (beliefQuery) {
 					theta.putAll(theta2);
 					APLBenchmarker.stopTiming(m, APLBenchmarkParam.PCRULE);
-					return variant;
+					return pcrule.getVariant(unfreshVars);
 				}
 			}
 		}
@@ -86,12 +96,7 @@ public class PCrulebase extends Rulebase<PCrule>
 	 */
 	public boolean defines(AbstractAction a)
 	{
-		APLFunction plan = a.getPlan();
-		for (PCrule r : rules)  {
-			APLFunction head = r.getHead();
-			if (head.getName().equals(plan.getName())&&head.getParams().size()==plan.getParams().size()) return true;
-		}
-		return false;
+		return index.defines(rules,a.getPlan());
 	}
 	
 	/**
@@ -90,6 +90,8 @@ public class PGrule extends Rule
 		clone.theta2 = this.theta2.clone();
 		clone.inertia = this.inertia;
 		clone.ruleApplied = this.ruleApplied;
+		clone.guardTemplate = getGuardTemplate();
+		clone.renaming = this.renaming;
 		
 		return clone;
 	}
@@ -172,7 +174,33 @@ public class PGrule extends Rule
 	public PGrule getVariant(ArrayList<String> unfresh)
 	{
 		PGrule variant = clone();
-		variant.freshVars(unfresh,getVariables());
+		variant.renaming = new ArrayList<ArrayList<String>>();
+		variant.freshVars(unfresh,getVariables(),variant.renaming);
 		return variant;
 	}
+	
+	/**
+	 * Returns the head of the variant of this rule that {@link #getVariant(ArrayList)}
+	 * would return, without copying the guard and body. Variants of PG-rules keep the
+	 * names of the variables, so the head can be matched with the goals and the guard
+	 * queried with the renaming of this rule, and the body is only copied with
+	 * {@link #getBodyVariant()} when the rule is applied.
+	 * 
+	 * @return a clone of the head
+	 */
+	public Query getHeadVariant()
+	{
+		return head.clone();
+	}
+	
+	/**
+	 * Returns the body of the variant of this rule that {@link #getVariant(ArrayList)}
+	 * would return, see {@link #getHeadVariant()}.
+	 * 
+	 * @return a clone of the body
+	 */
+	public PlanSeq getBodyVariant()
+	{
+		return body.clone();
+	}
 }
@@ -3,8 +3,10 @@ package apapl.program;
 import java.util.ArrayList;
 
 import apapl.APLModule;
+import apapl.QueryTemplate;
 import apapl.SubstList;
 import apapl.beliefinertia.BeliefInertiaParam;
+import apapl.beliefinertia.GoalInertia;
 import apapl.beliefinertia.ruleselectors.PGruleSelector;
 import apapl.benchmarking.APLBenchmarkParam;
 import apapl.benchmarking.APLBenchmarker;
@@ -53,6 +55,7 @@ public class PGrulebase extends Rulebase<PGrule>
 		if (BeliefInertiaParam.ENABLED) return PGruleSelector.generatePlans(goalbase, beliefbase, planbase, onlyone, rules, m);
 		
 		ArrayList<PlanSeq> plans = new ArrayList<PlanSeq>();
+		GoalInertia inertia = goalbase.getGoalInertia();
 				
 		// for each rule
 		for (PGrule pgrule : rules)
@@ -61,7 +64,7 @@ public class PGrulebase extends Rulebase<PGrule>
 			if (pgrule.getHead() instanceof True)
 			{ 
 				SubstList<Term> theta = new SubstList<Term>();
-				PlanSeq p = tryRule(pgrule.clone(),pgrule,theta,beliefbase,planbase,m);
+				PlanSeq p = tryRule(pgrule.getHeadVariant(),pgrule,theta,beliefbase,planbase,m);
 				if (p!=null)
 				{ plans.add(p);
 				  planbase.addPlan(p);
@@ -69,18 +72,19 @@ public class PGrulebase extends Rulebase<PGrule>
 				}
 			}
 			// if it is not a reactive rule, try to match the head with the goals
-			else for (Goal goal : goalbase)
+			// it may match
+			else for (Goal goal : inertia.candidates(pgrule))
 			{ boolean ruleApplied = false;
 			  ArrayList<SubstList<Term>> substs;
-				PGrule variant = pgrule.getVariant(goal.getVariables());
+				Query head = pgrule.getHeadVariant();
 				
-				substs = benchmarkPossibleSubs(variant.getHead(), m, goal);
+				substs = benchmarkPossibleSubs(inertia, pgrule, head, m, goal);
 				
 				// for all possible substitutions of the head of the rule, try to match
 				// it with the guard of the rule and check if the module is not already
 				// working on a plan for the same goal
 				for (SubstList<Term> theta : substs)
-				{ PlanSeq p = tryRule(variant,pgrule,theta,beliefbase,planbase,m);
+				{ PlanSeq p = tryRule(head,pgrule,theta,beliefbase,planbase,m);
 					if (p!=null)
 					{ ruleApplied = true;
 					  plans.add(p);
@@ -98,8 +102,10 @@ public class PGrulebase extends Rulebase<PGrule>
 	}
 			
 	/**
-	 * Tries to apply a PG-rule given substitution theta.
+	 * Tries to apply a PG-rule given substitution theta. The body of the rule is only
+	 * copied when the guard is satisfied.
 	 * 
+	 * @param head the head of the variant of the rule, see {@link PGrule#getHeadVariant()}
 	 * @param pgrule the PGrule to be applied
 	 * @param theta the substitutions that are needed to match the rule
 	 * @param beliefs belief base
@@ -107,19 +113,18 @@ public class PGrulebase extends Rulebase<PGrule>
 	 * @return the body of the rule with theta applied to it or null if this rule 
 	 *   cannot be applied
 	 */
-	private PlanSeq tryRule(PGrule variant, PGrule pgrule, SubstList<Term> theta, Beliefbase beliefs, Planbase planbase, APLModule m)
+	private PlanSeq tryRule(Query head, PGrule pgrule, SubstList<Term> theta, Beliefbase beliefs, Planbase planbase, APLModule m)
 	{
-		variant.applySubstitution(theta);
-		Query goalquery = variant.getHead();
-		Query beliefquery = variant.getGuard();
+		head.applySubstitution(theta);
+		Query goalquery = head;
 		SubstList<Term> goaltheta = clone(theta);
 		// Goal is still a goal of the module
-		if (goalquery instanceof True || !benchmarkBBquery(goalquery, theta, m, beliefs))
+		if (goalquery instanceof True || !benchmarkBBexists(goalquery, m, beliefs))
 		{			
 			// Guard is satisfied
-			if (benchmarkBBquery(beliefquery, theta, m, beliefs))
+			if (benchmarkBBquery(pgrule.getGuardTemplate(), pgrule.getRenaming(), theta, m, beliefs))
 			{ 
-				PlanSeq p = variant.getBody();
+				PlanSeq p = pgrule.getBodyVariant();
 				p.applySubstitution(theta);
 				p.setActivationRule(pgrule);
 				p.setActivationGoal(goaltheta);
@@ -165,19 +170,30 @@ public class PGrulebase extends Rulebase<PGrule>
 		return b;
 	}
 	
-	private boolean benchmarkBBquery(Query query, SubstList<Term> theta, APLModule m, Beliefbase bb) 
+	private boolean benchmarkBBquery(QueryTemplate query, ArrayList<ArrayList<String>> renaming, SubstList<Term> theta, APLModule m, Beliefbase bb) 
 	{
 		APLBenchmarker.startTiming(m, APLBenchmarkParam.BEL_QUERY);
-		boolean ret = bb.doQuery(query, theta);
+		APLBenchmarker.startTiming(m, APLBenchmarkParam.GUARD_QUERY);
+		boolean ret = bb.doQuery(query, renaming, theta);
+		APLBenchmarker.stopTiming(m, APLBenchmarkParam.GUARD_QUERY);
 		APLBenchmarker.stopTiming(m, APLBenchmarkParam.BEL_QUERY);
 		
 		return ret;
 	}
 	
-	private ArrayList<SubstList<Term>> benchmarkPossibleSubs(Query query, APLModule m, Goal goal) 
+	private boolean benchmarkBBexists(Query query, APLModule m, Beliefbase bb) 
+	{
+		APLBenchmarker.startTiming(m, APLBenchmarkParam.BEL_QUERY);
+		boolean ret = bb.doExists(query);
+		APLBenchmarker.stopTiming(m, APLBenchmarkParam.BEL_QUERY);
+		
+		return ret;
+	}
+	
+	private ArrayList<SubstList<Term>> benchmarkPossibleSubs(GoalInertia inertia, PGrule rule, Query query, APLModule m, Goal goal) 
 	{
 		APLBenchmarker.startTiming(m, APLBenchmarkParam.GOAL_QUERY);
-		ArrayList<SubstList<Term>> ret = goal.possibleSubstitutions(query);
+		ArrayList<SubstList<Term>> ret = inertia.substitutions(rule, query, goal);
 		APLBenchmarker.stopTiming(m, APLBenchmarkParam.GOAL_QUERY);
 		
 		return ret;
@@ -60,7 +60,10 @@ public class PRrule extends Rule
 	 */
 	public PRrule clone()
 	{
-		return new PRrule(head.clone(),guard.clone(),body.clone());
+		PRrule clone = new PRrule(head.clone(),guard.clone(),body.clone());
+		clone.guardTemplate = getGuardTemplate();
+		clone.renaming = this.renaming;
+		return clone;
 	}
 
 	/**
@@ -106,6 +109,44 @@ public class PRrule extends Rule
 		body.freshVars(unfresh,own,changes);
 	}
 	
+	/**
+	 * Returns the head of the variant that {@link #freshVars} would turn a clone of 
+	 * this rule into, without copying the body. Variables are renamed 
+	 * deterministically, so the head can be unified with a plan and the guard queried
+	 * before the rule is known to be applicable, and the body is only copied with 
+	 * {@link #getBodyVariant} when it is.
+	 * 
+	 * @param unfresh the list of variables that cannot be used anymore
+	 * @param own all the variables in the context of this rule
+	 * @param changes the list to which the renaming [[old,new],...] of the variables
+	 *        in the head and guard is added
+	 * @return a fresh clone of the head
+	 */
+	public PlanSeq getHeadVariant(ArrayList<String> unfresh, ArrayList<String> own, ArrayList<ArrayList<String>> changes)
+	{
+		PlanSeq h = head.clone();
+		h.freshVars(unfresh,own,changes);
+		guard.clone().freshVars(unfresh,own,changes);
+		return h;
+	}
+	
+	/**
+	 * Returns the body of the variant of this rule of which the head has been 
+	 * returned by {@link #getHeadVariant}.
+	 * 
+	 * @param unfresh the list of variables that cannot be used anymore
+	 * @param own all the variables in the context of this rule
+	 * @param changes the renaming of the head and guard, to which the renaming of the
+	 *        variables in the body is added
+	 * @return a fresh clone of the body
+	 */
+	public PlanSeq getBodyVariant(ArrayList<String> unfresh, ArrayList<String> own, ArrayList<ArrayList<String>> changes)
+	{
+		PlanSeq b = body.clone();
+		b.freshVars(unfresh,own,changes);
+		return b;
+	}
+	
 	/**
 	 * Returns the variables that occur inside this rule.
 	 * 
@@ -155,4 +196,4 @@ public class PRrule extends Rule
 	{
 		return "PR rule";
 	}	
-}
\ No newline at end of file
+}
\ No newline at end of file
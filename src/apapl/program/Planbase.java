@@ -2,18 +2,20 @@ package apapl.program;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 
 import apapl.APLModule;
 import apapl.ActivationGoalAchievedException;
+import apapl.GoalMatcher;
 import apapl.ModuleDeactivatedException;
 import apapl.Prolog;
+import apapl.PrologPool;
 import apapl.SolutionIterator;
 import apapl.SubstList;
-import apapl.data.GoalCompare;
-import apapl.data.Literal;
+import apapl.data.Goal;
 import apapl.data.Query;
 import apapl.data.Term;
 import apapl.plans.PlanSeq;
@@ -21,11 +23,23 @@ import apapl.plans.PlanSeq;
 /**
  * The base in which the {@link apapl.plans.PlanSeq}s the module is currently 
  * executing are stored. The plan base can be iterated over by an iterator. 
+ * <p>
+ * Plans are indexed by their id, by the PG-rule that generated them and by the goal
+ * they were generated for, i.e. the canonical key (see {@link Goal#getKey()}) of the
+ * head of that rule instantiated with the activation goal of the plan. The goal of a
+ * plan is determined when the plan is added; the activation rule and goal of a plan
+ * must not be changed once it has been added.
  */
 public class Planbase extends Base implements Iterable<PlanSeq>
 {
 	List<PlanSeq> plans;
 	
+	// plans by id, by activation rule, and by goal
+	private HashMap<Integer,ArrayList<PlanSeq>> ids = new HashMap<Integer,ArrayList<PlanSeq>>();
+	private IdentityHashMap<PGrule,RuleIndex> rules = new IdentityHashMap<PGrule,RuleIndex>();
+	private HashMap<String,ArrayList<PlanSeq>> goals = new HashMap<String,ArrayList<PlanSeq>>();
+	private IdentityHashMap<PlanSeq,String> goalKeys = new IdentityHashMap<PlanSeq,String>();
+	
 	/**
 	 * Constructs a new empty plan base.
 	 */		
@@ -44,12 +58,7 @@ public class Planbase extends Base implements Iterable<PlanSeq>
 	 */
 	public boolean ruleOccurs( PGrule rule )
 	{
-	  for (PlanSeq ps : plans)
-		{ if( ps.getActivationRule() == rule )
-		  { return( true );
-			}
-		}
-		return( false );
+		return rules.containsKey(rule);
 	}
 
 	/**
@@ -64,37 +73,13 @@ public class Planbase extends Base implements Iterable<PlanSeq>
 	 */
 	public boolean sameRuleActiveForSameGoal( PGrule rule, SubstList<Term> theta )
 	{
-	  // Check rule against all plans in the planbase
-		for (PlanSeq ps : plans)
-		{ 
-		  // If the plan is not an initial plan (no activationGoal) and the same
-		  // rule has been used, we check if the heads of the rules with
-			// substiutions applied to them are the same. 
-			if( ps.getActivationGoal() != null && rule == ps.getActivationRule() )
-			{ 
-			  // Apply substitution to head of both rules
-			  Query g1 = ps.getActivationRule().getHead().clone();
-		    g1.applySubstitution( ps.getActivationGoal() );
-			  Query g2 = rule.getHead().clone();
-		    g2.applySubstitution( theta );
-
-				
-
-        // Sort the literals that occur in the head of each rule
-			  // Note that a goal 'a and b' is equal to 'b and a'
-			  LinkedList<Literal> lits1 = g1.toLiterals();
-			  Collections.sort(lits1,GoalCompare.INSTANCE);
-			  LinkedList<Literal> lits2 = g2.toLiterals();
-			  Collections.sort(lits2,GoalCompare.INSTANCE);
-			
-			  // Compare them based on string comparison. In the future this should be
-			  // implemented by means of a compare in the Query class.
-				if( lits1.toString().equals(lits2.toString()) )
-			  { return true;
-		  	}
-			}	
-		}
-		return false;
+		// Only plans that are generated by the same rule for a goal (i.e. not initial
+		// plans, which have no activation goal) are indexed by the instantiated head
+		// of the rule
+		RuleIndex index = rules.get(rule);
+		if (index==null || index.goals.isEmpty()) return false;
+		
+		return index.goals.containsKey(goalKey(rule.getHead(),theta));
 	}
 
 	/**
@@ -107,31 +92,18 @@ public class Planbase extends Base implements Iterable<PlanSeq>
 	 */
 	public boolean workingOnGoal( Query goal )
 	{
-	  // Check goal against all plans in the planbase
-		for (PlanSeq ps : plans)
-		{ // If the plan is not an initial plan (no activationGoal) we check if the
-		  // plan in the planbase is generated for the same goal. In fact, we
-			// compare the heads of the pg-rules with corresponding substitutions.
-		  if( ps.getActivationGoal() != null )
-			{ Query g = ps.getActivationRule().getHead().clone();
-		    g.applySubstitution( ps.getActivationGoal() );
-
-        // Sort the literals that occur in the head of each rule
-			  // Note that a goal 'a and b' is equal to 'b and a'
-			  LinkedList<Literal> lits1 = goal.toLiterals();
-			  Collections.sort(lits1,GoalCompare.INSTANCE);
-			  LinkedList<Literal> lits2 = g.toLiterals();
-			  Collections.sort(lits2,GoalCompare.INSTANCE);
-			
-			  // Compare them based on string comparison. In the future this should be
-			  // implemented by means of a compare in the Query class.
-				if( lits1.toString().equals(lits2.toString()) )
-			  { return true;
-		  	}
-			}	
-		}
-		// Same goal could not be found
-		return false;
+		// Note that a goal 'a and b' is equal to 'b and a'
+		return goals.containsKey(new Goal(goal.toLiterals()).getKey());
+	}
+	
+	/**
+	 * Returns the canonical key of the head of a rule instantiated with a substitution.
+	 */
+	private static String goalKey(Query head, SubstList<Term> theta)
+	{
+		Query g = head.clone();
+		g.applySubstitution(theta);
+		return new Goal(g.toLiterals()).getKey();
 	}
 
 	/**
@@ -155,7 +127,7 @@ public class Planbase extends Base implements Iterable<PlanSeq>
 			catch (ActivationGoalAchievedException e) {toRemove.add(p); planexecuted = true;}
 			catch (ModuleDeactivatedException e) {throw e;}
 		}
-		for (PlanSeq p : toRemove) plans.remove(p);
+		for (PlanSeq p : toRemove) removePlan(p);
 		return planexecuted;
 	}
 	
@@ -172,10 +144,10 @@ public class Planbase extends Base implements Iterable<PlanSeq>
 		PlanSeq p = plans.get(0);
 		try {
 			boolean e = p.execute(module);
-			if (p.isEmpty()) plans.remove(p);
+			if (p.isEmpty()) removePlan(p);
 			return e;
 		}
-		catch (ActivationGoalAchievedException e) {plans.remove(p); return false;}
+		catch (ActivationGoalAchievedException e) {removePlan(p); return false;}
 		catch (ModuleDeactivatedException e) { throw e; }
 	}
 	
@@ -187,11 +159,8 @@ public class Planbase extends Base implements Iterable<PlanSeq>
 	 */
 	public PlanSeq getPlan(int id)
 	{
-		for (PlanSeq p : plans) 
-			if (p.getID()==id) 
-				return p;
-		
-		return null;
+		ArrayList<PlanSeq> ps = ids.get(id);
+		return ps==null ? null : ps.get(0);
 	}
 	
 	
@@ -203,6 +172,23 @@ public class Planbase extends Base implements Iterable<PlanSeq>
 	public void addPlan(PlanSeq p)
 	{
 		plans.add(p);
+		
+		add(ids,p.getID(),p);
+		PGrule rule = p.getActivationRule();
+		if (rule!=null) {
+			RuleIndex index = rules.get(rule);
+			if (index==null) {
+				index = new RuleIndex();
+				rules.put(rule,index);
+			}
+			index.plans.add(p);
+			if (p.getActivationGoal()!=null) {
+				String key = goalKey(rule.getHead(),p.getActivationGoal());
+				goalKeys.put(p,key);
+				add(index.goals,key,p);
+				add(goals,key,p);
+			}
+		}
 	}
 
 	/**
@@ -212,8 +198,60 @@ public class Planbase extends Base implements Iterable<PlanSeq>
 	 */
 	public void removePlan(PlanSeq p)
 	{
-		plans.remove(p);
-	}	
+		if (!removeIdentical(plans,p)) return;
+		
+		remove(ids,p.getID(),p);
+		PGrule rule = p.getActivationRule();
+		RuleIndex index = rule==null ? null : rules.get(rule);
+		if (index!=null) {
+			removeIdentical(index.plans,p);
+			String key = goalKeys.remove(p);
+			if (key!=null) {
+				remove(index.goals,key,p);
+				remove(goals,key,p);
+			}
+			if (index.plans.isEmpty()) rules.remove(rule);
+		}
+	}
+	
+	private static <K> void add(HashMap<K,ArrayList<PlanSeq>> index, K key, PlanSeq p)
+	{
+		ArrayList<PlanSeq> ps = index.get(key);
+		if (ps==null) {
+			ps = new ArrayList<PlanSeq>(1);
+			index.put(key,ps);
+		}
+		ps.add(p);
+	}
+	
+	private static <K> void remove(HashMap<K,ArrayList<PlanSeq>> index, K key, PlanSeq p)
+	{
+		ArrayList<PlanSeq> ps = index.get(key);
+		if (ps!=null) {
+			removeIdentical(ps,p);
+			if (ps.isEmpty()) index.remove(key);
+		}
+	}
+	
+	private static boolean removeIdentical(List<PlanSeq> ps, PlanSeq p)
+	{
+		for (int i=0; i<ps.size(); i++) {
+			if (ps.get(i)==p) {
+				ps.remove(i);
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * The plans generated by a PG-rule, and these plans by their goal.
+	 */
+	private static class RuleIndex
+	{
+		ArrayList<PlanSeq> plans = new ArrayList<PlanSeq>(1);
+		HashMap<String,ArrayList<PlanSeq>> goals = new HashMap<String,ArrayList<PlanSeq>>();
+	}
 	
 	/**
 	 * Convert this plan base to a string representation.
@@ -250,7 +288,7 @@ public class Planbase extends Base implements Iterable<PlanSeq>
 	 */
 	public Iterator<PlanSeq> iterator()
 	{
-		return plans.iterator();
+		return Collections.unmodifiableList(plans).iterator();
 	}
 	
 	/**
@@ -268,24 +306,35 @@ public class Planbase extends Base implements Iterable<PlanSeq>
 	}
 	
     /**
-     * Performs a test on the planbase
+     * Performs a test on the planbase. The iterator should be closed by clients that
+     * do not retrieve all solutions.
+     * <p>
+     * The query is performed on the plan descriptors of the first actions of the
+     * plans. Queries that consist of literals only are matched against the descriptors
+     * directly by the {@link apapl.GoalMatcher}, which only unifies each literal with
+     * the descriptors of the same functor; other queries are performed on a Prolog
+     * engine to which the descriptors are asserted.
      * 
      * @param query the plan query
      * @return the solution iterator
      */
     public SolutionIterator doTest(Query query)
     {
-        Prolog prolog = new Prolog();
-        
-        // Fill-in Prolog database with terms representing the first action of
-        // each plan.
+        // Collect the terms representing the first action of each plan.
+        ArrayList<Term> descriptors = new ArrayList<Term>(plans.size());
         for (PlanSeq p : plans) {
-            if (plans.size() > 0) {            
-                prolog.addPredicate(p.getPlans().getFirst().getPlanDescriptor().toString());
+            if (!p.isEmpty()) {            
+                descriptors.add(p.getPlans().getFirst().getPlanDescriptor());
             }
-        }        
+        }
+        
+        if (GoalMatcher.supports(query))
+            return new SolutionIterator(new GoalMatcher(descriptors).solve(query,-1));
+        
+        Prolog prolog = PrologPool.acquire();
+        for (Term d : descriptors) prolog.addPredicate(d.toString());
         
-        SolutionIterator solutions = prolog.doTest(query);
+        SolutionIterator solutions = PrologPool.doTest(prolog, query);
         return solutions;
     }
     
@@ -1,8 +1,10 @@
 package apapl.program;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashSet;
 import java.util.LinkedList;
 
+import apapl.QueryTemplate;
 import apapl.SubstList;
 import apapl.data.Query;
 import apapl.data.Term;
@@ -24,6 +26,9 @@ public abstract class Rule
 	
 	public HashSet<String> dependencySet = new HashSet<String>();
 	
+	// the ids of the predicates in the dependency set, see apapl.beliefinertia.PredicateTable
+	public BitSet dependencies = new BitSet();
+	
 	//  when the transitive closure of the guard of a rule contains the "rand" term
 	//  inertia should never hold.
 	public boolean exclude = false;
@@ -32,6 +37,12 @@ public abstract class Rule
 	protected Query guard;
 	protected PlanSeq body;
 	
+	// the compiled guard, shared by the rule and all its variants
+	protected QueryTemplate guardTemplate = null;
+	
+	// the renaming [[old,new],...] that turned the original rule into this variant
+	protected ArrayList<ArrayList<String>> renaming = new ArrayList<ArrayList<String>>();
+	
 	/**
 	 * Pretty print, for displaying the rule in a readable format.
 	 * 
@@ -147,4 +158,27 @@ public abstract class Rule
 	{
 		return guard;
 	}
-}
\ No newline at end of file
+	
+	/**
+	 * Returns the compiled guard of this rule. The guard is compiled the first time
+	 * it is requested, variants of the rule share the compiled guard of the original.
+	 * 
+	 * @return the compiled guard
+	 */
+	public QueryTemplate getGuardTemplate()
+	{
+		if (guardTemplate==null) guardTemplate = new QueryTemplate(getGuard());
+		return guardTemplate;
+	}
+	
+	/**
+	 * Returns the renaming of variables that turned the original rule into this 
+	 * variant. Empty if this rule is not a variant.
+	 * 
+	 * @return list [[old,new],...] of renamed variables
+	 */
+	public ArrayList<ArrayList<String>> getRenaming()
+	{
+		return renaming;
+	}
+}
\ No newline at end of file
@@ -33,6 +33,7 @@ import javax.swing.tree.TreePath;
 import apapl.APAPLBuilder;
 import apapl.APLMAS;
 import apapl.APLModule;
+import apapl.EventBus;
 import apapl.LoadEnvironmentException;
 import apapl.MASChangeListener;
 import apapl.MASExecutionListener;
@@ -105,6 +106,8 @@ public class GUI extends JFrame implements WindowListener,
 	MasTab mastab;
 
 	protected APLMAS mas;
+	/** Delivers the events of the modules to the GUI, outside their threads */
+	protected EventBus bus;
 	protected Toolbar toolbar;
 	protected File masfile;
 	protected Messenger msgr;
@@ -203,8 +206,13 @@ public class GUI extends JFrame implements WindowListener,
 			// created/released/activated/deactivated
 			mas.addMASChangeListener(this);
 			// GUI will be informed each time a module is started/stopped/put to
-			// sleep/waken up
-			mas.addMASExecutionListener(this);
+			// sleep/waken up, and after each deliberation step. The events are
+			// delivered asynchronously, so updating the GUI does not slow the
+			// modules down; when the GUI falls behind, only the latest change
+			// of each module is shown.
+			bus = new EventBus();
+			bus.subscribe(this, EventBus.Policy.COALESCE);
+			mas.addMASExecutionListener(bus);
 
 			this.masfile = masfile;
 
@@ -267,6 +275,8 @@ public class GUI extends JFrame implements WindowListener,
 	{
 		mas.takeDown();
 		mas = null;
+		bus.close();
+		bus = null;
 		toolbar.setMAS(null);
 
 		msgr.restart();
@@ -303,8 +313,18 @@ public class GUI extends JFrame implements WindowListener,
 		tree.expandPath(treeModel.getPathTo(treeModel.getNode(module
 				.getParent())));
 
-		// Add listeners
-		module.addModuleChangeListener(this);
+		// Add listeners. The changes are delivered later, so the state shown
+		// by the state tracer is taken in the thread of the module.
+		final EventBus target = bus;
+		module.addModuleChangeListener(new ModuleChangeListener()
+		{
+			public void moduleChanged(APLModule m, DeliberationResult result)
+			{
+				if (toolbar.isTracerEnabled())
+					result = new TracedResult(m, result);
+				target.moduleChanged(m, result);
+			}
+		});
 
 		viewer.update();
 	}
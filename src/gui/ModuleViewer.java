@@ -122,19 +122,24 @@ public class ModuleViewer extends Viewer
 
 	public void logState(DeliberationResult result)
 	{
-		if (tracerEnabled) {
-			synchronized(module)
-			{	
-				history.addPart(StateHistory.BELIEFS, statenr, module.getBeliefbase().toString());
-				history.addPart(StateHistory.GOALS, statenr, module.getGoalbase().toString());
-				history.addPart(StateHistory.PLANS, statenr, module.getPlanbase().toString());
-			}
-			
+		// The state after a step is taken when the step is performed, see
+		// TracedResult; steps performed while the tracer was disabled are skipped
+		if (tracerEnabled && (result == null || result instanceof TracedResult)) {
 			if (result == null){
+				synchronized(module)
+				{	
+					history.addPart(StateHistory.BELIEFS, statenr, module.getBeliefbase().toString());
+					history.addPart(StateHistory.GOALS, statenr, module.getGoalbase().toString());
+					history.addPart(StateHistory.PLANS, statenr, module.getPlanbase().toString());
+				}
 				history.addPart(StateHistory.LOGS, statenr, "Initial State");
 			}		
 			else
 			{
+				TracedResult traced = (TracedResult)result;
+				history.addPart(StateHistory.BELIEFS, statenr, traced.getBeliefs());
+				history.addPart(StateHistory.GOALS, statenr, traced.getGoals());
+				history.addPart(StateHistory.PLANS, statenr, traced.getPlans());
 				history.addPart(StateHistory.LOGS, statenr, result.stepName());
 			}
 			statenr++;
@@ -61,7 +61,7 @@ public class Toolbar implements ActionListener, ItemListener
 	/**
 	 * Indicates whether tracing information will be saved after each step.
 	 */
-	private boolean tracerEnabled = true;
+	private volatile boolean tracerEnabled = true;
 	
 	public boolean isTracerEnabled() {
 		return tracerEnabled;
@@ -0,0 +1,67 @@
+package gui;
+
+import java.util.LinkedList;
+
+import apapl.APLModule;
+import apapl.deliberation.DeliberationResult;
+
+/**
+ * A deliberation result together with the state of the module right after the
+ * step, as shown by the {@link StateTracer}. The state is taken in the thread of
+ * the module, such that it is exact even though the result is delivered to the
+ * GUI later.
+ */
+class TracedResult extends DeliberationResult
+{
+	private DeliberationResult result;
+	private String beliefs;
+	private String goals;
+	private String plans;
+
+	/**
+	 * Takes the state of a module after a deliberation step.
+	 *
+	 * @param module the module
+	 * @param result the result of the step
+	 */
+	TracedResult(APLModule module, DeliberationResult result)
+	{
+		this.result = result;
+		synchronized (module)
+		{
+			beliefs = module.getBeliefbase().toString();
+			goals = module.getGoalbase().toString();
+			plans = module.getPlanbase().toString();
+		}
+	}
+
+	public String getBeliefs()
+	{
+		return beliefs;
+	}
+
+	public String getGoals()
+	{
+		return goals;
+	}
+
+	public String getPlans()
+	{
+		return plans;
+	}
+
+	public String stepName()
+	{
+		return result.stepName();
+	}
+
+	public boolean moduleChanged()
+	{
+		return result.moduleChanged();
+	}
+
+	public LinkedList<DeliberationResult.InfoMessage> listInfo()
+	{
+		return result.listInfo();
+	}
+}